@@ -0,0 +1,109 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillChargeDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the DTO trees from the flat rows of the projection queries, in one pass over the rows.
+ * The rows keep their query order, so the accounts, bills and charges come out in that order too.
+ */
+@Component
+public class AccountRowAssembler {
+
+    /**
+     * Groups the rows into accounts, each holding its bills and their charges.
+     */
+    public List<AccountDTO> assembleAccounts(List<AccountRowDTO> rows){
+
+        Map<Integer, AccountDTO> accountDTOMap = new LinkedHashMap<>();
+        Map<Integer, BillDTO> billDTOMap = new HashMap<>();
+
+        for (AccountRowDTO row : rows){
+
+            AccountDTO accountDTO = accountDTOMap.computeIfAbsent(row.getAccountId(), accountId -> buildAccountDTO(row));
+
+            if(row.getBillId() == null){
+                continue;
+            }
+
+            BillDTO billDTO = billDTOMap.get(row.getBillId());
+
+            if(billDTO == null){
+                billDTO = buildBillDTO(row, accountDTO);
+                billDTOMap.put(row.getBillId(), billDTO);
+                accountDTO.getBills().add(billDTO);
+            }
+
+            addBillCharge(row, billDTO);
+        }
+
+        return new ArrayList<>(accountDTOMap.values());
+    }
+
+    /**
+     * Groups the rows into bills, each holding its charges and a reference to its account without bills.
+     */
+    public List<BillDTO> assembleBills(List<AccountRowDTO> rows){
+
+        Map<Integer, BillDTO> billDTOMap = new LinkedHashMap<>();
+
+        for (AccountRowDTO row : rows){
+
+            BillDTO billDTO = billDTOMap.computeIfAbsent(row.getBillId(),
+                    billId -> buildBillDTO(row, buildAccountDTO(row)));
+
+            addBillCharge(row, billDTO);
+        }
+
+        return new ArrayList<>(billDTOMap.values());
+    }
+
+    private AccountDTO buildAccountDTO(AccountRowDTO row){
+
+        AccountDTO accountDTO = new AccountDTO();
+        accountDTO.setId(row.getAccountId());
+        accountDTO.setVersion(row.getAccountVersion());
+        accountDTO.setFirstName(row.getFirstName());
+        accountDTO.setLastName(row.getLastName());
+
+        return accountDTO;
+    }
+
+    private BillDTO buildBillDTO(AccountRowDTO row, AccountDTO accountDTO){
+
+        BillDTO billDTO = new BillDTO();
+        billDTO.setId(row.getBillId());
+        billDTO.setVersion(row.getBillVersion());
+        billDTO.setIssueDate(row.getIssueDate());
+        billDTO.setDueDate(row.getDueDate());
+        billDTO.setAccount(accountDTO);
+        billDTO.setAccountId(accountDTO.getId());
+
+        return billDTO;
+    }
+
+    private void addBillCharge(AccountRowDTO row, BillDTO billDTO){
+
+        if(row.getChargeId() == null){
+            return;
+        }
+
+        BillChargeDTO billChargeDTO = new BillChargeDTO();
+        billChargeDTO.setId(row.getChargeId());
+        billChargeDTO.setChargeType(row.getChargeType());
+        billChargeDTO.setAmount(row.getAmount());
+        billChargeDTO.setTax(row.getTax());
+        billChargeDTO.setBill(billDTO);
+
+        billDTO.getBillCharges().add(billChargeDTO);
+    }
+}
@@ -1,20 +1,26 @@
 package net.gsdgroup.billing.business;
 
 import net.gsdgroup.billing.dao.AccountRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO;
 import net.gsdgroup.billing.webservice.accountDTO.SimpleAccountDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillChargeDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.entity.BillCharge;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import javax.persistence.NoResultException;
 import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,98 +33,207 @@ public class AccountService {
     private AccountRepository accountRepository;
     @Autowired
     private DataValidator dataValidator;
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+    @Autowired
+    private MonthlyRevenueService monthlyRevenueService;
+    @Autowired
+    private ChargeRollupService chargeRollupService;
+    @Autowired
+    private BillChangeNotifier billChangeNotifier;
+    @Autowired
+    private AccountRowAssembler accountRowAssembler;
+    @Autowired
+    private ShardExecutor shardExecutor;
+    @Autowired
+    private TransactionRetrier transactionRetrier;
 
-    @Transactional
+    /**
+     * Stores a new account with its bills. Retried when it runs into a concurrent update, typically two writers
+     * creating the same monthly revenue or charge rollup row at once.
+     */
     public int addAccount(Account account) {
 
-        int accountId = 0;
-
         if(account == null){
             throw new ServiceException("Error processing request. The account entity cannot be null.");
         }
 
-        if(dataValidator.validateAccountData(account)) {
-            accountId = accountRepository.add(account);
-
-        } else {
+        if(!dataValidator.validateAccountData(account)) {
             throw new ServiceException("Account entity validation error.");
         }
 
-        return accountId;
+        return transactionRetrier.inTransaction(() -> {
+
+            clearIds(account);
+            int accountId = accountRepository.add(account);
+            monthlyRevenueService.addBills(account.getBills());
+            chargeRollupService.addBills(account.getBills());
+            billChangeNotifier.billsStored(account.getBills());
+
+            return accountId;
+        });
     }
 
-    @Transactional
-    public void deleteAccount(int accountId) {
+    /**
+     * Clears the ids of a new account, its bills and their charges, so an attempt that was rolled back after
+     * they were generated does not make the next one take them for stored entities.
+     */
+    private static void clearIds(Account account){
 
-        Account account = accountRepository.getById(Account.class,accountId);
+        account.setId(0);
 
-        if(account == null){
-            throw new ServiceException("Account not found.");
+        for (Bill bill : account.getBills()){
+
+            bill.setId(0);
 
-        } else {
-            accountRepository.delete(account);
+            for (BillCharge billCharge : bill.getBillCharges()){
+                billCharge.setId(0);
+            }
         }
     }
 
-    @Transactional
+    /**
+     * Deletes the account with all its bills and charges using set-based statements, so the cost does not
+     * depend on how many bills the account has. Retried when it runs into a concurrent update.
+     */
+    public void deleteAccount(int accountId) {
+
+        transactionRetrier.inTransaction(() -> {
+
+            if(accountRepository.getExistingIds(Account.class, Collections.singleton(accountId)).isEmpty()){
+                throw new ServiceException("Account not found.");
+
+            } else {
+                monthlyRevenueService.removeAccountBills(accountId);
+                chargeRollupService.removeAccountBills(accountId);
+                billChangeNotifier.accountBillsRemoved(accountId);
+                accountRepository.deleteWithBills(accountId);
+            }
+        });
+    }
+
+    /**
+     * Updates the names of the account. The account must carry the version it was read with: when the stored
+     * account has changed since, the update is rejected with a ConflictException holding the current version.
+     * Retried when it runs into a concurrent update.
+     */
     public void updateAccount(Account account) {
 
         if(account == null){
             throw new ServiceException("Error processing request. The account entity cannot be null.");
         }
 
-        if(dataValidator.validateAccountData(account)) {
-            accountRepository.update(account);
-
-        } else {
+        if(!dataValidator.validateAccountData(account)) {
             throw new ServiceException("Account entity validation error.");
         }
+
+        transactionRetrier.inTransaction(() -> {
+
+            Account storedAccount = accountRepository.getById(Account.class, account.getId());
+
+            if(storedAccount == null){
+                throw new ServiceException("Account not found.");
+            }
+
+            if(storedAccount.getVersion() != account.getVersion()){
+                throw transactionRetrier.versionConflict("The account was changed since it was read.",
+                        storedAccount.getVersion());
+            }
+
+            storedAccount.setFirstName(account.getFirstName());
+            storedAccount.setLastName(account.getLastName());
+        });
     }
 
-    @Transactional
+    /**
+     * Returns all the accounts, built straight from the rows of a projection query.
+     */
+    @Transactional(readOnly = true)
     public List<AccountDTO> getAllAccounts(){
 
-        List<AccountDTO> accountDtoList = new ArrayList<>();
-        List<Account> accountList = accountRepository.getAll(Account.class);
+        return accountRowAssembler.assembleAccounts(accountRepository.getAccountRows());
+    }
+
+    /**
+     * Returns the accounts with an id greater than afterId, at most limit of them. The page is fetched with one
+     * extra account so the next cursor is only set when there really is a following page.
+     */
+    @Transactional(readOnly = true)
+    public PageDTO<AccountDTO> getAccountsPage(int afterId, int limit){
 
-        for (Account account : accountList) {
-            AccountDTO accountDto = buildAccountDto(account);
-            accountDtoList.add(accountDto);
+        if(!dataValidator.validatePageLimit(limit)){
+            throw new ServiceException("Invalid page limit.");
         }
 
-        return accountDtoList;
+        List<AccountDTO> accountDtoList = accountRowAssembler.assembleAccounts(
+                accountRepository.getAccountRowsPage(afterId, limit + 1));
+        boolean hasNext = accountDtoList.size() > limit;
+
+        if(hasNext){
+            accountDtoList = new ArrayList<>(accountDtoList.subList(0, limit));
+        }
+
+        Integer nextCursor = hasNext ? accountDtoList.get(limit - 1).getId() : null;
+
+        return new PageDTO<>(accountDtoList, limit, nextCursor);
     }
 
-    @Transactional
+    /**
+     * Writes all the accounts to the output stream as newline delimited json, walking the rows of the projection
+     * with a cursor and assembling one account at a time. The shards are written one after the other, each in
+     * id order.
+     */
+    @Transactional(readOnly = true)
+    public void streamAllAccounts(OutputStream outputStream) throws IOException {
+
+        shardExecutor.forEachShardInOrder(shard ->
+                ndjsonWriter.writeGroups(accountRepository.scrollAccountRows(NdjsonWriter.STREAM_FETCH_SIZE),
+                        AccountRowDTO::getAccountId, this::assembleAccount, outputStream));
+    }
+
+    @Transactional(readOnly = true)
     public AccountDTO getAccountById(int id) {
 
-        try {
-            AccountDTO accountDto = buildAccountDto(accountRepository.getById(id));
-            return accountDto;
+        List<AccountDTO> accountDtoList = accountRowAssembler.assembleAccounts(accountRepository.getAccountRowsById(id));
 
-        } catch (NoResultException e){
+        if(accountDtoList.isEmpty()){
             throw new ServiceException("No result.");
         }
+
+        return accountDtoList.get(0);
     }
 
-    @Transactional
+    /**
+     * Returns the accounts with overdue bills. Each account only holds its overdue bills.
+     */
+    @Transactional(readOnly = true)
     public List<AccountDTO> getAccountsWithOverdueBills(){
 
-        List<AccountDTO> accountDtoList = new ArrayList<>();
-        List<Account> accountList = accountRepository.getAccountsWithOverdueBills();
+        return accountRowAssembler.assembleAccounts(accountRepository.getOverdueAccountRows());
+    }
 
-        for (Account account: accountList) {
-            AccountDTO accountDto = buildAccountDto(account);
+    /**
+     * Writes the accounts with overdue bills to the output stream as newline delimited json. Each account only
+     * holds its overdue bills, as in getAccountsWithOverdueBills.
+     */
+    @Transactional(readOnly = true)
+    public void streamAccountsWithOverdueBills(OutputStream outputStream) throws IOException {
 
-            accountDtoList.add(accountDto);
-        }
-        return accountDtoList;
+        shardExecutor.forEachShardInOrder(shard ->
+                ndjsonWriter.writeGroups(accountRepository.scrollOverdueAccountRows(NdjsonWriter.STREAM_FETCH_SIZE),
+                        AccountRowDTO::getAccountId, this::assembleAccount, outputStream));
+    }
+
+    private AccountDTO assembleAccount(List<AccountRowDTO> rows){
+
+        return accountRowAssembler.assembleAccounts(rows).get(0);
     }
 
     public AccountDTO buildAccountDto(Account accountEntity){
 
         AccountDTO accountDto = new AccountDTO();
         accountDto.setId(accountEntity.getId());
+        accountDto.setVersion(accountEntity.getVersion());
         accountDto.setFirstName(accountEntity.getFirstName());
         accountDto.setLastName(accountEntity.getLastName());
 
@@ -126,6 +241,7 @@ public class AccountService {
 
             BillDTO billDTO = new BillDTO();
             billDTO.setId(bill.getId());
+            billDTO.setVersion(bill.getVersion());
             billDTO.setIssueDate(bill.getIssueDate());
             billDTO.setDueDate(bill.getDueDate());
             billDTO.setAccount(accountDto);
@@ -157,6 +273,7 @@ public class AccountService {
                 accountEntity.setId(simpleAccountDTO.getId());
             }
 
+            accountEntity.setVersion(simpleAccountDTO.getVersion());
             accountEntity.setFirstName(simpleAccountDTO.getFirstName());
             accountEntity.setLastName(simpleAccountDTO.getLastName());
 
@@ -177,6 +294,7 @@ public class AccountService {
 
         Account accountEntity = new Account();
         accountEntity.setId(accountDTO.getId());
+        accountEntity.setVersion(accountDTO.getVersion());
         accountEntity.setFirstName(accountDTO.getFirstName());
         accountEntity.setLastName(accountDTO.getLastName());
 
@@ -184,6 +302,7 @@ public class AccountService {
 
             Bill bill = new Bill();
             bill.setId(billDTO.getId());
+            bill.setVersion(billDTO.getVersion());
             bill.setIssueDate(billDTO.getIssueDate());
             bill.setDueDate(billDTO.getDueDate());
             bill.setAccount(accountEntity);
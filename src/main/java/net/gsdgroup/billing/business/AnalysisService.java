@@ -0,0 +1,263 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.AccountRepository;
+import net.gsdgroup.billing.dao.ChargeAggregateRepository;
+import net.gsdgroup.billing.dao.GroupByMeasure;
+import net.gsdgroup.billing.dao.GroupByQuery;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.dao.ShardMapping;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.analysisDTO.AccountTotalDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AgingDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AgingReportDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.GroupByRowDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Service class for the reports over the bills and their charges computed in the database.
+ */
+@Service
+public class AnalysisService {
+
+    /**
+     * Number of account totals pulled from the database at a time when ranking accounts.
+     */
+    private static final int RANKING_FETCH_SIZE = 1000;
+
+    /**
+     * Highest total first, ties broken by the lowest account id.
+     */
+    private static final Comparator<AccountTotalDTO> BY_TOTAL_DESCENDING =
+            Comparator.comparingLong(AccountTotalDTO::getTotal).reversed()
+                    .thenComparingInt(AccountTotalDTO::getAccountId);
+
+    @Autowired
+    private ChargeAggregateRepository chargeAggregateRepository;
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private DataValidator dataValidator;
+    @Autowired
+    private ShardExecutor shardExecutor;
+    @Autowired
+    private ShardMapping shardMapping;
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+
+    /**
+     * Runs the group-by query in one aggregate statement per shard. Without measures it computes the sums of
+     * the amount and the tax and the number of charges.
+     */
+    @Transactional(readOnly = true)
+    public List<GroupByRowDTO> groupBy(GroupByQuery query){
+
+        if(query == null){
+            throw new ServiceException("Error processing request. The query cannot be null.");
+        }
+
+        if(query.getMeasures().isEmpty()){
+            query.addMeasure(GroupByMeasure.SUM_AMOUNT);
+            query.addMeasure(GroupByMeasure.SUM_TAX);
+            query.addMeasure(GroupByMeasure.COUNT);
+        }
+
+        return chargeAggregateRepository.groupBy(query);
+    }
+
+    /**
+     * The given number of accounts with the highest total charged (amount + tax) on the bills issued between
+     * the dates, both inclusive and optional. Each shard streams its per-account totals through a min-heap of
+     * that size, so no more totals than asked for are ever kept per shard; the heaps of the shards are merged
+     * the same way and the names are read for the accounts kept only.
+     */
+    @Transactional(readOnly = true)
+    public List<AccountTotalDTO> getTopAccounts(int count, Date from, Date to){
+
+        if(!dataValidator.validateTopAccountCount(count)){
+            throw new ServiceException("Invalid number of accounts.");
+        }
+
+        GroupByQuery filter = new GroupByQuery();
+        filter.setIssuedFrom(from);
+        filter.setIssuedTo(to);
+
+        PriorityQueue<AccountTotalDTO> top = new PriorityQueue<>(count + 1, BY_TOTAL_DESCENDING.reversed());
+
+        for (List<AccountTotalDTO> shardTop : shardExecutor.onEachShard(shard -> getTopAccountsOnShard(count, filter))){
+            for (AccountTotalDTO accountTotal : shardTop){
+                offer(top, count, accountTotal.getAccountId(), accountTotal.getTotal(), accountTotal.getChargeCount());
+            }
+        }
+
+        List<AccountTotalDTO> result = new ArrayList<>(top);
+        result.sort(BY_TOTAL_DESCENDING);
+        setAccountNames(result);
+
+        return result;
+    }
+
+    private List<AccountTotalDTO> getTopAccountsOnShard(int count, GroupByQuery filter){
+
+        PriorityQueue<AccountTotalDTO> top = new PriorityQueue<>(count + 1, BY_TOTAL_DESCENDING.reversed());
+        ScrollableResults results = chargeAggregateRepository.scrollAccountTotals(filter, RANKING_FETCH_SIZE);
+
+        try {
+            while (results.next()){
+                Object[] row = results.get();
+                offer(top, count, (Integer) row[0], (Long) row[1], (Long) row[2]);
+            }
+
+        } finally {
+            results.close();
+        }
+
+        return new ArrayList<>(top);
+    }
+
+    /**
+     * Keeps the account in the heap when it ranks among the best count, evicting the lowest ranked one. The
+     * summary is only created for accounts that get in.
+     */
+    private static void offer(PriorityQueue<AccountTotalDTO> top, int count, int accountId, long total,
+                              long chargeCount){
+
+        if(top.size() == count){
+
+            AccountTotalDTO lowest = top.peek();
+
+            if(total < lowest.getTotal() || (total == lowest.getTotal() && accountId > lowest.getAccountId())){
+                return;
+            }
+            top.poll();
+        }
+
+        top.add(new AccountTotalDTO(accountId, total, chargeCount));
+    }
+
+    private void setAccountNames(List<AccountTotalDTO> accountTotals){
+
+        Map<Integer, List<Integer>> accountIdsByShard = new TreeMap<>();
+
+        for (AccountTotalDTO accountTotal : accountTotals){
+            accountIdsByShard.computeIfAbsent(shardMapping.shardOf(accountTotal.getAccountId()),
+                    shard -> new ArrayList<>()).add(accountTotal.getAccountId());
+        }
+
+        Map<Integer, Object[]> names = new HashMap<>();
+
+        for (List<Object[]> rows : shardExecutor.onShards(accountIdsByShard.keySet(),
+                shard -> accountRepository.getAccountNames(accountIdsByShard.get(shard)))){
+            for (Object[] row : rows){
+                names.put((Integer) row[0], row);
+            }
+        }
+
+        for (AccountTotalDTO accountTotal : accountTotals){
+
+            Object[] row = names.get(accountTotal.getAccountId());
+
+            if(row != null){
+                accountTotal.setFirstName((String) row[1]);
+                accountTotal.setLastName((String) row[2]);
+            }
+        }
+    }
+
+    /**
+     * Aging of the overdue charges as of today: the totals of the bills 0-30, 31-60, 61-90 and more than 90 days
+     * overdue over all the accounts, and per account for the accounts with an id greater than afterId, at most
+     * limit of them. Each is one aggregate query per shard; the page is fetched with one extra account so the
+     * next cursor is only set when there really is a following page.
+     */
+    @Transactional(readOnly = true)
+    public AgingReportDTO getAgingReport(int afterId, int limit){
+
+        if(!dataValidator.validatePageLimit(limit)){
+            throw new ServiceException("Invalid page limit.");
+        }
+
+        Date today = new Date();
+        long[] totals = chargeAggregateRepository.getAgingTotals(today);
+        AgingDTO overall = toAgingDto(null, Arrays.copyOf(totals, 5));
+        overall.setAccountCount(totals[5]);
+
+        List<AgingDTO> accountAgingDTOList = new ArrayList<>();
+
+        for (Object[] row : chargeAggregateRepository.getAgingPage(today, afterId, limit + 1)){
+            accountAgingDTOList.add(toAgingDto(row));
+        }
+
+        boolean hasNext = accountAgingDTOList.size() > limit;
+
+        if(hasNext){
+            accountAgingDTOList = new ArrayList<>(accountAgingDTOList.subList(0, limit));
+        }
+
+        Integer nextCursor = hasNext ? accountAgingDTOList.get(limit - 1).getAccountId() : null;
+
+        AgingReportDTO agingReportDTO = new AgingReportDTO();
+        agingReportDTO.setAsOf(new SimpleDateFormat("dd/MM/yyyy").format(today));
+        agingReportDTO.setOverall(overall);
+        agingReportDTO.setAccounts(new PageDTO<>(accountAgingDTOList, limit, nextCursor));
+
+        return agingReportDTO;
+    }
+
+    /**
+     * Writes the aging of every account with overdue charges as of today to the output stream as newline
+     * delimited json. The shards are written one after the other, each in account id order.
+     */
+    @Transactional(readOnly = true)
+    public void streamAging(OutputStream outputStream) throws IOException {
+
+        Date today = new Date();
+
+        shardExecutor.forEachShardInOrder(shard ->
+                ndjsonWriter.writeRows(chargeAggregateRepository.scrollAging(today, NdjsonWriter.STREAM_FETCH_SIZE),
+                        AnalysisService::toAgingDto, outputStream));
+    }
+
+    /**
+     * The aging of a row of the repository: account id, the four bands and the number of overdue bills.
+     */
+    private static AgingDTO toAgingDto(Object[] row){
+
+        long[] values = new long[5];
+
+        for (int i = 0; i < values.length; i++){
+            values[i] = row[i + 1] == null ? 0 : ((Number) row[i + 1]).longValue();
+        }
+        return toAgingDto((Integer) row[0], values);
+    }
+
+    private static AgingDTO toAgingDto(Integer accountId, long[] values){
+
+        AgingDTO agingDTO = new AgingDTO();
+        agingDTO.setAccountId(accountId);
+        agingDTO.setDays0To30(values[0]);
+        agingDTO.setDays31To60(values[1]);
+        agingDTO.setDays61To90(values[2]);
+        agingDTO.setOver90Days(values[3]);
+        agingDTO.setTotal(Math.addExact(Math.addExact(values[0], values[1]), Math.addExact(values[2], values[3])));
+        agingDTO.setBillCount(values[4]);
+
+        return agingDTO;
+    }
+}
@@ -0,0 +1,32 @@
+package net.gsdgroup.billing.business;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives the bill writes once their transaction has committed, in the order they were made, so an in-memory
+ * view of the bills never sees a write that was rolled back. An update is reported as the removal of the bill
+ * followed by the new state of it. Every method does nothing by default.
+ */
+public interface BillChangeListener {
+
+    /**
+     * Bills created, or the new state of updated bills.
+     */
+    default void billsStored(List<BillSnapshot> bills) {}
+
+    /**
+     * Bills deleted with their charges, or updated bills, as they were stored before the change.
+     */
+    default void billsRemoved(List<BillSnapshot> bills) {}
+
+    /**
+     * All the bills of the account deleted with it, as they were stored before.
+     */
+    default void accountBillsRemoved(int accountId, List<BillSnapshot> bills) {}
+
+    /**
+     * New due dates of bills, as epoch days by bill id.
+     */
+    default void dueDatesChanged(Map<Integer, Integer> dueDays) {}
+}
@@ -0,0 +1,135 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.entity.Bill;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports the bill writes of the services to the BillChangeListener beans. The change is recorded when it is
+ * made and handed over after the transaction commits; a write outside a transaction is handed over at once.
+ * A failing listener is logged and does not affect the write, which is already committed.
+ */
+@Component
+public class BillChangeNotifier {
+
+    private static final Logger LOGGER = Logger.getLogger(BillChangeNotifier.class.getName());
+
+    @Autowired(required = false)
+    private List<BillChangeListener> listeners = Collections.emptyList();
+    @Autowired
+    private BillRepository billRepository;
+
+    /**
+     * Call it once the bill is stored and has its id.
+     */
+    public void billStored(Bill bill) {
+
+        billsStored(Collections.singletonList(bill));
+    }
+
+    /**
+     * Call it once the bills are stored and have their ids.
+     */
+    public void billsStored(Collection<Bill> bills) {
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        List<BillSnapshot> snapshots = new ArrayList<>(bills.size());
+
+        for (Bill bill : bills) {
+            snapshots.add(new BillSnapshot(bill));
+        }
+
+        afterCommit(listener -> listener.billsStored(snapshots));
+    }
+
+    /**
+     * Call it before the bills are deleted or updated, in the same transaction: the listeners are handed the
+     * bills as they are stored at the time of the call. All the bills must be on the same shard.
+     */
+    public void billsRemoved(Collection<Integer> billIds) {
+
+        if (listeners.isEmpty() || billIds.isEmpty()) {
+            return;
+        }
+
+        List<BillSnapshot> removedBills = BillSnapshot.fromChargeRows(billRepository.getChargeRowsOfBills(billIds));
+        afterCommit(listener -> listener.billsRemoved(removedBills));
+    }
+
+    /**
+     * Call it before the account is deleted, in the same transaction.
+     */
+    public void accountBillsRemoved(int accountId) {
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        List<BillSnapshot> removedBills = BillSnapshot.fromChargeRows(billRepository.getChargeRowsOfAccount(accountId));
+        afterCommit(listener -> listener.accountBillsRemoved(accountId, removedBills));
+    }
+
+    /**
+     * Call it with the due dates of the bills as they are stored after the change, by bill id.
+     */
+    public void dueDatesChanged(Map<Integer, Date> dueDates) {
+
+        Map<Integer, Integer> dueDays = new HashMap<>();
+
+        for (Map.Entry<Integer, Date> dueDate : dueDates.entrySet()) {
+            dueDays.put(dueDate.getKey(), BillSnapshot.toEpochDay(dueDate.getValue()));
+        }
+
+        afterCommit(listener -> listener.dueDatesChanged(dueDays));
+    }
+
+    private void afterCommit(Consumer<BillChangeListener> change) {
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            dispatch(change);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                dispatch(change);
+            }
+        });
+    }
+
+    private void dispatch(Consumer<BillChangeListener> change) {
+
+        for (BillChangeListener listener : listeners) {
+
+            try {
+                change.accept(listener);
+
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Bill change listener " + listener.getClass().getSimpleName()
+                        + " failed, its view of the bills may be stale until it is reloaded.", e);
+            }
+        }
+    }
+}
@@ -1,22 +1,36 @@
 package net.gsdgroup.billing.business;
 
+import net.gsdgroup.billing.dao.AccountRepository;
 import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.dao.ShardMapping;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.entity.BillCharge;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillBatchItemDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillBatchResultDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillChargeDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillDTO;
 import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.Month;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Service class that handles basic Bill functionality.
@@ -24,94 +38,388 @@ import java.util.List;
 @Service
 public class BillService {
 
+    /**
+     * Number of bills written between two flushes of a batch. Keep it equal to hibernate.jdbc.batch_size.
+     */
+    public static final int BATCH_CHUNK_SIZE = 50;
+
     @Autowired
     private BillRepository billRepository;
     @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
     private AccountService accountService;
     @Autowired
     private DataValidator dataValidator;
+    @Autowired
+    private NdjsonWriter ndjsonWriter;
+    @Autowired
+    private MonthlyRevenueService monthlyRevenueService;
+    @Autowired
+    private ChargeRollupService chargeRollupService;
+    @Autowired
+    private BillChangeNotifier billChangeNotifier;
+    @Autowired
+    private AccountRowAssembler accountRowAssembler;
+    @Autowired
+    private ShardExecutor shardExecutor;
+    @Autowired
+    private ShardMapping shardMapping;
+    @Autowired
+    private TransactionRetrier transactionRetrier;
 
-    @Transactional
+    /**
+     * Stores a new bill with its charges. Retried when it runs into a concurrent update, typically two writers
+     * creating the same monthly revenue or charge rollup row at once.
+     */
     public int addBill(Bill bill) {
 
-        int billId = 0;
-
         if(bill == null){
             throw new ServiceException("Error processing request. The bill entity cannot be null.");
         }
 
-        if(dataValidator.validateBillData(bill)){
-            billId = billRepository.add(bill);
-
-        } else {
+        if(!dataValidator.validateBillData(bill)){
             throw new ServiceException("Bill entity validation error.");
         }
-        return billId;
+
+        return transactionRetrier.inTransaction(() -> {
+
+            clearIds(bill);
+            int billId = billRepository.add(bill);
+            monthlyRevenueService.addBill(bill);
+            chargeRollupService.addBill(bill);
+            billChangeNotifier.billStored(bill);
+
+            return billId;
+        });
     }
 
-    @Transactional
-    public void deleteBill(int billId) {
+    /**
+     * Creates a bill from the DTO in one transaction, retried when it runs into a concurrent update. The account
+     * is checked with a single id query and linked through an uninitialized proxy, so the cost does not depend
+     * on how many bills the account already has. Every attempt builds the bill afresh from the DTO.
+     */
+    public int createBill(BillDTO billDTO) {
 
-        Bill bill = billRepository.getById(Bill.class, billId);
+        if(billDTO == null){
+            throw new ServiceException("Error processing request. The bill entity cannot be null.");
+        }
 
-        if(bill == null){
-            throw new ServiceException("Bill not found.");
+        if(billDTO.getAccountId() == 0){
+            throw new ServiceException("Missing account id.");
+        }
+
+        return transactionRetrier.inTransaction(() -> {
+
+            if(accountRepository.getExistingIds(Account.class,
+                    Collections.singleton(billDTO.getAccountId())).isEmpty()){
+                throw new ServiceException("Account not found.");
+            }
+
+            Bill billEntity = buildBillEntity(billDTO,
+                    accountRepository.getReference(Account.class, billDTO.getAccountId()));
+
+            if(!dataValidator.validateBillData(billEntity)){
+                throw new ServiceException("Bill entity validation error.");
+            }
+
+            int billId = billRepository.add(billEntity);
+            monthlyRevenueService.addBill(billEntity);
+            chargeRollupService.addBill(billEntity);
+            billChangeNotifier.billStored(billEntity);
+
+            return billId;
+        });
+    }
 
-        } else {
-            billRepository.delete(bill);
+    /**
+     * Validates and stores a batch of bills. Invalid bills are reported by their index in the batch and skipped.
+     * The bills are split by the shard of their account and each shard stores its part in one transaction,
+     * the shards in parallel. A shard whose transaction runs into a concurrent update stores its part again, on
+     * its own. With several shards the batch is not atomic: a shard that fails rolls back its own part only, and
+     * the parts the other shards stored stay committed.
+     */
+    public BillBatchResultDTO addBills(List<BillDTO> billDTOList) {
+
+        if(billDTOList == null){
+            throw new ServiceException("Error processing request. The bill batch cannot be null.");
         }
+
+        if(billDTOList.size() > DataValidator.MAX_BILL_BATCH_SIZE){
+            throw new ServiceException("Too many bills in one batch.");
+        }
+
+        List<BillBatchItemDTO> items = new ArrayList<>();
+        Map<Integer, List<Integer>> indexesByShard = new TreeMap<>();
+
+        for (int index = 0; index < billDTOList.size(); index++){
+
+            BillDTO billDTO = billDTOList.get(index);
+
+            if(billDTO == null){
+                items.add(new BillBatchItemDTO(index, 0, "Error processing request. The bill entity cannot be null."));
+
+            } else if(billDTO.getAccountId() == 0){
+                items.add(new BillBatchItemDTO(index, 0, "Missing account id."));
+
+            } else {
+                indexesByShard.computeIfAbsent(shardMapping.shardOf(billDTO.getAccountId()), shard -> new ArrayList<>())
+                        .add(index);
+            }
+        }
+
+        for (List<BillBatchItemDTO> shardItems : shardExecutor.onShardsInOwnTransactions(indexesByShard.keySet(),
+                shard -> transactionRetrier.inTransactionOnShard(shard,
+                        () -> addBillsOnShard(billDTOList, indexesByShard.get(shard))))){
+            items.addAll(shardItems);
+        }
+
+        items.sort(Comparator.comparingInt(BillBatchItemDTO::getIndex));
+
+        BillBatchResultDTO billBatchResultDTO = new BillBatchResultDTO();
+        billBatchResultDTO.getItems().addAll(items);
+
+        for (BillBatchItemDTO item : items){
+            if(item.getMessage() == null){
+                billBatchResultDTO.setAccepted(billBatchResultDTO.getAccepted() + 1);
+            } else {
+                billBatchResultDTO.setRejected(billBatchResultDTO.getRejected() + 1);
+            }
+        }
+
+        return billBatchResultDTO;
     }
 
-    @Transactional
+    /**
+     * Stores the bills at the given indexes, whose accounts are all on the current shard. The valid ones are
+     * inserted in JDBC batches, flushing and clearing the session every BATCH_CHUNK_SIZE bills. The accounts are
+     * checked with a single query and linked through proxies.
+     */
+    private List<BillBatchItemDTO> addBillsOnShard(List<BillDTO> billDTOList, List<Integer> indexes) {
+
+        Set<Integer> accountIds = new HashSet<>();
+
+        for (int index : indexes){
+            accountIds.add(billDTOList.get(index).getAccountId());
+        }
+
+        Set<Integer> existingAccountIds = accountRepository.getExistingIds(Account.class, accountIds);
+        List<BillBatchItemDTO> items = new ArrayList<>();
+        List<Bill> storedBills = new ArrayList<>();
+
+        for (int index : indexes){
+
+            BillDTO billDTO = billDTOList.get(index);
+
+            if(!existingAccountIds.contains(billDTO.getAccountId())){
+                items.add(new BillBatchItemDTO(index, 0, "Account not found."));
+                continue;
+            }
+
+            Bill billEntity = buildBillEntity(billDTO,
+                    accountRepository.getReference(Account.class, billDTO.getAccountId()));
+
+            if(!dataValidator.validateBillData(billEntity)){
+                items.add(new BillBatchItemDTO(index, 0, "Bill entity validation error."));
+                continue;
+            }
+
+            int billId = billRepository.add(billEntity);
+            items.add(new BillBatchItemDTO(index, billId, null));
+            storedBills.add(billEntity);
+
+            if(storedBills.size() % BATCH_CHUNK_SIZE == 0){
+                billRepository.flushAndClear();
+            }
+        }
+
+        monthlyRevenueService.addBills(storedBills);
+        chargeRollupService.addBills(storedBills);
+        billChangeNotifier.billsStored(storedBills);
+
+        return items;
+    }
+
+    /**
+     * Deletes the bill with its charges using set-based statements, without loading them. Retried when it
+     * runs into a concurrent update.
+     */
+    public void deleteBill(int billId) {
+
+        transactionRetrier.inTransaction(() -> {
+
+            if(billRepository.getExistingIds(Bill.class, Collections.singleton(billId)).isEmpty()){
+                throw new ServiceException("Bill not found.");
+
+            } else {
+                monthlyRevenueService.removeBill(billId);
+                chargeRollupService.removeBill(billId);
+                billChangeNotifier.billsRemoved(Collections.singletonList(billId));
+                billRepository.deleteByIds(Collections.singletonList(billId));
+            }
+        });
+    }
+
+    /**
+     * Overwrites the bill and its charges. The bill must carry the version it was read with: when the stored
+     * bill has changed since, the update is rejected with a ConflictException holding the current version.
+     * Retried when it runs into a concurrent update, each attempt with a fresh copy of the bill: the session
+     * sets the version and the ids of the new charges on the entity it updates, and a rolled back attempt
+     * does not take them back.
+     */
     public void updateBill(Bill bill) {
 
         if(bill == null){
             throw new ServiceException("Error processing request. The bill entity cannot be null.");
         }
 
-        if(dataValidator.validateBillData(bill)) {
-            billRepository.update(bill);
+        if(bill.getAccount() != null && bill.getId() != 0
+                && shardMapping.shardOf(bill.getId()) != shardMapping.shardOf(bill.getAccount().getId())){
+            throw new ServiceException("A bill cannot be moved to an account on another shard.");
+        }
 
-        } else {
+        if(!dataValidator.validateBillData(bill)) {
             throw new ServiceException("Bill entity validation error.");
         }
+
+        transactionRetrier.inTransaction(() -> {
+
+            Bill attempt = copyOf(bill);
+            Integer storedVersion = billRepository.getVersion(Bill.class, bill.getId());
+
+            if(storedVersion == null){
+                throw new ServiceException("Bill not found.");
+            }
+
+            if(storedVersion != attempt.getVersion()){
+                throw transactionRetrier.versionConflict("The bill was changed since it was read.", storedVersion);
+            }
+
+            monthlyRevenueService.removeBill(attempt.getId());
+            chargeRollupService.removeBill(attempt.getId());
+            billChangeNotifier.billsRemoved(Collections.singletonList(attempt.getId()));
+            billRepository.update(attempt);
+            monthlyRevenueService.addBill(attempt);
+            chargeRollupService.addBill(attempt);
+            billChangeNotifier.billStored(attempt);
+        });
+    }
+
+    /**
+     * Clears the ids of a new bill and its charges, so an attempt that was rolled back after they were generated
+     * does not make the next one take them for stored entities.
+     */
+    private static void clearIds(Bill bill){
+
+        bill.setId(0);
+
+        for (BillCharge billCharge : bill.getBillCharges()){
+            billCharge.setId(0);
+        }
+    }
+
+    /**
+     * A new detached bill with the id, version, dates, account and charges of the given one, the charges
+     * copied as well.
+     */
+    private static Bill copyOf(Bill bill){
+
+        Bill copy = new Bill();
+        copy.setId(bill.getId());
+        copy.setVersion(bill.getVersion());
+        copy.setIssueDate(bill.getIssueDate());
+        copy.setDueDate(bill.getDueDate());
+        copy.setAccount(bill.getAccount());
+
+        if(bill.getBillCharges() != null){
+
+            for (BillCharge billCharge : bill.getBillCharges()){
+
+                BillCharge chargeCopy = new BillCharge();
+                chargeCopy.setId(billCharge.getId());
+                chargeCopy.setChargeType(billCharge.getChargeType());
+                chargeCopy.setAmount(billCharge.getAmount());
+                chargeCopy.setTax(billCharge.getTax());
+
+                copy.addBillCharge(chargeCopy);
+            }
+        }
+
+        return copy;
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public BillDTO getBillById(int id) {
 
-        try {
-            BillDTO billDTO = buildBillDTO(billRepository.getById(Bill.class, id));
-            return billDTO;
+        List<BillDTO> billDTOList = accountRowAssembler.assembleBills(billRepository.getBillRowsById(id));
 
-        } catch (NullPointerException e){
+        if(billDTOList.isEmpty()){
             throw new ServiceException("No result.");
         }
+
+        return billDTOList.get(0);
     }
 
-    @Transactional
+    /**
+     * Returns all the bills, built straight from the rows of a projection query. The account of each bill
+     * is set without its bills.
+     */
+    @Transactional(readOnly = true)
     public List<BillDTO> getAllBills(){
 
-        List<BillDTO> billDTOList = new ArrayList<>();
-        List<Bill> billList =  billRepository.getAll(Bill.class);
+        return accountRowAssembler.assembleBills(billRepository.getBillRows());
+    }
+
+    /**
+     * Writes all the bills to the output stream as newline delimited json, walking the rows of the projection
+     * with a cursor and assembling one bill at a time. The account of each bill is set without its bills. The
+     * shards are written one after the other, each in id order.
+     */
+    @Transactional(readOnly = true)
+    public void streamAllBills(OutputStream outputStream) throws IOException {
+
+        shardExecutor.forEachShardInOrder(shard ->
+                ndjsonWriter.writeGroups(billRepository.scrollBillRows(NdjsonWriter.STREAM_FETCH_SIZE),
+                        AccountRowDTO::getBillId, this::assembleBill, outputStream));
+    }
+
+    private BillDTO assembleBill(List<AccountRowDTO> rows){
+
+        return accountRowAssembler.assembleBills(rows).get(0);
+    }
+
+    /**
+     * Returns the bills with an id greater than afterId, at most limit of them. The page is fetched with one
+     * extra bill so the next cursor is only set when there really is a following page.
+     */
+    @Transactional(readOnly = true)
+    public PageDTO<BillDTO> getBillsPage(int afterId, int limit){
+
+        if(!dataValidator.validatePageLimit(limit)){
+            throw new ServiceException("Invalid page limit.");
+        }
+
+        List<BillDTO> billDTOList = accountRowAssembler.assembleBills(billRepository.getBillRowsPage(afterId, limit + 1));
+        boolean hasNext = billDTOList.size() > limit;
 
-        for (Bill bill : billList) {
-            BillDTO billDTO = buildBillDTO(bill);
-            billDTOList.add(billDTO);
+        if(hasNext){
+            billDTOList = new ArrayList<>(billDTOList.subList(0, limit));
         }
 
-        return billDTOList;
+        Integer nextCursor = hasNext ? billDTOList.get(limit - 1).getId() : null;
+
+        return new PageDTO<>(billDTOList, limit, nextCursor);
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public List<MonthlyAmountDTO> getTotalChargedEachMonth(){
 
-        List<MonthlyAmountDTO> monthlyAmountDTOList = billRepository.getTotalChargedEachMonth();
+        List<MonthlyAmountDTO> monthlyAmountDTOList = monthlyRevenueService.getTotalChargedEachMonth();
 
         return monthlyAmountDTOList;
     }
 
-    @Transactional
+    @Transactional(readOnly = true)
     public Bill buildBillEntity(BillDTO billDTO){
 
         Bill billEntity = new Bill();
@@ -121,6 +429,8 @@ public class BillService {
                 billEntity.setId(billDTO.getId());
             }
 
+            billEntity.setVersion(billDTO.getVersion());
+
             billEntity.setIssueDate(billDTO.getIssueDate());
             billEntity.setDueDate(billDTO.getDueDate());
 
@@ -152,12 +462,39 @@ public class BillService {
         return billEntity;
     }
 
+    /**
+     * Builds a new bill entity from the DTO, linked to the given account. The DTO ids are not copied.
+     */
+    private Bill buildBillEntity(BillDTO billDTO, Account account){
+
+        Bill billEntity = new Bill();
+        billEntity.setIssueDate(billDTO.getIssueDate());
+        billEntity.setDueDate(billDTO.getDueDate());
+        billEntity.setAccount(account);
+
+        if(billDTO.getBillCharges() != null){
+
+            for (BillChargeDTO billChargeDTO : billDTO.getBillCharges()){
+
+                BillCharge billCharge = new BillCharge();
+                billCharge.setChargeType(billChargeDTO.getChargeType());
+                billCharge.setAmount(billChargeDTO.getAmount());
+                billCharge.setTax(billChargeDTO.getTax());
+
+                billEntity.addBillCharge(billCharge);
+            }
+        }
+
+        return billEntity;
+    }
+
     public BillDTO buildBillDTO (Bill billEntity){
 
         BillDTO billDTO = new BillDTO();
         AccountDTO accountDTO = accountService.buildAccountDto(billEntity.getAccount());
 
         billDTO.setId(billEntity.getId());
+        billDTO.setVersion(billEntity.getVersion());
         billDTO.setIssueDate(billEntity.getIssueDate());
         billDTO.setDueDate(billEntity.getDueDate());
         billDTO.setAccount(accountDTO);
@@ -0,0 +1,160 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.entity.BillCharge;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Copy of a stored bill and its charges, taken when it is written or before it is removed, so it can be handed
+ * to the listeners once the transaction commits whatever happens to the entity in between. Dates are kept as
+ * epoch days.
+ */
+public class BillSnapshot {
+
+    /**
+     * Epoch day of a missing date.
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    private final int id;
+    private final int accountId;
+    private final int issueDay;
+    private final int dueDay;
+    private final String[] chargeTypes;
+    private final long[] amounts;
+    private final long[] taxes;
+
+    public BillSnapshot(Bill bill) {
+
+        List<BillCharge> billCharges = bill.getBillCharges();
+        int chargeCount = billCharges == null ? 0 : billCharges.size();
+
+        this.id = bill.getId();
+        this.accountId = bill.getAccount() == null ? 0 : bill.getAccount().getId();
+        this.issueDay = toEpochDay(bill.getIssueDate());
+        this.dueDay = toEpochDay(bill.getDueDate());
+        this.chargeTypes = new String[chargeCount];
+        this.amounts = new long[chargeCount];
+        this.taxes = new long[chargeCount];
+
+        for (int i = 0; i < chargeCount; i++) {
+            BillCharge billCharge = billCharges.get(i);
+            chargeTypes[i] = billCharge.getChargeType();
+            amounts[i] = billCharge.getAmount();
+            taxes[i] = billCharge.getTax();
+        }
+    }
+
+    private BillSnapshot(int id, int accountId, int issueDay, int dueDay, String[] chargeTypes, long[] amounts,
+                         long[] taxes) {
+
+        this.id = id;
+        this.accountId = accountId;
+        this.issueDay = issueDay;
+        this.dueDay = dueDay;
+        this.chargeTypes = chargeTypes;
+        this.amounts = amounts;
+        this.taxes = taxes;
+    }
+
+    /**
+     * Snapshots of the bills of the charge rows of BillRepository: bill id, account id, issue date, due date,
+     * charge type, amount and tax, the rows of a bill next to each other and a bill without charges in one row
+     * with null charge columns.
+     */
+    public static List<BillSnapshot> fromChargeRows(List<Object[]> rows) {
+
+        List<BillSnapshot> snapshots = new ArrayList<>();
+        int first = 0;
+
+        while (first < rows.size()) {
+
+            Object[] billRow = rows.get(first);
+            int end = first + 1;
+
+            while (end < rows.size() && rows.get(end)[0].equals(billRow[0])) {
+                end++;
+            }
+
+            int chargeCount = billRow[5] == null ? 0 : end - first;
+            String[] chargeTypes = new String[chargeCount];
+            long[] amounts = new long[chargeCount];
+            long[] taxes = new long[chargeCount];
+
+            for (int i = 0; i < chargeCount; i++) {
+                Object[] row = rows.get(first + i);
+                chargeTypes[i] = (String) row[4];
+                amounts[i] = (Long) row[5];
+                taxes[i] = (Long) row[6];
+            }
+
+            snapshots.add(new BillSnapshot((Integer) billRow[0], (Integer) billRow[1], toEpochDay((Date) billRow[2]),
+                    toEpochDay((Date) billRow[3]), chargeTypes, amounts, taxes));
+            first = end;
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Day of the date in the default time zone, counted from 1970-01-01. Works for java.sql dates as well.
+     */
+    public static int toEpochDay(Date date) {
+
+        if (date == null) {
+            return NO_DATE;
+        }
+
+        return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public int getIssueDay() {
+        return issueDay;
+    }
+
+    public int getDueDay() {
+        return dueDay;
+    }
+
+    public int getChargeCount() {
+        return chargeTypes.length;
+    }
+
+    public String getChargeType(int charge) {
+        return chargeTypes[charge];
+    }
+
+    public long getAmount(int charge) {
+        return amounts[charge];
+    }
+
+    public long getTax(int charge) {
+        return taxes[charge];
+    }
+
+    /**
+     * Amount plus tax of all the charges.
+     */
+    public long getTotal() {
+
+        long total = 0;
+
+        for (int i = 0; i < chargeTypes.length; i++) {
+            total = Math.addExact(total, Math.addExact(amounts[i], taxes[i]));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,233 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.AccountRepository;
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.dao.ShardMapping;
+import net.gsdgroup.billing.entity.Account;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.billDTO.BulkJobDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Service class that runs bulk operations on bills in the background. An operation works through the bills in
+ * chunks of CHUNK_SIZE, each chunk one set-based statement per table in its own transaction, so locks are
+ * held briefly and the progress of the job can be followed while it runs.
+ */
+@Service
+public class BulkBillService {
+
+    public static final int CHUNK_SIZE = 1000;
+
+    /**
+     * Number of finished jobs whose progress is kept for lookup.
+     */
+    private static final int MAX_KEPT_JOBS = 100;
+
+    @Autowired
+    private BillRepository billRepository;
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private MonthlyRevenueService monthlyRevenueService;
+    @Autowired
+    private ChargeRollupService chargeRollupService;
+    @Autowired
+    private BillChangeNotifier billChangeNotifier;
+    @Autowired
+    private DataValidator dataValidator;
+    @Autowired
+    private ShardExecutor shardExecutor;
+    @Autowired
+    private ShardMapping shardMapping;
+    @Autowired
+    private TransactionRetrier transactionRetrier;
+
+    private final AtomicInteger nextJobId = new AtomicInteger();
+    private final Map<Integer, BulkJobDTO> jobs = new LinkedHashMap<Integer, BulkJobDTO>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BulkJobDTO> eldest) {
+            return size() > MAX_KEPT_JOBS;
+        }
+    };
+
+    private ExecutorService worker;
+
+    @PostConstruct
+    public void start() {
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        worker.shutdown();
+    }
+
+    /**
+     * Starts deleting every bill issued before the date, with its charges, on all the shards. The monthly
+     * revenue is taken out chunk by chunk, in the transaction that deletes the chunk.
+     */
+    public BulkJobDTO startDeleteBillsIssuedBefore(Date before) {
+
+        if (before == null) {
+            throw new ServiceException("Missing or invalid date.");
+        }
+
+        return submit("delete_issued_before", job -> {
+
+            for (int shard = 0; shard < shardExecutor.getShardCount(); shard++) {
+                runChunks(job, shard, () -> deleteChunkIssuedBefore(before), () -> {});
+            }
+        });
+    }
+
+    /**
+     * Starts moving the due date of every bill of the account by the given number of days.
+     */
+    public BulkJobDTO startShiftDueDates(int accountId, int days) {
+
+        if (!dataValidator.validateDueDateShift(days)) {
+            throw new ServiceException("Invalid number of days.");
+        }
+
+        int shard = shardMapping.shardOf(accountId);
+
+        if (shardExecutor.onShards(Collections.singletonList(shard),
+                index -> accountRepository.getExistingIds(Account.class, Collections.singleton(accountId)))
+                .get(0).isEmpty()) {
+            throw new ServiceException("Account not found.");
+        }
+
+        return submit("shift_due_dates", job -> {
+
+            int[] afterId = {0};
+            int[] lastId = {0};
+
+            runChunks(job, shard, () -> {
+                List<Integer> billIds = billRepository.getBillIdsOfAccount(accountId, afterId[0], CHUNK_SIZE);
+
+                if (billIds.isEmpty()) {
+                    return 0;
+                }
+
+                lastId[0] = billIds.get(billIds.size() - 1);
+                int shifted = billRepository.shiftDueDates(billIds, days);
+                billChangeNotifier.dueDatesChanged(billRepository.getDueDates(billIds));
+                return shifted;
+
+            }, () -> afterId[0] = lastId[0]);
+        });
+    }
+
+    /**
+     * Returns the progress of the job, as it is at the time of the call.
+     */
+    public BulkJobDTO getJob(int jobId) {
+
+        BulkJobDTO job;
+
+        synchronized (jobs) {
+            job = jobs.get(jobId);
+        }
+
+        if (job == null) {
+            throw new ServiceException("Job not found.");
+        }
+
+        synchronized (job) {
+            return new BulkJobDTO(job);
+        }
+    }
+
+    private int deleteChunkIssuedBefore(Date before) {
+
+        List<Integer> billIds = billRepository.getBillIdsIssuedBefore(before, CHUNK_SIZE);
+
+        if (billIds.isEmpty()) {
+            return 0;
+        }
+
+        monthlyRevenueService.removeBills(billIds);
+        chargeRollupService.removeBills(billIds);
+        billChangeNotifier.billsRemoved(billIds);
+        return billRepository.deleteByIds(billIds);
+    }
+
+    /**
+     * Runs the chunk on the shard, each time in a new transaction, until it reports that it processed nothing.
+     * A chunk that runs into a concurrent update is rolled back and run again on its own, so the job goes on;
+     * committed is called after each chunk that was stored, for the chunk's cursor to move past it.
+     */
+    private void runChunks(BulkJobDTO job, int shard, IntSupplier chunk, Runnable committed) {
+
+        while (true) {
+
+            int processed = transactionRetrier.inTransactionOnShard(shard, chunk::getAsInt);
+
+            if (processed == 0) {
+                return;
+            }
+
+            committed.run();
+
+            synchronized (job) {
+                job.setProcessed(job.getProcessed() + processed);
+                job.setChunks(job.getChunks() + 1);
+            }
+        }
+    }
+
+    private BulkJobDTO submit(String operation, BulkTask task) {
+
+        BulkJobDTO job = new BulkJobDTO(nextJobId.incrementAndGet(), operation);
+
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+
+        worker.submit(() -> {
+            try {
+                task.run(job);
+
+                synchronized (job) {
+                    job.setStatus(BulkJobDTO.DONE);
+                }
+
+            } catch (RuntimeException e) {
+
+                synchronized (job) {
+                    job.setStatus(BulkJobDTO.FAILED);
+                    job.setMessage(e.getMessage());
+                }
+            }
+        });
+
+        synchronized (job) {
+            return new BulkJobDTO(job);
+        }
+    }
+
+    private interface BulkTask {
+
+        void run(BulkJobDTO job);
+    }
+}
@@ -0,0 +1,664 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.analysisDTO.ChargeTotalsDTO;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * In-memory copy of the bill charges joined with their bills, kept column by column in primitive arrays: bill
+ * id, account id, issue and due dates as epoch days, issue month, dictionary code of the charge type, amount
+ * and tax. It is loaded from all the shards when the context starts and follows the committed bill writes, so
+ * ad-hoc totals are answered from memory instead of scanning bill_charges. The charges of a bill are kept in
+ * consecutive rows, indexed by bill id and the bills by account, so a write touches the rows of its bills only.
+ * Removed charges are only marked and the arrays are compacted once half of the rows are marked. A scan splits
+ * the rows into segments that run in parallel on the common fork-join pool.
+ */
+@Component
+public class ChargeColumnStore implements BillChangeListener, ApplicationListener<ContextRefreshedEvent> {
+
+    /**
+     * Rows scanned by one fork-join task. A multiple of 64, so parallel tasks mark rows in separate words.
+     */
+    private static final int SEGMENT_SIZE = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int LOAD_FETCH_SIZE = 10000;
+
+    private static final Logger LOGGER = Logger.getLogger(ChargeColumnStore.class.getName());
+
+    @Autowired
+    private BillRepository billRepository;
+    @Autowired
+    private ShardExecutor shardExecutor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ChargeTypeDictionary chargeTypes = new ChargeTypeDictionary();
+
+    /**
+     * The columns queries are answered from, null until the first load is done.
+     */
+    private Columns columns;
+
+    /**
+     * Changes committed while a load runs, replayed on the loaded columns before they replace the current ones.
+     * Null when no load runs.
+     */
+    private List<Consumer<Columns>> changesDuringLoad;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        lock.readLock().lock();
+        try {
+            if (columns != null || changesDuringLoad != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            reload();
+
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "The column store could not be loaded, reload it once the database is up.", e);
+            return;
+        }
+
+        LOGGER.info("Loaded " + getChargeCount() + " charges into the column store in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Loads all the charges from the database again, replacing the columns. Queries keep being answered from
+     * the previous columns while it runs. Used at startup and to repair the store after a failed update.
+     */
+    public void reload() {
+
+        lock.writeLock().lock();
+        try {
+            if (changesDuringLoad != null) {
+                throw new ServiceException("The charge store is already loading.");
+            }
+            changesDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Columns loaded = null;
+
+        try {
+            loaded = load();
+
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (loaded != null) {
+                    for (Consumer<Columns> change : changesDuringLoad) {
+                        change.accept(loaded);
+                    }
+                    columns = loaded;
+                }
+                changesDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Number of charges in the store, 0 until it is loaded.
+     */
+    public int getChargeCount() {
+
+        lock.readLock().lock();
+        try {
+            return columns == null ? 0 : columns.size - columns.deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds up the amount, tax and number of the charges that pass the filter, per group. Groups without charges
+     * are left out; the rest are ordered by period or by charge type.
+     */
+    public List<ChargeTotalsDTO> getTotals(ChargeFilter filter, ChargeGrouping grouping) {
+
+        lock.readLock().lock();
+        try {
+            if (columns == null) {
+                throw new ServiceException("The charge store is not loaded yet.");
+            }
+
+            int chargeTypeCode = filter.getChargeType() == null ? -1 : chargeTypes.find(filter.getChargeType());
+
+            if (columns.size == columns.deletedCount || filter.isEmptyRange()
+                    || (filter.getChargeType() != null && chargeTypeCode < 0)) {
+                return new ArrayList<>();
+            }
+
+            return toTotals(columns.scan(filter, chargeTypeCode, grouping, chargeTypes.size()), grouping);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void billsStored(List<BillSnapshot> bills) {
+
+        List<Integer> billIds = idsOf(bills);
+
+        // a replayed bill may already have been read by the load
+        apply(current -> current.append(bills, chargeTypes), loaded -> {
+            loaded.markDeleted(billIds);
+            loaded.append(bills, chargeTypes);
+        });
+    }
+
+    @Override
+    public void billsRemoved(List<BillSnapshot> bills) {
+
+        List<Integer> billIds = idsOf(bills);
+        Consumer<Columns> change = target -> target.markDeleted(billIds);
+        apply(change, change);
+    }
+
+    @Override
+    public void accountBillsRemoved(int accountId, List<BillSnapshot> bills) {
+
+        Consumer<Columns> change = target -> target.markAccountDeleted(accountId);
+        apply(change, change);
+    }
+
+    @Override
+    public void dueDatesChanged(Map<Integer, Integer> dueDays) {
+
+        Consumer<Columns> change = target -> target.setDueDays(dueDays);
+        apply(change, change);
+    }
+
+    private static List<Integer> idsOf(List<BillSnapshot> bills) {
+
+        List<Integer> billIds = new ArrayList<>(bills.size());
+
+        for (BillSnapshot bill : bills) {
+            billIds.add(bill.getId());
+        }
+        return billIds;
+    }
+
+    /**
+     * Applies a committed change to the current columns and, while a load runs, queues it for the loaded ones.
+     */
+    private void apply(Consumer<Columns> onCurrent, Consumer<Columns> onLoaded) {
+
+        lock.writeLock().lock();
+        try {
+            if (columns != null) {
+                onCurrent.accept(columns);
+            }
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(onLoaded);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the charges of every shard, the shards in parallel, each into its own columns.
+     */
+    private Columns load() {
+
+        List<Columns> shardColumns = shardExecutor.onEachShard(shard -> loadShard());
+
+        if (shardColumns.size() == 1) {
+            return shardColumns.get(0);
+        }
+
+        Columns loaded = new Columns();
+
+        for (Columns shard : shardColumns) {
+            loaded.appendAll(shard);
+        }
+        return loaded;
+    }
+
+    private Columns loadShard() {
+
+        Columns shardColumns = new Columns();
+        ScrollableResults results = billRepository.scrollChargeRows(LOAD_FETCH_SIZE);
+
+        try {
+            while (results.next()) {
+
+                Object[] row = results.get();
+                int issueDay = BillSnapshot.toEpochDay((Date) row[2]);
+                int dueDay = BillSnapshot.toEpochDay((Date) row[3]);
+
+                if (issueDay != BillSnapshot.NO_DATE && dueDay != BillSnapshot.NO_DATE) {
+                    shardColumns.append((Integer) row[0], (Integer) row[1], issueDay, dueDay,
+                            chargeTypes.codeOf((String) row[4]), (Long) row[5], (Long) row[6]);
+                }
+            }
+
+        } finally {
+            results.close();
+        }
+
+        return shardColumns;
+    }
+
+    private List<ChargeTotalsDTO> toTotals(GroupTotals totals, ChargeGrouping grouping) {
+
+        List<ChargeTotalsDTO> result = new ArrayList<>();
+
+        for (int group = 0; group < totals.counts.length; group++) {
+
+            if (totals.counts[group] == 0) {
+                continue;
+            }
+
+            int key = totals.base + group;
+            String name;
+
+            switch (grouping) {
+                case YEAR:
+                    name = String.valueOf(key);
+                    break;
+                case MONTH:
+                    name = String.format("%04d-%02d", key / 12, key % 12 + 1);
+                    break;
+                case CHARGE_TYPE:
+                    name = chargeTypes.nameOf(key);
+                    break;
+                default:
+                    name = "all";
+            }
+
+            result.add(new ChargeTotalsDTO(name, totals.amounts[group], totals.taxes[group], totals.counts[group]));
+        }
+
+        if (grouping == ChargeGrouping.CHARGE_TYPE) {
+            result.sort(Comparator.comparing(ChargeTotalsDTO::getGroup, Comparator.nullsFirst(Comparator.naturalOrder())));
+        }
+
+        return result;
+    }
+
+    /**
+     * Totals per group, group i standing for the key base + i: a year, a month counted as year * 12 + month - 1,
+     * or a charge type code.
+     */
+    private static final class GroupTotals {
+
+        private final int base;
+        private final long[] amounts;
+        private final long[] taxes;
+        private final long[] counts;
+
+        GroupTotals(int base, int groupCount) {
+            this.base = base;
+            this.amounts = new long[groupCount];
+            this.taxes = new long[groupCount];
+            this.counts = new long[groupCount];
+        }
+
+        GroupTotals merge(GroupTotals other) {
+
+            for (int group = 0; group < counts.length; group++) {
+                amounts[group] = Math.addExact(amounts[group], other.amounts[group]);
+                taxes[group] = Math.addExact(taxes[group], other.taxes[group]);
+                counts[group] += other.counts[group];
+            }
+            return this;
+        }
+    }
+
+    /**
+     * Codes of the charge types, given in order of first appearance and never reused. Shared by the loads,
+     * which run on several threads, so every access is synchronized.
+     */
+    private static final class ChargeTypeDictionary {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        synchronized int codeOf(String name) {
+
+            Integer code = codes.get(name);
+
+            if (code == null) {
+                code = names.size();
+                codes.put(name, code);
+                names.add(name);
+            }
+            return code;
+        }
+
+        /**
+         * The code of the charge type, -1 when no charge ever had it.
+         */
+        synchronized int find(String name) {
+
+            Integer code = codes.get(name);
+            return code == null ? -1 : code;
+        }
+
+        synchronized String nameOf(int code) {
+
+            return names.get(code);
+        }
+
+        synchronized int size() {
+
+            return names.size();
+        }
+    }
+
+    /**
+     * The column arrays, row i of every array holding the same charge. Rows are appended at the end and marked
+     * in the deleted bitmap when removed. The charges of a bill are appended together, so the live rows of a
+     * bill are one range, found through the index by bill id. Only changed under the write lock of the store.
+     */
+    private static final class Columns {
+
+        private int size;
+        private int deletedCount;
+        private int minMonth = Integer.MAX_VALUE;
+        private int maxMonth = Integer.MIN_VALUE;
+
+        private int[] billIds = new int[INITIAL_CAPACITY];
+        private int[] accountIds = new int[INITIAL_CAPACITY];
+        private int[] issueDays = new int[INITIAL_CAPACITY];
+        private int[] dueDays = new int[INITIAL_CAPACITY];
+        private int[] issueMonths = new int[INITIAL_CAPACITY];
+        private int[] chargeTypeCodes = new int[INITIAL_CAPACITY];
+        private long[] amounts = new long[INITIAL_CAPACITY];
+        private long[] taxes = new long[INITIAL_CAPACITY];
+        private long[] deletedWords = new long[INITIAL_CAPACITY / 64];
+
+        /**
+         * First row and number of rows of the live charges of each bill, and the bills of each account.
+         */
+        private final Map<Integer, int[]> rowsOfBill = new HashMap<>();
+        private final Map<Integer, Set<Integer>> billIdsOfAccount = new HashMap<>();
+
+        void append(int billId, int accountId, int issueDay, int dueDay, int chargeTypeCode, long amount, long tax) {
+
+            int[] rows = rowsOfBill.get(billId);
+
+            if (rows != null && rows[0] + rows[1] == size) {
+                rows[1]++;
+
+            } else {
+                // rows stored earlier for the bill are replaced
+                if (rows != null) {
+                    markDeleted(Collections.singletonList(billId));
+                }
+                rowsOfBill.put(billId, new int[]{size, 1});
+                billIdsOfAccount.computeIfAbsent(accountId, key -> new HashSet<>()).add(billId);
+            }
+
+            if (size == billIds.length) {
+                resize(billIds.length + (billIds.length >> 1));
+            }
+
+            LocalDate issueDate = LocalDate.ofEpochDay(issueDay);
+            int issueMonth = issueDate.getYear() * 12 + issueDate.getMonthValue() - 1;
+
+            billIds[size] = billId;
+            accountIds[size] = accountId;
+            issueDays[size] = issueDay;
+            dueDays[size] = dueDay;
+            issueMonths[size] = issueMonth;
+            chargeTypeCodes[size] = chargeTypeCode;
+            amounts[size] = amount;
+            taxes[size] = tax;
+            size++;
+
+            minMonth = Math.min(minMonth, issueMonth);
+            maxMonth = Math.max(maxMonth, issueMonth);
+        }
+
+        void append(List<BillSnapshot> bills, ChargeTypeDictionary chargeTypes) {
+
+            for (BillSnapshot bill : bills) {
+
+                if (bill.getIssueDay() == BillSnapshot.NO_DATE || bill.getDueDay() == BillSnapshot.NO_DATE) {
+                    continue;
+                }
+
+                for (int charge = 0; charge < bill.getChargeCount(); charge++) {
+                    append(bill.getId(), bill.getAccountId(), bill.getIssueDay(), bill.getDueDay(),
+                            chargeTypes.codeOf(bill.getChargeType(charge)), bill.getAmount(charge), bill.getTax(charge));
+                }
+            }
+        }
+
+        void appendAll(Columns other) {
+
+            for (int row = 0; row < other.size; row++) {
+                if (!other.isDeleted(row)) {
+                    append(other.billIds[row], other.accountIds[row], other.issueDays[row], other.dueDays[row],
+                            other.chargeTypeCodes[row], other.amounts[row], other.taxes[row]);
+                }
+            }
+        }
+
+        boolean isDeleted(int row) {
+
+            return (deletedWords[row >>> 6] & (1L << row)) != 0;
+        }
+
+        /**
+         * Marks the rows of the bills, taking time in proportion to their charges.
+         */
+        void markDeleted(Collection<Integer> removedBillIds) {
+
+            for (int billId : removedBillIds) {
+
+                int[] rows = rowsOfBill.remove(billId);
+
+                if (rows == null) {
+                    continue;
+                }
+
+                Set<Integer> accountBillIds = billIdsOfAccount.get(accountIds[rows[0]]);
+                accountBillIds.remove(billId);
+                if (accountBillIds.isEmpty()) {
+                    billIdsOfAccount.remove(accountIds[rows[0]]);
+                }
+
+                for (int row = rows[0]; row < rows[0] + rows[1]; row++) {
+                    deletedWords[row >>> 6] |= 1L << row;
+                }
+                deletedCount += rows[1];
+            }
+
+            if (deletedCount > 0 && deletedCount >= size / 2) {
+                compact();
+            }
+        }
+
+        void markAccountDeleted(int accountId) {
+
+            Set<Integer> accountBillIds = billIdsOfAccount.get(accountId);
+
+            if (accountBillIds != null) {
+                markDeleted(new ArrayList<>(accountBillIds));
+            }
+        }
+
+        /**
+         * Sets the due day of the charges of the bills, by bill id.
+         */
+        void setDueDays(Map<Integer, Integer> newDueDays) {
+
+            for (Map.Entry<Integer, Integer> dueDay : newDueDays.entrySet()) {
+
+                int[] rows = rowsOfBill.get(dueDay.getKey());
+
+                if (rows != null) {
+                    Arrays.fill(dueDays, rows[0], rows[0] + rows[1], dueDay.getValue());
+                }
+            }
+        }
+
+        GroupTotals scan(ChargeFilter filter, int chargeTypeCode, ChargeGrouping grouping, int chargeTypeCount) {
+
+            int[] groupColumn;
+            int divisor;
+            int base;
+            int groupCount;
+
+            switch (grouping) {
+                case YEAR:
+                    groupColumn = issueMonths;
+                    divisor = 12;
+                    base = minMonth / 12;
+                    groupCount = maxMonth / 12 - base + 1;
+                    break;
+                case MONTH:
+                    groupColumn = issueMonths;
+                    divisor = 1;
+                    base = minMonth;
+                    groupCount = maxMonth - base + 1;
+                    break;
+                case CHARGE_TYPE:
+                    groupColumn = chargeTypeCodes;
+                    divisor = 1;
+                    base = 0;
+                    groupCount = chargeTypeCount;
+                    break;
+                default:
+                    groupColumn = null;
+                    divisor = 1;
+                    base = 0;
+                    groupCount = 1;
+            }
+
+            return IntStream.range(0, segmentCount()).parallel().mapToObj(segment -> {
+
+                GroupTotals totals = new GroupTotals(base, groupCount);
+
+                for (int row = segment * SEGMENT_SIZE, end = segmentEnd(segment); row < end; row++) {
+
+                    if (isDeleted(row)
+                            || issueDays[row] < filter.getIssuedFrom() || issueDays[row] > filter.getIssuedTo()
+                            || dueDays[row] < filter.getDueFrom() || dueDays[row] > filter.getDueTo()
+                            || (chargeTypeCode >= 0 && chargeTypeCodes[row] != chargeTypeCode)
+                            || !filter.acceptsAccount(accountIds[row])) {
+                        continue;
+                    }
+
+                    int group = groupColumn == null ? 0 : groupColumn[row] / divisor - base;
+
+                    totals.amounts[group] = Math.addExact(totals.amounts[group], amounts[row]);
+                    totals.taxes[group] = Math.addExact(totals.taxes[group], taxes[row]);
+                    totals.counts[group]++;
+                }
+                return totals;
+
+            }).reduce(GroupTotals::merge).orElseGet(() -> new GroupTotals(base, groupCount));
+        }
+
+        private int segmentCount() {
+
+            return (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        }
+
+        private int segmentEnd(int segment) {
+
+            return Math.min(size, (segment + 1) * SEGMENT_SIZE);
+        }
+
+        /**
+         * Moves the rows that are not deleted to the front of the arrays and shrinks them.
+         */
+        private void compact() {
+
+            int live = 0;
+            minMonth = Integer.MAX_VALUE;
+            maxMonth = Integer.MIN_VALUE;
+
+            for (int row = 0; row < size; row++) {
+
+                if (isDeleted(row)) {
+                    continue;
+                }
+
+                int[] rows = rowsOfBill.get(billIds[row]);
+
+                if (rows[0] == row) {
+                    rows[0] = live;
+                }
+
+                billIds[live] = billIds[row];
+                accountIds[live] = accountIds[row];
+                issueDays[live] = issueDays[row];
+                dueDays[live] = dueDays[row];
+                issueMonths[live] = issueMonths[row];
+                chargeTypeCodes[live] = chargeTypeCodes[row];
+                amounts[live] = amounts[row];
+                taxes[live] = taxes[row];
+
+                minMonth = Math.min(minMonth, issueMonths[live]);
+                maxMonth = Math.max(maxMonth, issueMonths[live]);
+                live++;
+            }
+
+            size = live;
+            deletedCount = 0;
+            deletedWords = new long[deletedWords.length];
+            resize(Math.max(INITIAL_CAPACITY, live + (live >> 1)));
+        }
+
+        /**
+         * Resizes every array to the capacity, rounded up to a multiple of 64.
+         */
+        private void resize(int capacity) {
+
+            capacity = (capacity + 63) & ~63;
+
+            billIds = Arrays.copyOf(billIds, capacity);
+            accountIds = Arrays.copyOf(accountIds, capacity);
+            issueDays = Arrays.copyOf(issueDays, capacity);
+            dueDays = Arrays.copyOf(dueDays, capacity);
+            issueMonths = Arrays.copyOf(issueMonths, capacity);
+            chargeTypeCodes = Arrays.copyOf(chargeTypeCodes, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            taxes = Arrays.copyOf(taxes, capacity);
+            deletedWords = Arrays.copyOf(deletedWords, capacity / 64);
+        }
+    }
+}
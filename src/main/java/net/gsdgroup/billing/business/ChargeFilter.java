@@ -0,0 +1,84 @@
+package net.gsdgroup.billing.business;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Which charges a scan of the ChargeColumnStore adds up. Date bounds are inclusive and compared by day; an
+ * unset bound, charge type or account list lets every charge through.
+ */
+public class ChargeFilter {
+
+    private int issuedFrom = Integer.MIN_VALUE;
+    private int issuedTo = Integer.MAX_VALUE;
+    private int dueFrom = Integer.MIN_VALUE;
+    private int dueTo = Integer.MAX_VALUE;
+    private String chargeType;
+    private int[] accountIds;
+
+    public int getIssuedFrom() {
+        return issuedFrom;
+    }
+
+    public void setIssuedFrom(Date issuedFrom) {
+        this.issuedFrom = issuedFrom == null ? Integer.MIN_VALUE : BillSnapshot.toEpochDay(issuedFrom);
+    }
+
+    public int getIssuedTo() {
+        return issuedTo;
+    }
+
+    public void setIssuedTo(Date issuedTo) {
+        this.issuedTo = issuedTo == null ? Integer.MAX_VALUE : BillSnapshot.toEpochDay(issuedTo);
+    }
+
+    public int getDueFrom() {
+        return dueFrom;
+    }
+
+    public void setDueFrom(Date dueFrom) {
+        this.dueFrom = dueFrom == null ? Integer.MIN_VALUE : BillSnapshot.toEpochDay(dueFrom);
+    }
+
+    public int getDueTo() {
+        return dueTo;
+    }
+
+    public void setDueTo(Date dueTo) {
+        this.dueTo = dueTo == null ? Integer.MAX_VALUE : BillSnapshot.toEpochDay(dueTo);
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public void setChargeType(String chargeType) {
+        this.chargeType = chargeType;
+    }
+
+    /**
+     * The account ids in ascending order, or null for all the accounts.
+     */
+    public int[] getAccountIds() {
+        return accountIds;
+    }
+
+    public void setAccountIds(Collection<Integer> accountIds) {
+
+        if (accountIds == null) {
+            this.accountIds = null;
+            return;
+        }
+
+        this.accountIds = accountIds.stream().mapToInt(Integer::intValue).sorted().distinct().toArray();
+    }
+
+    boolean isEmptyRange() {
+        return issuedFrom > issuedTo || dueFrom > dueTo;
+    }
+
+    boolean acceptsAccount(int accountId) {
+        return accountIds == null || Arrays.binarySearch(accountIds, accountId) >= 0;
+    }
+}
@@ -0,0 +1,30 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.exceptions.ServiceException;
+
+/**
+ * What the charge totals of the ChargeColumnStore are broken down by. The month and the year are the ones
+ * the bill was issued in.
+ */
+public enum ChargeGrouping {
+
+    NONE, YEAR, MONTH, CHARGE_TYPE;
+
+    /**
+     * Parses the "groupBy" value of a request, e.g. charge_type. No value means NONE.
+     */
+    public static ChargeGrouping parse(String value) {
+
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+
+        for (ChargeGrouping grouping : values()) {
+            if (grouping.name().equalsIgnoreCase(value)) {
+                return grouping;
+            }
+        }
+
+        throw new ServiceException("Invalid grouping.");
+    }
+}
@@ -0,0 +1,290 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ChargeRollupRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.entity.ChargeRollup;
+import net.gsdgroup.billing.entity.RollupLevel;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.analysisDTO.RollupTotalsDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service class that keeps the charge rollup in step with the bills and answers range queries from it. Every
+ * charge is added to the day, week, month, quarter and year of its bill's issue date, per charge type. A date
+ * range is covered with the longest whole periods that fit in it and shorter ones at its ends, so a query reads
+ * a few rows per charge type and never the charges. The write methods join the transaction of the caller, so
+ * the rollup changes commit or roll back together with the bills.
+ */
+@Service
+public class ChargeRollupService {
+
+    /**
+     * Orders the updates of the rows the same way in every transaction.
+     */
+    private static final Comparator<ChargeRollup.Key> KEY_ORDER = Comparator.comparing(ChargeRollup.Key::getLevel)
+            .thenComparingInt(ChargeRollup.Key::getPeriodStart)
+            .thenComparing(ChargeRollup.Key::getChargeType);
+
+    private static final RollupLevel[] COARSEST_FIRST =
+            {RollupLevel.YEAR, RollupLevel.QUARTER, RollupLevel.MONTH, RollupLevel.WEEK, RollupLevel.DAY};
+
+    @Autowired
+    private ChargeRollupRepository chargeRollupRepository;
+    @Autowired
+    private BillRepository billRepository;
+    @Autowired
+    private ShardExecutor shardExecutor;
+
+    /**
+     * Adds the charges of a newly stored bill.
+     */
+    @Transactional
+    public void addBill(Bill bill) {
+
+        addBills(Collections.singletonList(bill));
+    }
+
+    /**
+     * Adds the charges of newly stored bills, with one update per period and charge type touched.
+     */
+    @Transactional
+    public void addBills(Collection<Bill> bills) {
+
+        Map<ChargeRollup.Key, ChargeRollup> deltas = new TreeMap<>(KEY_ORDER);
+
+        for (Bill bill : bills) {
+
+            if (bill.getIssueDate() == null || bill.getBillCharges() == null) {
+                continue;
+            }
+
+            int issueDay = BillSnapshot.toEpochDay(bill.getIssueDate());
+
+            for (BillCharge billCharge : bill.getBillCharges()) {
+                addDelta(deltas, issueDay, billCharge.getChargeType(), billCharge.getAmount(), billCharge.getTax(), 1);
+            }
+        }
+
+        applyDeltas(deltas.values(), 1);
+    }
+
+    /**
+     * Takes out the charges of a bill as they are stored in the database.
+     * Call it before the bill is updated or deleted.
+     */
+    @Transactional
+    public void removeBill(int billId) {
+
+        applyDeltas(toDeltas(billRepository.getDailyTotalsOfBill(billId)), -1);
+    }
+
+    /**
+     * Takes out the charges of the bills as they are stored in the database. Call it before the bills are
+     * deleted.
+     */
+    @Transactional
+    public void removeBills(Collection<Integer> billIds) {
+
+        applyDeltas(toDeltas(billRepository.getDailyTotalsOfBills(billIds)), -1);
+    }
+
+    /**
+     * Takes out the charges of all the bills of an account. Call it before the account is deleted.
+     */
+    @Transactional
+    public void removeAccountBills(int accountId) {
+
+        applyDeltas(toDeltas(billRepository.getDailyTotalsOfAccount(accountId)), -1);
+    }
+
+    /**
+     * Recomputes the whole rollup from the bill charges, on every shard. Used for the backfill and to repair
+     * drift. With several shards each shard is rebuilt and committed on its own, not in the caller's
+     * transaction, so a failed rebuild may leave some shards rebuilt; running it again repairs the rest.
+     */
+    @Transactional
+    public void rebuild() {
+
+        shardExecutor.onEachShard(shard -> {
+            chargeRollupRepository.deleteAllOnShard();
+            applyDeltas(toDeltas(billRepository.getDailyTotals()), 1);
+            return null;
+        });
+    }
+
+    /**
+     * Totals per charge type of the charges on the bills issued between the dates, both inclusive, optionally
+     * of one charge type only. With a period length the totals are given for each period of that length the
+     * range overlaps, the first and last ones cut to the range; without one for the whole range, as "all".
+     */
+    @Transactional(readOnly = true)
+    public List<RollupTotalsDTO> getTotals(Date from, Date to, RollupLevel periodLength, String chargeType) {
+
+        if (from == null || to == null) {
+            throw new ServiceException("Missing date range.");
+        }
+
+        LocalDate firstDay = LocalDate.ofEpochDay(BillSnapshot.toEpochDay(from));
+        LocalDate lastDay = LocalDate.ofEpochDay(BillSnapshot.toEpochDay(to));
+
+        if (firstDay.isAfter(lastDay)) {
+            throw new ServiceException("Invalid date range.");
+        }
+
+        List<String> periodNames = new ArrayList<>();
+        Map<RollupLevel, Map<Integer, Integer>> periodOfRow = new EnumMap<>(RollupLevel.class);
+
+        if (periodLength == null) {
+            periodNames.add("all");
+            cover(firstDay, lastDay, 0, 0, periodOfRow);
+
+        } else {
+            for (LocalDate start = periodLength.startOf(firstDay); !start.isAfter(lastDay);
+                 start = periodLength.next(start)) {
+
+                if (periodNames.size() == DataValidator.MAX_ROLLUP_PERIODS) {
+                    throw new ServiceException("Too many periods, use longer ones.");
+                }
+
+                LocalDate end = periodLength.next(start).minusDays(1);
+                cover(start.isBefore(firstDay) ? firstDay : start, end.isAfter(lastDay) ? lastDay : end, 0,
+                        periodNames.size(), periodOfRow);
+                periodNames.add(periodLength.label(start));
+            }
+        }
+
+        Map<RollupLevel, Collection<Integer>> periodStarts = new EnumMap<>(RollupLevel.class);
+
+        for (Map.Entry<RollupLevel, Map<Integer, Integer>> levelPeriods : periodOfRow.entrySet()) {
+            periodStarts.put(levelPeriods.getKey(), levelPeriods.getValue().keySet());
+        }
+
+        List<Map<String, long[]>> periodTotals = new ArrayList<>();
+
+        for (int period = 0; period < periodNames.size(); period++) {
+            periodTotals.add(new TreeMap<>());
+        }
+
+        for (ChargeRollup row : chargeRollupRepository.getPeriods(periodStarts, chargeType)) {
+
+            int period = periodOfRow.get(row.getLevel()).get(row.getPeriodStart());
+            long[] totals = periodTotals.get(period).computeIfAbsent(row.getChargeType(), type -> new long[3]);
+            totals[0] = Math.addExact(totals[0], row.getAmount());
+            totals[1] = Math.addExact(totals[1], row.getTax());
+            totals[2] += row.getChargeCount();
+        }
+
+        List<RollupTotalsDTO> result = new ArrayList<>();
+
+        for (int period = 0; period < periodNames.size(); period++) {
+            for (Map.Entry<String, long[]> typeTotals : periodTotals.get(period).entrySet()) {
+
+                long[] totals = typeTotals.getValue();
+
+                if (totals[2] != 0) {
+                    String type = typeTotals.getKey().isEmpty() ? null : typeTotals.getKey();
+                    result.add(new RollupTotalsDTO(periodNames.get(period), type, totals[0], totals[1], totals[2]));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Covers the days from firstDay to lastDay with the whole periods of the longest length that fit in them,
+     * then the days left before and after with shorter ones, and records that the rows of these periods go to
+     * the given period of the answer.
+     */
+    private static void cover(LocalDate firstDay, LocalDate lastDay, int levelIndex, int period,
+                              Map<RollupLevel, Map<Integer, Integer>> periodOfRow) {
+
+        if (firstDay.isAfter(lastDay)) {
+            return;
+        }
+
+        RollupLevel level = COARSEST_FIRST[levelIndex];
+        LocalDate start = level.startOf(firstDay);
+        LocalDate end = level.startOf(lastDay.plusDays(1));
+
+        if (start.isBefore(firstDay)) {
+            start = level.next(start);
+        }
+
+        if (!start.isBefore(end)) {
+            cover(firstDay, lastDay, levelIndex + 1, period, periodOfRow);
+            return;
+        }
+
+        Map<Integer, Integer> levelPeriods = periodOfRow.computeIfAbsent(level, key -> new HashMap<>());
+
+        for (LocalDate day = start; day.isBefore(end); day = level.next(day)) {
+            levelPeriods.put((int) day.toEpochDay(), period);
+        }
+
+        cover(firstDay, start.minusDays(1), levelIndex + 1, period, periodOfRow);
+        cover(end, lastDay, levelIndex + 1, period, periodOfRow);
+    }
+
+    /**
+     * Rows of the repository, issue date, charge type, amount, tax and number of charges, as the deltas of
+     * every period they fall in.
+     */
+    private static Collection<ChargeRollup> toDeltas(List<Object[]> dailyTotals) {
+
+        Map<ChargeRollup.Key, ChargeRollup> deltas = new TreeMap<>(KEY_ORDER);
+
+        for (Object[] row : dailyTotals) {
+
+            int issueDay = BillSnapshot.toEpochDay((Date) row[0]);
+
+            if (issueDay != BillSnapshot.NO_DATE) {
+                addDelta(deltas, issueDay, (String) row[1], (Long) row[2], (Long) row[3], (Long) row[4]);
+            }
+        }
+        return deltas.values();
+    }
+
+    private static void addDelta(Map<ChargeRollup.Key, ChargeRollup> deltas, int issueDay, String chargeType,
+                                 long amount, long tax, long chargeCount) {
+
+        LocalDate issueDate = LocalDate.ofEpochDay(issueDay);
+        String type = chargeType == null ? "" : chargeType;
+
+        for (RollupLevel level : RollupLevel.values()) {
+
+            int periodStart = (int) level.startOf(issueDate).toEpochDay();
+            ChargeRollup delta = deltas.computeIfAbsent(new ChargeRollup.Key(level, periodStart, type),
+                    key -> new ChargeRollup(level, periodStart, type, 0, 0, 0));
+
+            delta.setAmount(Math.addExact(delta.getAmount(), amount));
+            delta.setTax(Math.addExact(delta.getTax(), tax));
+            delta.setChargeCount(delta.getChargeCount() + chargeCount);
+        }
+    }
+
+    private void applyDeltas(Collection<ChargeRollup> deltas, int sign) {
+
+        for (ChargeRollup delta : deltas) {
+            chargeRollupRepository.addToPeriod(delta.getLevel(), delta.getPeriodStart(), delta.getChargeType(),
+                    sign * delta.getAmount(), sign * delta.getTax(), sign * delta.getChargeCount());
+        }
+    }
+}
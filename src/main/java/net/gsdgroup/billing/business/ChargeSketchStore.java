@@ -0,0 +1,529 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.business.sketch.CountMinSketch;
+import net.gsdgroup.billing.business.sketch.Hashes;
+import net.gsdgroup.billing.business.sketch.HyperLogLog;
+import net.gsdgroup.billing.business.sketch.QuantileSketch;
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxBillTotalsDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxDistinctDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxFrequencyDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxQuantileDTO;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Approximate answers over the bills from fixed-size sketches, for dashboards that do not need exact ones: per
+ * issue month, a HyperLogLog of the accounts and one of the charge types and a quantile sketch of the bill
+ * totals, and overall a count-min sketch of the charge types. The sketches of the months of a range are merged
+ * at query time. They are built from all the shards when the context starts and follow the committed bill
+ * writes: the quantile and count-min sketches subtract the removed bills and the old state of updated ones.
+ * Only the HyperLogLogs are add-only, so the distinct counts keep the accounts and charge types of removed
+ * bills until the store is reloaded.
+ */
+@Component
+public class ChargeSketchStore implements BillChangeListener, ApplicationListener<ContextRefreshedEvent> {
+
+    /**
+     * 4096 registers per HyperLogLog, a relative standard error of 1.6%.
+     */
+    private static final int DISTINCT_PRECISION = 12;
+
+    private static final double QUANTILE_RELATIVE_ERROR = 0.01;
+
+    /**
+     * Frequencies at most 0.1% of all the charges above the true ones, in 99% of the cases.
+     */
+    private static final double FREQUENCY_EPSILON = 0.001;
+    private static final double FREQUENCY_DELTA = 0.01;
+
+    private static final int LOAD_FETCH_SIZE = 10000;
+
+    private static final Logger LOGGER = Logger.getLogger(ChargeSketchStore.class.getName());
+
+    @Autowired
+    private BillRepository billRepository;
+    @Autowired
+    private ShardExecutor shardExecutor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The sketches queries are answered from, null until the first load is done.
+     */
+    private Sketches sketches;
+
+    /**
+     * Changes committed while a load runs, replayed on the loaded sketches before they replace the current
+     * ones. Null when no load runs.
+     */
+    private List<Consumer<Load>> changesDuringLoad;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        lock.readLock().lock();
+        try {
+            if (sketches != null || changesDuringLoad != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            reload();
+
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "The sketches could not be loaded, reload them once the database is up.", e);
+            return;
+        }
+
+        LOGGER.info("Loaded the sketches in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Builds the sketches from the database again, replacing the current ones, which keep answering the
+     * queries while it runs. Used at startup and to drop the removed bills from the distinct counts.
+     */
+    public void reload() {
+
+        lock.writeLock().lock();
+        try {
+            if (changesDuringLoad != null) {
+                throw new ServiceException("The sketches are already loading.");
+            }
+            changesDuringLoad = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Load loaded = null;
+
+        try {
+            loaded = load();
+
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (loaded != null) {
+                    for (Consumer<Load> change : changesDuringLoad) {
+                        change.accept(loaded);
+                    }
+                    sketches = loaded.sketches;
+                }
+                changesDuringLoad = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Estimated distinct accounts and charge types of the bills issued in each month between the dates, both
+     * optional, then of the whole range under the period "all".
+     */
+    public List<ApproxDistinctDTO> getDistinctCounts(Date from, Date to) {
+
+        lock.readLock().lock();
+        try {
+            List<ApproxDistinctDTO> result = new ArrayList<>();
+            HyperLogLog allAccounts = new HyperLogLog(DISTINCT_PRECISION);
+            HyperLogLog allChargeTypes = new HyperLogLog(DISTINCT_PRECISION);
+
+            for (Map.Entry<Integer, MonthSketches> month : monthsBetween(from, to).entrySet()) {
+
+                MonthSketches monthSketches = month.getValue();
+                result.add(new ApproxDistinctDTO(
+                        String.format("%04d-%02d", month.getKey() / 12, month.getKey() % 12 + 1),
+                        monthSketches.accounts.estimate(), monthSketches.chargeTypes.estimate(),
+                        monthSketches.accounts.getRelativeStandardError()));
+
+                allAccounts.merge(monthSketches.accounts);
+                allChargeTypes.merge(monthSketches.chargeTypes);
+            }
+
+            result.add(new ApproxDistinctDTO("all", allAccounts.estimate(), allChargeTypes.estimate(),
+                    allAccounts.getRelativeStandardError()));
+            return result;
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated quantiles, each between 0 and 1, of the totals of the bills issued between the dates, both
+     * optional. Without bills no quantile is given.
+     */
+    public ApproxBillTotalsDTO getBillTotalQuantiles(List<Double> quantiles, Date from, Date to) {
+
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new ServiceException("Invalid quantile.");
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            QuantileSketch billTotals = new QuantileSketch(QUANTILE_RELATIVE_ERROR);
+
+            for (MonthSketches monthSketches : monthsBetween(from, to).values()) {
+                billTotals.merge(monthSketches.billTotals);
+            }
+
+            List<ApproxQuantileDTO> values = new ArrayList<>();
+
+            if (billTotals.getCount() > 0) {
+                for (double quantile : quantiles) {
+                    values.add(new ApproxQuantileDTO(quantile, billTotals.getQuantile(quantile)));
+                }
+            }
+
+            return new ApproxBillTotalsDTO(billTotals.getCount(), billTotals.getRelativeError(), values);
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Estimated number of charges of each of the charge types, over all the bills.
+     */
+    public List<ApproxFrequencyDTO> getChargeTypeFrequencies(List<String> chargeTypes) {
+
+        if (chargeTypes.isEmpty()) {
+            throw new ServiceException("Missing charge types.");
+        }
+
+        lock.readLock().lock();
+        try {
+            CountMinSketch chargeTypeCounts = loadedSketches().chargeTypeCounts;
+            List<ApproxFrequencyDTO> result = new ArrayList<>();
+
+            for (String chargeType : chargeTypes) {
+                result.add(new ApproxFrequencyDTO(chargeType, chargeTypeCounts.estimate(Hashes.of(chargeType)),
+                        chargeTypeCounts.getMaxOverestimate(), chargeTypeCounts.getConfidence()));
+            }
+            return result;
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void billsStored(List<BillSnapshot> bills) {
+
+        lock.writeLock().lock();
+        try {
+            if (sketches != null) {
+                for (BillSnapshot bill : bills) {
+                    sketches.addBill(bill);
+                }
+            }
+
+            if (changesDuringLoad != null) {
+                // a replayed bill may already have been read by the load
+                changesDuringLoad.add(loaded -> {
+                    for (BillSnapshot bill : bills) {
+                        if (!loaded.isCounted(bill.getId())) {
+                            loaded.sketches.addBill(bill);
+                            loaded.setCounted(bill.getId(), true);
+                        }
+                    }
+                });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void billsRemoved(List<BillSnapshot> bills) {
+
+        removeBills(bills);
+    }
+
+    @Override
+    public void accountBillsRemoved(int accountId, List<BillSnapshot> bills) {
+
+        removeBills(bills);
+    }
+
+    private void removeBills(List<BillSnapshot> bills) {
+
+        lock.writeLock().lock();
+        try {
+            if (sketches != null) {
+                for (BillSnapshot bill : bills) {
+                    sketches.removeBill(bill);
+                }
+            }
+
+            if (changesDuringLoad != null) {
+                // only what the load read or a replayed store added can be taken out
+                changesDuringLoad.add(loaded -> {
+                    for (BillSnapshot bill : bills) {
+                        if (loaded.isCounted(bill.getId())) {
+                            loaded.sketches.removeBill(bill);
+                            loaded.setCounted(bill.getId(), false);
+                        }
+                    }
+                });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Sketches loadedSketches() {
+
+        if (sketches == null) {
+            throw new ServiceException("The sketches are not loaded yet.");
+        }
+        return sketches;
+    }
+
+    private NavigableMap<Integer, MonthSketches> monthsBetween(Date from, Date to) {
+
+        NavigableMap<Integer, MonthSketches> months = loadedSketches().months;
+
+        if (from != null) {
+            months = months.tailMap(monthOf(BillSnapshot.toEpochDay(from)), true);
+        }
+        if (to != null) {
+            months = months.headMap(monthOf(BillSnapshot.toEpochDay(to)), true);
+        }
+        return months;
+    }
+
+    /**
+     * The month of the epoch day, counted as year * 12 + month - 1.
+     */
+    private static int monthOf(int epochDay) {
+
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        return date.getYear() * 12 + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Builds the sketches of every shard, the shards in parallel, and merges them.
+     */
+    private Load load() {
+
+        List<Load> shardLoads = shardExecutor.onEachShard(shard -> loadShard());
+        Sketches loaded = new Sketches();
+        int[][] billIds = new int[shardLoads.size()][];
+
+        for (int shard = 0; shard < shardLoads.size(); shard++) {
+            loaded.merge(shardLoads.get(shard).sketches);
+            billIds[shard] = shardLoads.get(shard).billIds[0];
+        }
+
+        return new Load(loaded, billIds);
+    }
+
+    /**
+     * Reads the charges of the current shard, a bill at a time since its rows are next to each other, and keeps
+     * the ids of the bills read, in ascending order, until the changes made during the load are replayed.
+     */
+    private Load loadShard() {
+
+        Sketches shardSketches = new Sketches();
+        int[] billIds = new int[1024];
+        int billCount = 0;
+
+        int billId = 0;
+        int accountId = 0;
+        int issueMonth = 0;
+        long total = 0;
+        boolean inBill = false;
+
+        ScrollableResults results = billRepository.scrollChargeRows(LOAD_FETCH_SIZE);
+
+        try {
+            while (results.next()) {
+
+                Object[] row = results.get();
+                int issueDay = BillSnapshot.toEpochDay((Date) row[2]);
+
+                if (issueDay == BillSnapshot.NO_DATE) {
+                    continue;
+                }
+
+                if (!inBill || (Integer) row[0] != billId) {
+
+                    if (inBill) {
+                        shardSketches.addBill(issueMonth, accountId, total);
+                    }
+
+                    if (billCount == billIds.length) {
+                        billIds = Arrays.copyOf(billIds, billCount + (billCount >> 1));
+                    }
+
+                    billId = (Integer) row[0];
+                    accountId = (Integer) row[1];
+                    issueMonth = monthOf(issueDay);
+                    total = 0;
+                    inBill = true;
+                    billIds[billCount++] = billId;
+                }
+
+                long amount = (Long) row[5];
+                long tax = (Long) row[6];
+                total = Math.addExact(total, Math.addExact(amount, tax));
+                shardSketches.addCharge(issueMonth, (String) row[4]);
+            }
+
+            if (inBill) {
+                shardSketches.addBill(issueMonth, accountId, total);
+            }
+
+        } finally {
+            results.close();
+        }
+
+        return new Load(shardSketches, new int[][] {Arrays.copyOf(billIds, billCount)});
+    }
+
+    /**
+     * Loaded sketches with the ids of the bills read by the load, one ascending array per shard, and whether
+     * the replayed changes left each bill they touched counted in the sketches. A bill updated while the load
+     * read it counts in the state the load read until the next reload.
+     */
+    private static final class Load {
+
+        private final Sketches sketches;
+        private final int[][] billIds;
+        private final Map<Integer, Boolean> countedAfterReplay = new HashMap<>();
+
+        Load(Sketches sketches, int[][] billIds) {
+            this.sketches = sketches;
+            this.billIds = billIds;
+        }
+
+        boolean isCounted(int billId) {
+
+            Boolean counted = countedAfterReplay.get(billId);
+
+            if (counted != null) {
+                return counted;
+            }
+
+            for (int[] shardBillIds : billIds) {
+                if (Arrays.binarySearch(shardBillIds, billId) >= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void setCounted(int billId, boolean counted) {
+
+            countedAfterReplay.put(billId, counted);
+        }
+    }
+
+    /**
+     * The sketches of the months that have bills and the charge type frequencies. Only changed under the write
+     * lock of the store.
+     */
+    private static final class Sketches {
+
+        private final NavigableMap<Integer, MonthSketches> months = new TreeMap<>();
+        private final CountMinSketch chargeTypeCounts = new CountMinSketch(FREQUENCY_EPSILON, FREQUENCY_DELTA);
+
+        void addBill(BillSnapshot bill) {
+
+            if (bill.getIssueDay() == BillSnapshot.NO_DATE || bill.getChargeCount() == 0) {
+                return;
+            }
+
+            int issueMonth = monthOf(bill.getIssueDay());
+
+            for (int charge = 0; charge < bill.getChargeCount(); charge++) {
+                addCharge(issueMonth, bill.getChargeType(charge));
+            }
+            addBill(issueMonth, bill.getAccountId(), bill.getTotal());
+        }
+
+        /**
+         * Takes the bill out of the quantiles of its month and its charges out of the frequencies.
+         */
+        void removeBill(BillSnapshot bill) {
+
+            if (bill.getIssueDay() == BillSnapshot.NO_DATE || bill.getChargeCount() == 0) {
+                return;
+            }
+
+            for (int charge = 0; charge < bill.getChargeCount(); charge++) {
+                chargeTypeCounts.remove(Hashes.of(bill.getChargeType(charge)), 1);
+            }
+            month(monthOf(bill.getIssueDay())).billTotals.remove(bill.getTotal());
+        }
+
+        void addCharge(int issueMonth, String chargeType) {
+
+            long hash = Hashes.of(chargeType);
+            month(issueMonth).chargeTypes.add(hash);
+            chargeTypeCounts.add(hash, 1);
+        }
+
+        void addBill(int issueMonth, int accountId, long total) {
+
+            MonthSketches monthSketches = month(issueMonth);
+            monthSketches.accounts.add(Hashes.of(accountId));
+            monthSketches.billTotals.add(total);
+        }
+
+        void merge(Sketches other) {
+
+            for (Map.Entry<Integer, MonthSketches> month : other.months.entrySet()) {
+                month(month.getKey()).merge(month.getValue());
+            }
+            chargeTypeCounts.merge(other.chargeTypeCounts);
+        }
+
+        private MonthSketches month(int issueMonth) {
+
+            return months.computeIfAbsent(issueMonth, key -> new MonthSketches());
+        }
+    }
+
+    private static final class MonthSketches {
+
+        private final HyperLogLog accounts = new HyperLogLog(DISTINCT_PRECISION);
+        private final HyperLogLog chargeTypes = new HyperLogLog(DISTINCT_PRECISION);
+        private final QuantileSketch billTotals = new QuantileSketch(QUANTILE_RELATIVE_ERROR);
+
+        void merge(MonthSketches other) {
+
+            accounts.merge(other.accounts);
+            chargeTypes.merge(other.chargeTypes);
+            billTotals.merge(other.billTotals);
+        }
+    }
+}
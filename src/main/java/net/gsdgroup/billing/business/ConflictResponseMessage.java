@@ -0,0 +1,24 @@
+package net.gsdgroup.billing.business;
+
+/**
+ * The 409 response of a write that conflicted, with the current version of the entity when it is known.
+ */
+public class ConflictResponseMessage extends JsonResponseMessage {
+
+    private Integer currentVersion;
+
+    public ConflictResponseMessage(String message, int statusCode, Integer currentVersion){
+        super(message, statusCode);
+        this.currentVersion = currentVersion;
+    }
+
+    public ConflictResponseMessage() {}
+
+    public Integer getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public void setCurrentVersion(Integer currentVersion) {
+        this.currentVersion = currentVersion;
+    }
+}
@@ -0,0 +1,107 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.AccountRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.entity.Account;
+import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.entity.BillCharge;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Service class that fills the database with generated accounts, bills and charges, for load tests and
+ * benchmarks. The data is the same on every run: the bills are spread over the 24 months before today and
+ * are due 30 days after they are issued, so some of them are overdue.
+ */
+@Service
+public class DataSeedService {
+
+    private static final String[] CHARGE_TYPES = {"Subscription", "Usage", "Roaming", "Equipment"};
+
+    @Autowired
+    private AccountRepository accountRepository;
+    @Autowired
+    private MonthlyRevenueService monthlyRevenueService;
+    @Autowired
+    private ChargeRollupService chargeRollupService;
+    @Autowired
+    private BillChangeNotifier billChangeNotifier;
+    @Autowired
+    private ShardExecutor shardExecutor;
+
+    /**
+     * Stores accountCount accounts, spread evenly over the shards, each shard in one transaction written in
+     * JDBC batches. Returns the number of accounts stored.
+     */
+    public int seed(int accountCount, int billsPerAccount, int chargesPerBill) {
+
+        int shardCount = shardExecutor.getShardCount();
+        int seeded = 0;
+
+        for (int shardSeeded : shardExecutor.onEachShard(shard -> seedOnShard(shard,
+                accountCount / shardCount + (shard < accountCount % shardCount ? 1 : 0),
+                billsPerAccount, chargesPerBill))) {
+            seeded += shardSeeded;
+        }
+
+        return seeded;
+    }
+
+    private int seedOnShard(int shard, int accountCount, int billsPerAccount, int chargesPerBill) {
+
+        Random random = new Random(shard);
+        Calendar calendar = Calendar.getInstance();
+        List<Bill> chunkBills = new ArrayList<>();
+
+        for (int i = 0; i < accountCount; i++) {
+
+            Account account = new Account();
+            account.setFirstName("SeedFirstName" + shard + "_" + i);
+            account.setLastName("SeedLastName" + shard + "_" + i);
+
+            for (int j = 0; j < billsPerAccount; j++) {
+
+                calendar.setTime(new Date());
+                calendar.add(Calendar.DAY_OF_YEAR, -random.nextInt(730));
+                Bill bill = new Bill();
+                bill.setIssueDate(calendar.getTime());
+                calendar.add(Calendar.DAY_OF_YEAR, 30);
+                bill.setDueDate(calendar.getTime());
+
+                for (int k = 0; k < chargesPerBill; k++) {
+
+                    BillCharge billCharge = new BillCharge();
+                    billCharge.setChargeType(CHARGE_TYPES[random.nextInt(CHARGE_TYPES.length)]);
+                    billCharge.setAmount(random.nextInt(10000));
+                    billCharge.setTax(billCharge.getAmount() / 5);
+                    bill.addBillCharge(billCharge);
+                }
+
+                account.addBill(bill);
+                chunkBills.add(bill);
+            }
+
+            accountRepository.add(account);
+
+            if ((i + 1) % BillService.BATCH_CHUNK_SIZE == 0) {
+                monthlyRevenueService.addBills(chunkBills);
+                chargeRollupService.addBills(chunkBills);
+                billChangeNotifier.billsStored(chunkBills);
+                chunkBills.clear();
+                accountRepository.flushAndClear();
+            }
+        }
+
+        monthlyRevenueService.addBills(chunkBills);
+        chargeRollupService.addBills(chunkBills);
+        billChangeNotifier.billsStored(chunkBills);
+
+        return accountCount;
+    }
+}
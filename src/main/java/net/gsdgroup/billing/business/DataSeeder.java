@@ -0,0 +1,55 @@
+package net.gsdgroup.billing.business;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import java.util.logging.Logger;
+
+/**
+ * Populates a fresh database once the context is started, so an embedded instance comes up with data to
+ * load test against. Declared in the embedded profile only; nothing is stored when the account count is 0.
+ */
+public class DataSeeder implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger LOGGER = Logger.getLogger(DataSeeder.class.getName());
+
+    @Autowired
+    private DataSeedService dataSeedService;
+
+    private int accountCount;
+    private int billsPerAccount;
+    private int chargesPerBill;
+
+    private boolean seeded;
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        if (seeded || accountCount <= 0) {
+            return;
+        }
+        seeded = true;
+
+        long start = System.currentTimeMillis();
+        int stored = dataSeedService.seed(accountCount, billsPerAccount, chargesPerBill);
+
+        LOGGER.info("Seeded " + stored + " accounts with " + billsPerAccount + " bills of " + chargesPerBill
+                + " charges each in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    public void setAccountCount(int accountCount) {
+
+        this.accountCount = accountCount;
+    }
+
+    public void setBillsPerAccount(int billsPerAccount) {
+
+        this.billsPerAccount = billsPerAccount;
+    }
+
+    public void setChargesPerBill(int chargesPerBill) {
+
+        this.chargesPerBill = chargesPerBill;
+    }
+}
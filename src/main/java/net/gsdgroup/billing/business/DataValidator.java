@@ -7,6 +7,14 @@ import org.springframework.stereotype.Component;
 @Component
 public class DataValidator {
 
+    public static final int DEFAULT_PAGE_LIMIT = 100;
+    public static final int MAX_PAGE_LIMIT = 1000;
+    public static final int MAX_BILL_BATCH_SIZE = 10000;
+    public static final int MAX_DUE_DATE_SHIFT_DAYS = 3650;
+    public static final int DEFAULT_TOP_ACCOUNTS = 100;
+    public static final int MAX_TOP_ACCOUNTS = 1000;
+    public static final int MAX_ROLLUP_PERIODS = 1000;
+
     public boolean validateAccountData(Account account){
 
         if(account.getFirstName() == null || account.getLastName() == null){
@@ -28,4 +36,19 @@ public class DataValidator {
 
         return true;
     }
+
+    public boolean validatePageLimit(int limit){
+
+        return limit > 0 && limit <= MAX_PAGE_LIMIT;
+    }
+
+    public boolean validateDueDateShift(int days){
+
+        return days != 0 && Math.abs(days) <= MAX_DUE_DATE_SHIFT_DAYS;
+    }
+
+    public boolean validateTopAccountCount(int count){
+
+        return count > 0 && count <= MAX_TOP_ACCOUNTS;
+    }
 }
@@ -0,0 +1,140 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.PoolMetrics;
+import net.gsdgroup.billing.dao.PoolMetricsTrackerFactory;
+import net.gsdgroup.billing.dao.ReplicaRoutingDataSource;
+import net.gsdgroup.billing.dao.SessionLeakDetector;
+import net.gsdgroup.billing.dao.SessionTracker;
+import net.gsdgroup.billing.entity.CacheRegions;
+import net.gsdgroup.billing.webservice.metricsDTO.CacheRegionStatisticsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.ConflictMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.PoolMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.RoutingMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.SessionMetricsDTO;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service class that gathers the runtime metrics of the application.
+ */
+@Service
+public class MetricsService {
+
+    @Autowired
+    private PoolMetricsTrackerFactory poolMetricsTrackerFactory;
+    @Autowired
+    private SessionFactory factory;
+    @Autowired
+    private SessionLeakDetector sessionLeakDetector;
+    @Autowired
+    private ReplicaRoutingDataSource routingDataSource;
+    @Autowired
+    private TransactionRetrier transactionRetrier;
+
+    public List<PoolMetricsDTO> getPoolMetrics(){
+
+        List<PoolMetricsDTO> poolMetricsDTOList = new ArrayList<>();
+
+        for (PoolMetrics poolMetrics : poolMetricsTrackerFactory.getPoolMetrics()) {
+            poolMetricsDTOList.add(buildPoolMetricsDTO(poolMetrics));
+        }
+
+        return poolMetricsDTOList;
+    }
+
+    /**
+     * Hit, miss and put counts of every second level cache region, followed by those of the query cache.
+     */
+    public List<CacheRegionStatisticsDTO> getCacheStatistics(){
+
+        Statistics statistics = factory.getStatistics();
+        List<CacheRegionStatisticsDTO> cacheStatisticsDTOList = new ArrayList<>();
+
+        for (String regionName : CacheRegions.ALL) {
+
+            CacheRegionStatistics regionStatistics = statistics.getDomainDataRegionStatistics(regionName);
+
+            if (regionStatistics != null) {
+                cacheStatisticsDTOList.add(new CacheRegionStatisticsDTO(regionName,
+                        regionStatistics.getHitCount(),
+                        regionStatistics.getMissCount(),
+                        regionStatistics.getPutCount(),
+                        regionStatistics.getElementCountInMemory()));
+            }
+        }
+
+        cacheStatisticsDTOList.add(new CacheRegionStatisticsDTO("query",
+                statistics.getQueryCacheHitCount(),
+                statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount(),
+                0));
+
+        return cacheStatisticsDTOList;
+    }
+
+    /**
+     * Opened, closed and currently open Hibernate sessions, and the sessions requests have left open.
+     */
+    public SessionMetricsDTO getSessionMetrics(){
+
+        return new SessionMetricsDTO(SessionTracker.getOpenedCount(),
+                SessionTracker.getClosedCount(),
+                SessionTracker.getOpenCount(),
+                sessionLeakDetector.getLeakedCount(),
+                sessionLeakDetector.getLeakingRequestCount());
+    }
+
+    /**
+     * Reads sent to the primary and to the replicas, the last known lag of each replica and the number of
+     * writers whose reads are currently held on the primary after a write.
+     */
+    public RoutingMetricsDTO getRoutingMetrics(){
+
+        return new RoutingMetricsDTO(routingDataSource.getPrimaryReadCount(),
+                routingDataSource.getReplicaReadCount(),
+                routingDataSource.getReplicaLagSeconds(),
+                routingDataSource.getStickyWriterCount());
+    }
+
+    /**
+     * Writes rejected for carrying an old version, optimistic lock failures and deadlocks met by the writes,
+     * the retries they caused and the writes that ran out of retries.
+     */
+    public ConflictMetricsDTO getConflictMetrics(){
+
+        return new ConflictMetricsDTO(transactionRetrier.getVersionConflictCount(),
+                transactionRetrier.getOptimisticFailureCount(),
+                transactionRetrier.getDeadlockCount(),
+                transactionRetrier.getRetryCount(),
+                transactionRetrier.getExhaustedCount());
+    }
+
+    public PoolMetricsDTO buildPoolMetricsDTO(PoolMetrics poolMetrics){
+
+        PoolMetricsDTO poolMetricsDTO = new PoolMetricsDTO();
+        poolMetricsDTO.setPoolName(poolMetrics.getPoolName());
+        poolMetricsDTO.setActiveConnections(poolMetrics.getActiveConnections());
+        poolMetricsDTO.setIdleConnections(poolMetrics.getIdleConnections());
+        poolMetricsDTO.setTotalConnections(poolMetrics.getTotalConnections());
+        poolMetricsDTO.setPendingThreads(poolMetrics.getPendingThreads());
+        poolMetricsDTO.setAcquireCount(poolMetrics.getAcquireCount());
+        poolMetricsDTO.setTimeoutCount(poolMetrics.getTimeoutCount());
+        poolMetricsDTO.setAverageAcquireMillis(poolMetrics.getAverageAcquireMillis());
+
+        long[] buckets = poolMetrics.getAcquireBuckets();
+        long[] bounds = PoolMetrics.ACQUIRE_BUCKET_BOUNDS_MILLIS;
+
+        for (int i = 0; i < bounds.length; i++) {
+            poolMetricsDTO.getAcquireTimeHistogram().put("<" + bounds[i] + "ms", buckets[i]);
+        }
+        poolMetricsDTO.getAcquireTimeHistogram().put(">=" + bounds[bounds.length - 1] + "ms", buckets[bounds.length]);
+
+        return poolMetricsDTO;
+    }
+}
@@ -0,0 +1,122 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.MonthlyRevenueRepository;
+import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.entity.MonthlyRevenue;
+import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Service class that keeps the monthly revenue aggregate in step with the bills. The write methods join the
+ * transaction of the caller, so the aggregate changes commit or roll back together with the bills.
+ */
+@Service
+public class MonthlyRevenueService {
+
+    @Autowired
+    private MonthlyRevenueRepository monthlyRevenueRepository;
+    @Autowired
+    private BillRepository billRepository;
+
+    /**
+     * Adds the charges of a newly stored bill to the month it was issued in.
+     */
+    @Transactional
+    public void addBill(Bill bill) {
+
+        addBills(Collections.singletonList(bill));
+    }
+
+    /**
+     * Adds the charges of newly stored bills, with one aggregate update per month touched.
+     */
+    @Transactional
+    public void addBills(Collection<Bill> bills) {
+
+        Map<Integer, MonthlyRevenue> monthlyDeltas = new TreeMap<>();
+        Calendar calendar = Calendar.getInstance();
+
+        for (Bill bill : bills) {
+
+            if (bill.getIssueDate() == null || bill.getBillCharges() == null || bill.getBillCharges().isEmpty()) {
+                continue;
+            }
+
+            calendar.setTime(bill.getIssueDate());
+            int year = calendar.get(Calendar.YEAR);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            MonthlyRevenue delta = monthlyDeltas.computeIfAbsent(year * 100 + month,
+                    monthKey -> new MonthlyRevenue(year, month, 0, 0));
+
+            for (BillCharge billCharge : bill.getBillCharges()) {
+                delta.setAmount(Math.addExact(delta.getAmount(), Math.addExact(billCharge.getAmount(), billCharge.getTax())));
+                delta.setChargeCount(delta.getChargeCount() + 1);
+            }
+        }
+
+        applyDeltas(monthlyDeltas.values(), 1);
+    }
+
+    /**
+     * Takes out the charges of a bill as they are stored in the database.
+     * Call it before the bill is updated or deleted.
+     */
+    @Transactional
+    public void removeBill(int billId) {
+
+        applyDeltas(billRepository.getMonthlyTotalsOfBill(billId), -1);
+    }
+
+    /**
+     * Takes out the charges of the bills as they are stored in the database, with one aggregate update per
+     * month touched. Call it before the bills are deleted.
+     */
+    @Transactional
+    public void removeBills(Collection<Integer> billIds) {
+
+        applyDeltas(billRepository.getMonthlyTotalsOfBills(billIds), -1);
+    }
+
+    /**
+     * Takes out the charges of all the bills of an account. Call it before the account is deleted.
+     */
+    @Transactional
+    public void removeAccountBills(int accountId) {
+
+        applyDeltas(billRepository.getMonthlyTotalsOfAccount(accountId), -1);
+    }
+
+    /**
+     * Recomputes the whole aggregate from the bill charges.
+     */
+    @Transactional
+    public void rebuild() {
+
+        monthlyRevenueRepository.rebuild();
+    }
+
+    @Transactional(readOnly = true)
+    public List<MonthlyAmountDTO> getTotalChargedEachMonth() {
+
+        return monthlyRevenueRepository.getTotalChargedEachMonth();
+    }
+
+    private void applyDeltas(Collection<MonthlyRevenue> monthlyDeltas, int sign) {
+
+        for (MonthlyRevenue delta : monthlyDeltas) {
+            monthlyRevenueRepository.addToMonth(delta.getYear(), delta.getMonth(),
+                    sign * delta.getAmount(), sign * delta.getChargeCount());
+        }
+    }
+}
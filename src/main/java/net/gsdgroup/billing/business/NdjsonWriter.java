@@ -0,0 +1,110 @@
+package net.gsdgroup.billing.business;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Writes the rows of a scrollable result as newline delimited json, one DTO per line.
+ * Only one fetch of rows is kept in memory at a time, no matter how many rows are written.
+ */
+@Component
+public class NdjsonWriter {
+
+    public static final int STREAM_FETCH_SIZE = 500;
+
+    @Autowired
+    private ObjectMapper mapper;
+
+    /**
+     * Converts each run of rows with the same key into one DTO and writes it to the output stream. The rows of
+     * a key must be next to each other, and only those of the current key are held in memory. Every
+     * STREAM_FETCH_SIZE DTOs the output is flushed. The results are closed once written.
+     */
+    @SuppressWarnings("unchecked")
+    public <TRow, TDto> void writeGroups(ScrollableResults results, Function<TRow, ?> groupKey,
+                                         Function<List<TRow>, TDto> converter, OutputStream outputStream)
+            throws IOException {
+
+        List<TRow> group = new ArrayList<>();
+
+        writeAll(results, () -> {
+            TRow row = (TRow) results.get(0);
+            TDto dto = null;
+
+            if (!group.isEmpty() && !groupKey.apply(group.get(0)).equals(groupKey.apply(row))) {
+                dto = converter.apply(group);
+                group.clear();
+            }
+
+            group.add(row);
+            return dto;
+
+        }, () -> group.isEmpty() ? null : converter.apply(group), outputStream);
+    }
+
+    /**
+     * Converts each row of a projection, with all its columns, into a DTO and writes it to the output stream.
+     * Every STREAM_FETCH_SIZE rows the output is flushed. The results are closed once written.
+     */
+    public <TDto> void writeRows(ScrollableResults results, Function<Object[], TDto> converter,
+                                 OutputStream outputStream) throws IOException {
+
+        writeAll(results, () -> converter.apply(results.get()), () -> null, outputStream);
+    }
+
+    /**
+     * Writes the DTO made of each row, skipping the rows that make none, then the one left after the last row.
+     */
+    private <TDto> void writeAll(ScrollableResults results, Supplier<TDto> currentDto, Supplier<TDto> lastDto,
+                                 OutputStream outputStream) throws IOException {
+
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = mapper.getFactory().createGenerator(outputStream);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+
+        try {
+            int dtoCount = 0;
+
+            while (results.next()) {
+
+                TDto dto = currentDto.get();
+
+                if (dto == null) {
+                    continue;
+                }
+
+                writer.writeValue(generator, dto);
+                generator.writeRaw('\n');
+
+                if (++dtoCount % STREAM_FETCH_SIZE == 0) {
+                    generator.flush();
+                }
+            }
+
+            TDto dto = lastDto.get();
+
+            if (dto != null) {
+                writer.writeValue(generator, dto);
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+
+        } finally {
+            results.close();
+            generator.close();
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.BillRepository;
+import net.gsdgroup.billing.dao.ShardExecutor;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.analysisDTO.OverdueBillDTO;
+import org.hibernate.ScrollableResults;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory set of the overdue bills, the bills due before today, so they are listed without scanning the
+ * bills. The bills not overdue yet wait in a priority queue by due date; a timer fires at the start of the day
+ * after the earliest due date and moves the bills that expired to the overdue set, which every query also does
+ * first, so the answer is exact whenever the timer runs late. The bills are loaded from all the shards when the
+ * context starts and follow the committed bill writes. Removed bills are only marked in the queue and dropped
+ * when they reach its head, or all at once when they are half of it.
+ */
+@Component
+public class OverdueBillTracker implements BillChangeListener, ApplicationListener<ContextRefreshedEvent> {
+
+    private static final int LOAD_FETCH_SIZE = 10000;
+
+    private static final DateTimeFormatter DUE_DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+
+    private static final Logger LOGGER = Logger.getLogger(OverdueBillTracker.class.getName());
+
+    @Autowired
+    private BillRepository billRepository;
+    @Autowired
+    private ShardExecutor shardExecutor;
+
+    private final Lock lock = new ReentrantLock();
+
+    private ScheduledExecutorService timer;
+
+    /**
+     * The next run of the timer and the epoch day it runs on, null when none is needed.
+     */
+    private ScheduledFuture<?> nextFlip;
+    private int nextFlipDay;
+
+    /**
+     * The bills queries are answered from, null until the first load is done.
+     */
+    private TrackedBills bills;
+
+    /**
+     * Changes committed while a load runs, replayed on the loaded bills before they replace the current ones.
+     * Null when no load runs.
+     */
+    private List<Consumer<TrackedBills>> changesDuringLoad;
+
+    @PostConstruct
+    public void start() {
+
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "overdue-bill-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        timer.shutdownNow();
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        lock.lock();
+        try {
+            if (bills != null || changesDuringLoad != null) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        long start = System.currentTimeMillis();
+
+        try {
+            reload();
+
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "The overdue bills could not be loaded, reload them once the database is up.", e);
+            return;
+        }
+
+        LOGGER.info("Loaded " + getOverdueBillCount() + " overdue bills in "
+                + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    /**
+     * Loads the due dates of all the bills from the database again, replacing the tracked ones. Queries keep
+     * being answered from the previous bills while it runs. Used at startup and to repair the tracker after a
+     * failed update.
+     */
+    public void reload() {
+
+        lock.lock();
+        try {
+            if (changesDuringLoad != null) {
+                throw new ServiceException("The overdue bills are already loading.");
+            }
+            changesDuringLoad = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        TrackedBills loaded = null;
+
+        try {
+            loaded = load();
+
+        } finally {
+            lock.lock();
+            try {
+                if (loaded != null) {
+                    for (Consumer<TrackedBills> change : changesDuringLoad) {
+                        change.accept(loaded);
+                    }
+                    bills = loaded;
+                    scheduleNextFlip();
+                }
+                changesDuringLoad = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The overdue bills, of one account only when accountId is given, in the order they became overdue. Takes
+     * time in proportion to the bills returned.
+     */
+    public List<OverdueBillDTO> getOverdueBills(Integer accountId) {
+
+        lock.lock();
+        try {
+            int today = today();
+            TrackedBills current = loadedBills();
+            current.advance(today);
+
+            Collection<TrackedBill> overdueBills = accountId == null ? current.overdue.values()
+                    : current.overdueByAccount.getOrDefault(accountId, Collections.emptyMap()).values();
+            List<OverdueBillDTO> result = new ArrayList<>(overdueBills.size());
+
+            for (TrackedBill bill : overdueBills) {
+                result.add(new OverdueBillDTO(bill.billId, bill.accountId,
+                        LocalDate.ofEpochDay(bill.dueDay).format(DUE_DATE_FORMAT), today - bill.dueDay, bill.total));
+            }
+            return result;
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of overdue bills, 0 until the bills are loaded.
+     */
+    public int getOverdueBillCount() {
+
+        lock.lock();
+        try {
+            if (bills == null) {
+                return 0;
+            }
+            bills.advance(today());
+            return bills.overdue.size();
+
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void billsStored(List<BillSnapshot> storedBills) {
+
+        apply(target -> {
+            for (BillSnapshot bill : storedBills) {
+                if (bill.getDueDay() == BillSnapshot.NO_DATE) {
+                    target.remove(bill.getId());
+                } else {
+                    target.add(new TrackedBill(bill.getId(), bill.getAccountId(), bill.getDueDay(), bill.getTotal()),
+                            today());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void billsRemoved(List<BillSnapshot> removedBills) {
+
+        apply(target -> {
+            for (BillSnapshot bill : removedBills) {
+                target.remove(bill.getId());
+            }
+        });
+    }
+
+    @Override
+    public void accountBillsRemoved(int accountId, List<BillSnapshot> removedBills) {
+
+        apply(target -> target.removeAccount(accountId));
+    }
+
+    @Override
+    public void dueDatesChanged(Map<Integer, Integer> dueDays) {
+
+        apply(target -> {
+            for (Map.Entry<Integer, Integer> dueDay : dueDays.entrySet()) {
+                target.setDueDay(dueDay.getKey(), dueDay.getValue(), today());
+            }
+        });
+    }
+
+    /**
+     * Applies a committed change to the current bills and, while a load runs, queues it for the loaded ones.
+     * Every change can be applied twice, as the load may already have read it.
+     */
+    private void apply(Consumer<TrackedBills> change) {
+
+        lock.lock();
+        try {
+            if (bills != null) {
+                change.accept(bills);
+                scheduleNextFlip();
+            }
+            if (changesDuringLoad != null) {
+                changesDuringLoad.add(change);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run by the timer: moves the expired bills to the overdue set and sets the timer for the next due date.
+     */
+    private void flip() {
+
+        lock.lock();
+        try {
+            nextFlip = null;
+
+            if (bills != null) {
+                bills.advance(today());
+                scheduleNextFlip();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets the timer for the start of the day after the earliest due date of the queue, unless it is already
+     * set for that day or an earlier one. Called with the lock held.
+     */
+    private void scheduleNextFlip() {
+
+        int dueDay = bills.nextDueDay();
+
+        if (dueDay == BillSnapshot.NO_DATE || (nextFlip != null && nextFlipDay <= dueDay + 1)) {
+            return;
+        }
+
+        if (nextFlip != null) {
+            nextFlip.cancel(false);
+        }
+
+        nextFlipDay = dueDay + 1;
+        long flipTime = LocalDate.ofEpochDay(nextFlipDay).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        nextFlip = timer.schedule(this::flip, Math.max(0, flipTime - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private TrackedBills loadedBills() {
+
+        if (bills == null) {
+            throw new ServiceException("The overdue bills are not loaded yet.");
+        }
+        return bills;
+    }
+
+    private static int today() {
+
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * Reads the bills of every shard, the shards in parallel.
+     */
+    private TrackedBills load() {
+
+        TrackedBills loaded = new TrackedBills();
+        int today = today();
+
+        for (List<TrackedBill> shardBills : shardExecutor.onEachShard(shard -> loadShard())) {
+            for (TrackedBill bill : shardBills) {
+                loaded.add(bill, today);
+            }
+        }
+        return loaded;
+    }
+
+    private List<TrackedBill> loadShard() {
+
+        List<TrackedBill> shardBills = new ArrayList<>();
+        ScrollableResults results = billRepository.scrollBillDueDates(LOAD_FETCH_SIZE);
+
+        try {
+            while (results.next()) {
+
+                Object[] row = results.get();
+                int dueDay = BillSnapshot.toEpochDay((Date) row[2]);
+
+                if (dueDay != BillSnapshot.NO_DATE) {
+                    shardBills.add(new TrackedBill((Integer) row[0], (Integer) row[1], dueDay,
+                            row[3] == null ? 0 : (Long) row[3]));
+                }
+            }
+
+        } finally {
+            results.close();
+        }
+
+        return shardBills;
+    }
+
+    private static final class TrackedBill {
+
+        private final int billId;
+        private final int accountId;
+        private final int dueDay;
+        private final long total;
+
+        /**
+         * Set when the bill is removed while it waits in the queue.
+         */
+        private boolean removed;
+
+        TrackedBill(int billId, int accountId, int dueDay, long total) {
+            this.billId = billId;
+            this.accountId = accountId;
+            this.dueDay = dueDay;
+            this.total = total;
+        }
+    }
+
+    /**
+     * The tracked bills by id and by account, the queue of the bills not overdue yet, earliest due date first,
+     * and the overdue ones in the order they became overdue. Only changed with the lock of the tracker held.
+     */
+    private static final class TrackedBills {
+
+        private static final Comparator<TrackedBill> DUE_ORDER =
+                Comparator.comparingInt((TrackedBill bill) -> bill.dueDay).thenComparingInt(bill -> bill.billId);
+
+        private final Map<Integer, TrackedBill> byId = new HashMap<>();
+        private final Map<Integer, Set<Integer>> billIdsByAccount = new HashMap<>();
+        private final PriorityQueue<TrackedBill> pending = new PriorityQueue<>(DUE_ORDER);
+        private final Map<Integer, TrackedBill> overdue = new LinkedHashMap<>();
+        private final Map<Integer, Map<Integer, TrackedBill>> overdueByAccount = new HashMap<>();
+        private int removedCount;
+
+        /**
+         * Tracks the bill, replacing the bill with the same id.
+         */
+        void add(TrackedBill bill, int today) {
+
+            remove(bill.billId);
+            byId.put(bill.billId, bill);
+            billIdsByAccount.computeIfAbsent(bill.accountId, accountId -> new HashSet<>()).add(bill.billId);
+
+            if (bill.dueDay < today) {
+                markOverdue(bill);
+            } else {
+                pending.add(bill);
+            }
+        }
+
+        void remove(int billId) {
+
+            TrackedBill bill = byId.remove(billId);
+
+            if (bill == null) {
+                return;
+            }
+
+            Set<Integer> accountBillIds = billIdsByAccount.get(bill.accountId);
+            accountBillIds.remove(billId);
+            if (accountBillIds.isEmpty()) {
+                billIdsByAccount.remove(bill.accountId);
+            }
+
+            if (overdue.remove(billId) != null) {
+                Map<Integer, TrackedBill> accountOverdue = overdueByAccount.get(bill.accountId);
+                accountOverdue.remove(billId);
+                if (accountOverdue.isEmpty()) {
+                    overdueByAccount.remove(bill.accountId);
+                }
+                return;
+            }
+
+            bill.removed = true;
+            removedCount++;
+
+            if (removedCount * 2 > pending.size()) {
+                pending.removeIf(queued -> queued.removed);
+                removedCount = 0;
+            }
+        }
+
+        void removeAccount(int accountId) {
+
+            for (int billId : new ArrayList<>(billIdsByAccount.getOrDefault(accountId, Collections.emptySet()))) {
+                remove(billId);
+            }
+        }
+
+        void setDueDay(int billId, int dueDay, int today) {
+
+            TrackedBill bill = byId.get(billId);
+
+            if (bill != null && bill.dueDay != dueDay) {
+                add(new TrackedBill(billId, bill.accountId, dueDay, bill.total), today);
+            }
+        }
+
+        /**
+         * Moves the bills due before today from the queue to the overdue set.
+         */
+        void advance(int today) {
+
+            while (!pending.isEmpty()) {
+
+                TrackedBill bill = pending.peek();
+
+                if (bill.removed) {
+                    pending.poll();
+                    removedCount--;
+
+                } else if (bill.dueDay < today) {
+                    pending.poll();
+                    markOverdue(bill);
+
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * The earliest due date of the queue, NO_DATE when it is empty.
+         */
+        int nextDueDay() {
+
+            while (!pending.isEmpty() && pending.peek().removed) {
+                pending.poll();
+                removedCount--;
+            }
+            return pending.isEmpty() ? BillSnapshot.NO_DATE : pending.peek().dueDay;
+        }
+
+        private void markOverdue(TrackedBill bill) {
+
+            overdue.put(bill.billId, bill);
+            overdueByAccount.computeIfAbsent(bill.accountId, accountId -> new LinkedHashMap<>()).put(bill.billId, bill);
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package net.gsdgroup.billing.business;
+
+import net.gsdgroup.billing.dao.ShardContext;
+import net.gsdgroup.billing.exceptions.ConflictException;
+import net.gsdgroup.billing.exceptions.RetriesExhaustedException;
+import org.hibernate.StaleStateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs write work in a transaction and runs it again, in a new transaction, when it fails on a concurrent
+ * update: an optimistic lock failure, a deadlock or a lock wait timeout. The wait between attempts doubles
+ * from initialBackoffMillis up to maxBackoffMillis, with jitter so the colliding writers do not meet again.
+ *
+ * Most deadlocks come from the monthly revenue and charge rollup rows, which every writer of a period shares.
+ * MonthlyRevenueService and ChargeRollupService update them in the same order in every transaction, so writers
+ * wait for each other rather than deadlock, but two writers inserting the same new row at once may still be
+ * chosen as deadlock victims. The adds, updates and deletes of bills and accounts are therefore run through here.
+ *
+ * Work called inside a transaction joins it and is not retried, the outermost caller owns the retries. When the
+ * retries run out the write fails with a RetriesExhaustedException, which carries no version as the write may
+ * not have been based on an old one.
+ */
+@Component
+public class TransactionRetrier {
+
+    private static final int MYSQL_DEADLOCK = 1213;
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+    private static final String SERIALIZATION_FAILURE = "40001";
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${db.retry.maxAttempts}")
+    private int maxAttempts;
+    @Value("${db.retry.initialBackoffMillis}")
+    private long initialBackoffMillis;
+    @Value("${db.retry.maxBackoffMillis}")
+    private long maxBackoffMillis;
+
+    private final AtomicLong versionConflictCount = new AtomicLong();
+    private final AtomicLong optimisticFailureCount = new AtomicLong();
+    private final AtomicLong deadlockCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    public <T> T inTransaction(Supplier<T> work) {
+
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return work.get();
+        }
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+        for (int attempt = 1; ; attempt++) {
+
+            try {
+                return transactionTemplate.execute(status -> work.get());
+
+            } catch (RuntimeException e) {
+
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+
+                if (attempt >= maxAttempts) {
+                    exhaustedCount.incrementAndGet();
+                    throw new RetriesExhaustedException(
+                            "The write kept conflicting with concurrent writes. Try again later.");
+                }
+
+                retryCount.incrementAndGet();
+                backOff(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Runs the work like inTransaction with the transaction bound to the shard, for work on one shard that
+     * would otherwise not know it before its first id.
+     */
+    public <T> T inTransactionOnShard(int shard, Supplier<T> work) {
+
+        return inTransaction(() -> {
+            ShardContext.bind(shard);
+            return work.get();
+        });
+    }
+
+    public void inTransaction(Runnable work) {
+
+        inTransaction(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Counts a write rejected because it was based on an older version of the entity.
+     */
+    public ConflictException versionConflict(String message, int currentVersion) {
+
+        versionConflictCount.incrementAndGet();
+        return new ConflictException(message, currentVersion);
+    }
+
+    public long getVersionConflictCount() {
+
+        return versionConflictCount.get();
+    }
+
+    public long getOptimisticFailureCount() {
+
+        return optimisticFailureCount.get();
+    }
+
+    public long getDeadlockCount() {
+
+        return deadlockCount.get();
+    }
+
+    public long getRetryCount() {
+
+        return retryCount.get();
+    }
+
+    public long getExhaustedCount() {
+
+        return exhaustedCount.get();
+    }
+
+    /**
+     * Walks the causes of the failure, counting it as an optimistic failure or a deadlock when it is one.
+     */
+    private boolean isRetryable(Throwable failure) {
+
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+
+            if (cause instanceof OptimisticLockingFailureException || cause instanceof OptimisticLockException
+                    || cause instanceof StaleStateException) {
+                optimisticFailureCount.incrementAndGet();
+                return true;
+            }
+
+            if (cause instanceof PessimisticLockingFailureException || cause instanceof PessimisticLockException
+                    || isDeadlock(cause)) {
+                deadlockCount.incrementAndGet();
+                return true;
+            }
+
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isDeadlock(Throwable cause) {
+
+        if (!(cause instanceof SQLException)) {
+            return false;
+        }
+
+        SQLException sqlException = (SQLException) cause;
+
+        return sqlException.getErrorCode() == MYSQL_DEADLOCK
+                || sqlException.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT
+                || SERIALIZATION_FAILURE.equals(sqlException.getSQLState());
+    }
+
+    private void backOff(int attempt, RuntimeException failure) {
+
+        long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+
+        try {
+            Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package net.gsdgroup.billing.business.sketch;
+
+/**
+ * Estimates how many times each value was added, in a fixed table of counters whatever the number of values.
+ * An estimate is never below the true count and, with probability 1 - delta, at most epsilon times the total
+ * count above it, as long as only values added before are removed. Two sketches of the same size merge into the
+ * sketch of both streams. Not thread safe.
+ */
+public class CountMinSketch {
+
+    private final double epsilon;
+    private final double delta;
+    private final int width;
+    private final int depth;
+    private final long[] counters;
+    private long totalCount;
+
+    public CountMinSketch(double epsilon, double delta) {
+
+        if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("Epsilon and delta must be between 0 and 1.");
+        }
+
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.counters = new long[width * depth];
+    }
+
+    /**
+     * Adds count occurrences of the value of the hash, one of Hashes.
+     */
+    public void add(long hash, long count) {
+
+        for (int row = 0; row < depth; row++) {
+            counters[row * width + column(hash, row)] += count;
+        }
+        totalCount += count;
+    }
+
+    /**
+     * Takes out count occurrences of the value of the hash, added before.
+     */
+    public void remove(long hash, long count) {
+
+        add(hash, -count);
+    }
+
+    public long estimate(long hash) {
+
+        long estimate = Long.MAX_VALUE;
+
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + column(hash, row)]);
+        }
+        return estimate;
+    }
+
+    public void merge(CountMinSketch other) {
+
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Only sketches of the same size can be merged.");
+        }
+
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * The most an estimate exceeds the true count, with the probability of getConfidence.
+     */
+    public long getMaxOverestimate() {
+
+        return (long) Math.ceil(epsilon * totalCount);
+    }
+
+    public double getConfidence() {
+
+        return 1 - delta;
+    }
+
+    public long getTotalCount() {
+
+        return totalCount;
+    }
+
+    /**
+     * Column of the value in the row, the rows hashing with h1 + row * h2 from the two halves of the hash.
+     */
+    private int column(long hash, int row) {
+
+        return Math.floorMod((int) hash + row * (int) (hash >>> 32), width);
+    }
+}
@@ -0,0 +1,43 @@
+package net.gsdgroup.billing.business.sketch;
+
+/**
+ * 64-bit hashes of the values put in the sketches. The bits are mixed with the finalizer of MurmurHash3, so
+ * ids that follow each other spread over the whole range.
+ */
+public final class Hashes {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private Hashes() {}
+
+    public static long of(long value) {
+
+        return mix(value + GOLDEN_GAMMA);
+    }
+
+    /**
+     * FNV-1a over the chars of the string, mixed. Null hashes like the empty string.
+     */
+    public static long of(String value) {
+
+        long hash = 0xCBF29CE484222325L;
+
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001B3L;
+            }
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB93FE1A85D53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+package net.gsdgroup.billing.business.sketch;
+
+/**
+ * Estimates the number of distinct values added, in 2^precision one-byte registers whatever the number of
+ * values. The relative standard error of the estimate is 1.04 / sqrt(2^precision); small counts are estimated
+ * by linear counting, which is close to exact. Two sketches of the same precision merge into the sketch of the
+ * union of their values. Not thread safe.
+ */
+public class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("The precision must be between 4 and 18.");
+        }
+
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Adds the value of the hash, one of Hashes.
+     */
+    public void add(long hash) {
+
+        int register = (int) (hash >>> (64 - precision));
+        // the bit set below the hash bits caps the rank at 65 - precision
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    public void merge(HyperLogLog other) {
+
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Only sketches of the same precision can be merged.");
+        }
+
+        for (int register = 0; register < registers.length; register++) {
+            if (other.registers[register] > registers[register]) {
+                registers[register] = other.registers[register];
+            }
+        }
+    }
+
+    public long estimate() {
+
+        int registerCount = registers.length;
+        double sum = 0;
+        int emptyRegisters = 0;
+
+        for (byte rank : registers) {
+            sum += 1.0 / (1L << rank);
+            if (rank == 0) {
+                emptyRegisters++;
+            }
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / registerCount);
+        double estimate = alpha * registerCount * registerCount / sum;
+
+        if (estimate <= 2.5 * registerCount && emptyRegisters > 0) {
+            estimate = registerCount * Math.log((double) registerCount / emptyRegisters);
+        }
+
+        return Math.round(estimate);
+    }
+
+    public double getRelativeStandardError() {
+
+        return 1.04 / Math.sqrt(registers.length);
+    }
+}
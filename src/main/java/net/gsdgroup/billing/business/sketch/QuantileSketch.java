@@ -0,0 +1,186 @@
+package net.gsdgroup.billing.business.sketch;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the quantiles of the values added with a relative error: the value returned for a quantile is
+ * off the value of that rank by at most relativeError times it. Values are counted in logarithmic
+ * buckets, so the memory depends on the spread of the values, at most a few thousand buckets for all the
+ * longs, and not on their number. A value added can be removed again. Two sketches of the same relative error
+ * merge into the sketch of both streams. Not thread safe.
+ */
+public class QuantileSketch {
+
+    private final double relativeError;
+    private final double gamma;
+    private final double logGamma;
+    private final Buckets positives;
+    private final Buckets negatives;
+    private long zeroCount;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public QuantileSketch(double relativeError) {
+
+        if (relativeError <= 0 || relativeError >= 1) {
+            throw new IllegalArgumentException("The relative error must be between 0 and 1.");
+        }
+
+        this.relativeError = relativeError;
+        this.gamma = (1 + relativeError) / (1 - relativeError);
+        this.logGamma = Math.log(gamma);
+        this.positives = new Buckets();
+        this.negatives = new Buckets();
+    }
+
+    public void add(long value) {
+
+        if (value > 0) {
+            positives.add(bucketOf(value), 1);
+        } else if (value < 0) {
+            negatives.add(bucketOf(-(double) value), 1);
+        } else {
+            zeroCount++;
+        }
+
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Takes out a value added before. The smallest and largest values stay the ones ever added, so the
+     * quantiles are only clamped to a wider range.
+     */
+    public void remove(long value) {
+
+        if (value > 0) {
+            positives.add(bucketOf(value), -1);
+        } else if (value < 0) {
+            negatives.add(bucketOf(-(double) value), -1);
+        } else {
+            zeroCount--;
+        }
+
+        count--;
+    }
+
+    public void merge(QuantileSketch other) {
+
+        if (other.relativeError != relativeError) {
+            throw new IllegalArgumentException("Only sketches of the same relative error can be merged.");
+        }
+
+        positives.addAll(other.positives);
+        negatives.addAll(other.negatives);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * The value of the quantile, between 0 and 1, as the value of rank quantile * (count - 1) in ascending
+     * order. The sketch must not be empty.
+     */
+    public long getQuantile(double quantile) {
+
+        if (count == 0) {
+            throw new IllegalStateException("The sketch is empty.");
+        }
+
+        long rank = (long) Math.floor(quantile * (count - 1));
+        long seen = 0;
+        double value = 0;
+        boolean found = false;
+
+        // the most negative values are in the highest buckets of the negatives
+        for (int i = negatives.counts.length - 1; i >= 0 && !found; i--) {
+            seen += negatives.counts[i];
+            if (seen > rank) {
+                value = -valueOf(negatives.offset + i);
+                found = true;
+            }
+        }
+
+        seen += zeroCount;
+        if (!found && seen > rank) {
+            value = 0;
+            found = true;
+        }
+
+        for (int i = 0; i < positives.counts.length && !found; i++) {
+            seen += positives.counts[i];
+            if (seen > rank) {
+                value = valueOf(positives.offset + i);
+                found = true;
+            }
+        }
+
+        return Math.max(min, Math.min(max, Math.round(value)));
+    }
+
+    public long getCount() {
+
+        return count;
+    }
+
+    public double getRelativeError() {
+
+        return relativeError;
+    }
+
+    /**
+     * Bucket i holds the magnitudes in (gamma^(i - 1), gamma^i].
+     */
+    private int bucketOf(double magnitude) {
+
+        return (int) Math.ceil(Math.log(magnitude) / logGamma);
+    }
+
+    /**
+     * The value of bucket i that is within the relative error of every magnitude in it.
+     */
+    private double valueOf(int bucket) {
+
+        return 2 * Math.exp(bucket * logGamma) / (1 + gamma);
+    }
+
+    /**
+     * Counts of a contiguous range of buckets, counts[i] being the count of bucket offset + i.
+     */
+    private static final class Buckets {
+
+        private long[] counts = new long[0];
+        private int offset;
+
+        void add(int bucket, long bucketCount) {
+
+            if (counts.length == 0) {
+                counts = new long[1];
+                offset = bucket;
+
+            } else if (bucket < offset) {
+                long[] grown = new long[counts.length + offset - bucket];
+                System.arraycopy(counts, 0, grown, offset - bucket, counts.length);
+                counts = grown;
+                offset = bucket;
+
+            } else if (bucket >= offset + counts.length) {
+                counts = Arrays.copyOf(counts, bucket - offset + 1);
+            }
+
+            counts[bucket - offset] += bucketCount;
+        }
+
+        void addAll(Buckets other) {
+
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+    }
+}
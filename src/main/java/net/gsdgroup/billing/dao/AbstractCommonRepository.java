@@ -1,49 +1,170 @@
 package net.gsdgroup.billing.dao;
 
-import org.hibernate.Session;
+import net.gsdgroup.billing.entity.ShardKeyed;
 import org.hibernate.SessionFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.persistence.EntityManager;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
- * Base repository for all concrete repositories.
+ * Base repository for all concrete repositories. Work on a single account, found by id, runs on the shard of
+ * that account; the methods over all the entities gather the results of every shard.
  * @param <TEntity>
  */
 public abstract class AbstractCommonRepository<TEntity> {
 
     @Autowired
     protected SessionFactory factory;
+    @Autowired
+    protected ShardMapping shardMapping;
+    @Autowired
+    protected ShardExecutor shardExecutor;
 
+    /**
+     * Saves the entity on the shard of its account. A new account is first placed in a bucket, on the shard
+     * the transaction is bound to if any.
+     */
     public int add(TEntity entity) {
 
-        return (int) factory.getCurrentSession().save(entity);
+        if (!(entity instanceof ShardKeyed) || ((ShardKeyed) entity).getShardKey() != 0) {
+
+            bindShardOf(entity);
+            return (int) factory.getCurrentSession().save(entity);
+        }
+
+        Integer boundShard = ShardContext.getBoundShard();
+        int bucket = boundShard == null ? shardMapping.nextBucket() : shardMapping.nextBucket(boundShard);
+        ShardContext.bind(shardMapping.shardOfBucket(bucket));
+        ShardContext.setNewAccountBucket(bucket);
+
+        try {
+            return (int) factory.getCurrentSession().save(entity);
+
+        } finally {
+            ShardContext.setNewAccountBucket(null);
+        }
     }
 
     public void delete(TEntity entity) {
 
+        bindShardOf(entity);
         factory.getCurrentSession().delete(entity);
     }
 
     public void update(TEntity entity) {
 
+        bindShardOf(entity);
         factory.getCurrentSession().update(entity);
     }
 
+    /**
+     * Returns an uninitialized proxy for the entity, without going to the database.
+     */
+    public TEntity getReference(Class<TEntity> type, int id) {
+
+        bindShardOf(type, id);
+        return factory.getCurrentSession().load(type, id);
+    }
+
+    /**
+     * Returns the stored version of a versioned entity without loading it, or null when it does not exist.
+     */
+    public Integer getVersion(Class<TEntity> type, int id) {
+
+        bindShardOf(type, id);
+
+        List<Integer> versions = factory.getCurrentSession()
+                .createQuery("SELECT e.version FROM " + type.getName() + " e WHERE e.id = :id", Integer.class)
+                .setParameter("id", id)
+                .getResultList();
+
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    /**
+     * Returns the ids from the given ones that belong to an existing entity, in a single query.
+     * All the ids must be on the same shard.
+     */
+    public Set<Integer> getExistingIds(Class<TEntity> type, Collection<Integer> ids) {
+
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        for (int id : ids) {
+            bindShardOf(type, id);
+        }
+
+        String query = "SELECT e.id FROM " + type.getName() + " e WHERE e.id IN (:ids)";
+
+        return new HashSet<>(factory.getCurrentSession().createQuery(query, Integer.class)
+                .setParameterList("ids", ids)
+                .getResultList());
+    }
+
+    /**
+     * Sends the pending statements to the database and detaches everything, so a long write keeps
+     * a persistence context of constant size.
+     */
+    public void flushAndClear() {
+
+        factory.getCurrentSession().flush();
+        factory.getCurrentSession().clear();
+    }
+
     public TEntity getById(Class<TEntity> type,int id) {
 
+        bindShardOf(type, id);
         return factory.getCurrentSession().get(type,id);
     }
 
+    /**
+     * Loads all the entities of every shard ordered by id. With several shards the entities are loaded in the
+     * shards' own sessions, so they come back detached.
+     */
     public List<TEntity> getAll(Class<TEntity> type) {
 
+        return shardExecutor.gather(shard -> getAllOnShard(type), byId());
+    }
+
+    private List<TEntity> getAllOnShard(Class<TEntity> type) {
+
         CriteriaBuilder builder = factory.getCurrentSession().getCriteriaBuilder();
         CriteriaQuery<TEntity> criteria = builder.createQuery(type);
-        criteria.from(type);
-        List<TEntity> list = factory.getCurrentSession().createQuery(criteria).getResultList();
-        return list;
+        Root<TEntity> root = criteria.from(type);
+        criteria.orderBy(builder.asc(root.get("id")));
+
+        return factory.getCurrentSession().createQuery(criteria).getResultList();
+    }
+
+    /**
+     * Binds the transaction to the shard holding the id, when the entity type is sharded.
+     */
+    protected void bindShardOf(Class<?> type, int id) {
+
+        if (ShardKeyed.class.isAssignableFrom(type)) {
+            ShardContext.bind(shardMapping.shardOf(id));
+        }
+    }
+
+    protected void bindShardOf(TEntity entity) {
+
+        if (entity instanceof ShardKeyed) {
+            ShardContext.bind(shardMapping.shardOf(((ShardKeyed) entity).getShardKey()));
+        }
+    }
+
+    private Comparator<TEntity> byId() {
+
+        return Comparator.comparing(entity -> (Integer) factory.getPersistenceUnitUtil().getIdentifier(entity));
     }
 }
@@ -1,37 +1,221 @@
 package net.gsdgroup.billing.dao;
 
 import net.gsdgroup.billing.entity.Account;
-import org.springframework.beans.factory.annotation.Autowired;
+import net.gsdgroup.billing.entity.CacheRegions;
+import net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.jpa.QueryHints;
 import org.springframework.stereotype.Repository;
 
-import javax.persistence.EntityManager;
-import javax.persistence.NoResultException;
-import javax.transaction.Transactional;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.stream.Collectors;
 
 @Repository
 public class AccountRepository extends AbstractCommonRepository<Account> {
 
-    public List<Account> getAccountsWithOverdueBills(){
+    /**
+     * Select clause that projects an account, a bill and a charge into one flat row. The query using it
+     * must name the aliases ac, b and bc.
+     */
+    public static final String ACCOUNT_ROW_SELECT = "SELECT NEW " +
+            "net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO " +
+            "(ac.id, ac.version, ac.firstName, ac.lastName, b.id, b.version, b.issueDate, b.dueDate, " +
+            "bc.id, bc.chargeType, bc.amount, bc.tax) ";
 
-        StringBuilder query = new StringBuilder("SELECT DISTINCT ac " +
+    /**
+     * Orders the rows of several shards by account. The rows of one account all come from one shard and
+     * the sort is stable, so they keep their order by bill and charge.
+     */
+    public static final Comparator<AccountRowDTO> BY_ACCOUNT = Comparator.comparingInt(AccountRowDTO::getAccountId);
+
+    /**
+     * Rows of every account with all its bills and charges, ordered by account, bill and charge.
+     */
+    public List<AccountRowDTO> getAccountRows(){
+
+        return shardExecutor.gather(shard -> getAccountRowsOnShard(), BY_ACCOUNT);
+    }
+
+    private List<AccountRowDTO> getAccountRowsOnShard(){
+
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
+                "FROM Account ac " +
+                "LEFT JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "ORDER BY ac.id, b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .getResultList();
+    }
+
+    /**
+     * Rows of the accounts with an id greater than afterId, at most limit accounts. The page of ids is
+     * found first, over all the shards, so the limit applies to accounts and not to rows.
+     */
+    public List<AccountRowDTO> getAccountRowsPage(int afterId, int limit){
+
+        List<Integer> accountIds = shardExecutor.gather(shard -> factory.getCurrentSession()
+                .createQuery("SELECT ac.id FROM Account ac WHERE ac.id > :afterId ORDER BY ac.id", Integer.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList(), Comparator.naturalOrder());
+
+        List<Integer> pageIds = accountIds.size() > limit ? accountIds.subList(0, limit) : accountIds;
+
+        return shardExecutor.gather(shard -> getAccountRowsOnShard(pageIds.stream()
+                .filter(id -> shardMapping.shardOf(id) == shard)
+                .collect(Collectors.toList())), BY_ACCOUNT);
+    }
+
+    private List<AccountRowDTO> getAccountRowsOnShard(List<Integer> accountIds){
+
+        if(accountIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
+                "FROM Account ac " +
+                "LEFT JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE ac.id IN (:accountIds) " +
+                "ORDER BY ac.id, b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .setParameterList("accountIds", accountIds)
+                .getResultList();
+    }
+
+    /**
+     * Rows of one account with all its bills and charges. Empty when the account does not exist.
+     */
+    public List<AccountRowDTO> getAccountRowsById(int id){
+
+        bindShardOf(Account.class, id);
+
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
+                "FROM Account ac " +
+                "LEFT JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE ac.id = :id " +
+                "ORDER BY b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .setParameter("id", id)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
+                .getResultList();
+    }
+
+    /**
+     * Rows of the accounts with overdue bills. Only the overdue bills of each account are returned.
+     */
+    public List<AccountRowDTO> getOverdueAccountRows(){
+
+        return shardExecutor.gather(this::getOverdueAccountRowsOnShard, BY_ACCOUNT);
+    }
+
+    private List<AccountRowDTO> getOverdueAccountRowsOnShard(int shard){
+
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
                 "FROM Account ac " +
-                "LEFT JOIN FETCH ac.bills b " +
-                "WHERE b.dueDate < CURRENT_DATE");
+                "JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE b.dueDate < CURRENT_DATE " +
+                "ORDER BY ac.id, b.id, bc.id");
 
-        return factory.createEntityManager()
-                .createQuery(query.toString(),Account.class)
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
+                .setHint(QueryHints.HINT_CACHE_REGION, CacheRegions.shardQueryResults(shard))
                 .getResultList();
     }
 
-    public Account getById(int id){
+    /**
+     * Cursor over the rows of the accounts of the current shard with all their bills and charges, ordered by
+     * account, bill and charge, so the rows of an account are next to each other.
+     */
+    public ScrollableResults scrollAccountRows(int fetchSize){
+
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
+                "FROM Account ac " +
+                "LEFT JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "ORDER BY ac.id, b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Cursor over the rows of the accounts with overdue bills of the current shard, as in getOverdueAccountRows.
+     * Only the overdue bills of each account are returned, and the rows of an account are next to each other.
+     */
+    public ScrollableResults scrollOverdueAccountRows(int fetchSize){
 
-        StringBuilder query = new StringBuilder("SELECT ac " +
+        StringBuilder query = new StringBuilder(ACCOUNT_ROW_SELECT +
                 "FROM Account ac " +
-                "LEFT JOIN FETCH ac.bills " +
-                "WHERE ac.id = :id");
+                "JOIN ac.bills b " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE b.dueDate < CURRENT_DATE " +
+                "ORDER BY ac.id, b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(),AccountRowDTO.class)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Id, first name and last name of each of the accounts, without their bills. All the accounts must be on
+     * the same shard.
+     */
+    public List<Object[]> getAccountNames(Collection<Integer> accountIds){
+
+        if(accountIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        for (int accountId : accountIds){
+            bindShardOf(Account.class, accountId);
+        }
+
+        return factory.getCurrentSession()
+                .createQuery("SELECT ac.id, ac.firstName, ac.lastName FROM Account ac WHERE ac.id IN (:accountIds)",
+                        Object[].class)
+                .setParameterList("accountIds", accountIds)
+                .getResultList();
+    }
+
+    /**
+     * Deletes the account with its bills and charges in three set-based statements, without loading any of
+     * them. Returns the number of accounts deleted, 0 when it does not exist.
+     */
+    public int deleteWithBills(int accountId){
+
+        bindShardOf(Account.class, accountId);
+
+        factory.getCurrentSession()
+                .createQuery("DELETE FROM BillCharge bc " +
+                        "WHERE bc.bill.id IN (SELECT b.id FROM Bill b WHERE b.account.id = :accountId)")
+                .setParameter("accountId", accountId)
+                .executeUpdate();
+
+        factory.getCurrentSession()
+                .createQuery("DELETE FROM Bill b WHERE b.account.id = :accountId")
+                .setParameter("accountId", accountId)
+                .executeUpdate();
 
-        return factory.createEntityManager().createQuery(query.toString(),Account.class)
-                    .setParameter("id", id).getSingleResult();
+        return factory.getCurrentSession()
+                .createQuery("DELETE FROM Account ac WHERE ac.id = :accountId")
+                .setParameter("accountId", accountId)
+                .executeUpdate();
     }
 }
@@ -1,25 +1,445 @@
 package net.gsdgroup.billing.dao;
 
+import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
-import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
+import net.gsdgroup.billing.entity.MonthlyRevenue;
+import net.gsdgroup.billing.webservice.accountDTO.AccountRowDTO;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Repository
 public class BillRepository extends AbstractCommonRepository<Bill> {
 
-    public List<MonthlyAmountDTO> getTotalChargedEachMonth(){
+    /**
+     * Orders the rows of several shards by bill, keeping the order of the charges of each bill.
+     */
+    public static final Comparator<AccountRowDTO> BY_BILL = Comparator.comparingInt(AccountRowDTO::getBillId);
+
+    /**
+     * Rows of every bill with its account and charges, ordered by bill and charge.
+     */
+    public List<AccountRowDTO> getBillRows(){
+
+        return shardExecutor.gather(shard -> getBillRowsOnShard(), BY_BILL);
+    }
+
+    private List<AccountRowDTO> getBillRowsOnShard(){
+
+        StringBuilder query = new StringBuilder(AccountRepository.ACCOUNT_ROW_SELECT +
+                "FROM Bill b " +
+                "JOIN b.account ac " +
+                "LEFT JOIN b.billCharges bc " +
+                "ORDER BY b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), AccountRowDTO.class)
+                .getResultList();
+    }
+
+    /**
+     * Cursor over the rows of the bills of the current shard with their account and charges, ordered by bill and
+     * charge, so the rows of a bill are next to each other.
+     */
+    public ScrollableResults scrollBillRows(int fetchSize){
+
+        StringBuilder query = new StringBuilder(AccountRepository.ACCOUNT_ROW_SELECT +
+                "FROM Bill b " +
+                "JOIN b.account ac " +
+                "LEFT JOIN b.billCharges bc " +
+                "ORDER BY b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), AccountRowDTO.class)
+                .setFetchSize(fetchSize)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Rows of the bills with an id greater than afterId, at most limit bills. The page of ids is
+     * found first, over all the shards, so the limit applies to bills and not to rows.
+     */
+    public List<AccountRowDTO> getBillRowsPage(int afterId, int limit){
+
+        List<Integer> billIds = shardExecutor.gather(shard -> factory.getCurrentSession()
+                .createQuery("SELECT b.id FROM Bill b WHERE b.id > :afterId ORDER BY b.id", Integer.class)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList(), Comparator.naturalOrder());
+
+        List<Integer> pageIds = billIds.size() > limit ? billIds.subList(0, limit) : billIds;
+
+        return shardExecutor.gather(shard -> getBillRowsOnShard(pageIds.stream()
+                .filter(id -> shardMapping.shardOf(id) == shard)
+                .collect(Collectors.toList())), BY_BILL);
+    }
+
+    private List<AccountRowDTO> getBillRowsOnShard(List<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        StringBuilder query = new StringBuilder(AccountRepository.ACCOUNT_ROW_SELECT +
+                "FROM Bill b " +
+                "JOIN b.account ac " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE b.id IN (:billIds) " +
+                "ORDER BY b.id, bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), AccountRowDTO.class)
+                .setParameterList("billIds", billIds)
+                .getResultList();
+    }
+
+    /**
+     * Rows of one bill with its account and charges. Empty when the bill does not exist.
+     */
+    public List<AccountRowDTO> getBillRowsById(int id){
+
+        bindShardOf(Bill.class, id);
+
+        StringBuilder query = new StringBuilder(AccountRepository.ACCOUNT_ROW_SELECT +
+                "FROM Bill b " +
+                "JOIN b.account ac " +
+                "LEFT JOIN b.billCharges bc " +
+                "WHERE b.id = :id " +
+                "ORDER BY bc.id");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), AccountRowDTO.class)
+                .setParameter("id", id)
+                .getResultList();
+    }
+
+    /**
+     * The charges of the bill as stored in the database, totalled for the month the bill was issued in.
+     */
+    public List<MonthlyRevenue> getMonthlyTotalsOfBill(int billId){
+
+        bindShardOf(Bill.class, billId);
 
         StringBuilder query = new StringBuilder("SELECT NEW " +
-                "net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO (SUM(bc.amount+bc.tax), MONTHNAME(b.issueDate))" +
+                "net.gsdgroup.billing.entity.MonthlyRevenue " +
+                "(YEAR(b.issueDate), MONTH(b.issueDate), SUM(bc.amount+bc.tax), COUNT(bc.id)) " +
+                "FROM BillCharge bc " +
+                "JOIN bc.bill b " +
+                "WHERE b.id = :billId " +
+                "GROUP BY YEAR(b.issueDate), MONTH(b.issueDate)");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), MonthlyRevenue.class)
+                .setParameter("billId", billId)
+                .getResultList();
+    }
+
+    /**
+     * The charges of all the bills of the account as stored in the database, totalled per month.
+     */
+    public List<MonthlyRevenue> getMonthlyTotalsOfAccount(int accountId){
+
+        bindShardOf(Account.class, accountId);
+
+        StringBuilder query = new StringBuilder("SELECT NEW " +
+                "net.gsdgroup.billing.entity.MonthlyRevenue " +
+                "(YEAR(b.issueDate), MONTH(b.issueDate), SUM(bc.amount+bc.tax), COUNT(bc.id)) " +
+                "FROM BillCharge bc " +
+                "JOIN bc.bill b " +
+                "WHERE b.account.id = :accountId " +
+                "GROUP BY YEAR(b.issueDate), MONTH(b.issueDate)");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), MonthlyRevenue.class)
+                .setParameter("accountId", accountId)
+                .getResultList();
+    }
+
+    /**
+     * The charges of the bills as stored in the database, totalled per month. All the bills must be on the
+     * same shard.
+     */
+    public List<MonthlyRevenue> getMonthlyTotalsOfBills(Collection<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        StringBuilder query = new StringBuilder("SELECT NEW " +
+                "net.gsdgroup.billing.entity.MonthlyRevenue " +
+                "(YEAR(b.issueDate), MONTH(b.issueDate), SUM(bc.amount+bc.tax), COUNT(bc.id)) " +
+                "FROM BillCharge bc " +
+                "JOIN bc.bill b " +
+                "WHERE b.id IN (:billIds) " +
+                "GROUP BY YEAR(b.issueDate), MONTH(b.issueDate)");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), MonthlyRevenue.class)
+                .setParameterList("billIds", billIds)
+                .getResultList();
+    }
+
+    /**
+     * Select of the charges totalled per issue date and charge type: issue date, charge type, amount, tax and
+     * number of charges.
+     */
+    private static final String DAILY_TOTALS_SELECT = "SELECT b.issueDate, bc.chargeType, " +
+            "SUM(bc.amount), SUM(bc.tax), COUNT(bc.id) " +
+            "FROM BillCharge bc " +
+            "JOIN bc.bill b ";
+
+    private static final String DAILY_TOTALS_GROUP_BY = "GROUP BY b.issueDate, bc.chargeType";
+
+    /**
+     * The charges of the bill as stored in the database, totalled per issue date and charge type.
+     */
+    public List<Object[]> getDailyTotalsOfBill(int billId){
+
+        bindShardOf(Bill.class, billId);
+
+        return factory.getCurrentSession()
+                .createQuery(DAILY_TOTALS_SELECT + "WHERE b.id = :billId " + DAILY_TOTALS_GROUP_BY, Object[].class)
+                .setParameter("billId", billId)
+                .getResultList();
+    }
+
+    /**
+     * The charges of all the bills of the account as stored in the database, totalled per issue date and
+     * charge type.
+     */
+    public List<Object[]> getDailyTotalsOfAccount(int accountId){
+
+        bindShardOf(Account.class, accountId);
+
+        return factory.getCurrentSession()
+                .createQuery(DAILY_TOTALS_SELECT + "WHERE b.account.id = :accountId " + DAILY_TOTALS_GROUP_BY,
+                        Object[].class)
+                .setParameter("accountId", accountId)
+                .getResultList();
+    }
+
+    /**
+     * The charges of the bills as stored in the database, totalled per issue date and charge type. All the
+     * bills must be on the same shard.
+     */
+    public List<Object[]> getDailyTotalsOfBills(Collection<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        return factory.getCurrentSession()
+                .createQuery(DAILY_TOTALS_SELECT + "WHERE b.id IN (:billIds) " + DAILY_TOTALS_GROUP_BY, Object[].class)
+                .setParameterList("billIds", billIds)
+                .getResultList();
+    }
+
+    /**
+     * All the charges of the current shard, totalled per issue date and charge type.
+     */
+    public List<Object[]> getDailyTotals(){
+
+        return factory.getCurrentSession()
+                .createQuery(DAILY_TOTALS_SELECT + DAILY_TOTALS_GROUP_BY, Object[].class)
+                .getResultList();
+    }
+
+    private static final String CHARGE_ROWS_SELECT = "SELECT b.id, b.account.id, b.issueDate, b.dueDate, " +
+            "bc.chargeType, bc.amount, bc.tax " +
+            "FROM Bill b " +
+            "LEFT JOIN b.billCharges bc ";
+
+    private static final String CHARGE_ROWS_ORDER_BY = "ORDER BY b.id, bc.id";
+
+    /**
+     * The charges of the bills as stored in the database, with the columns of their bill as in scrollChargeRows
+     * and the rows of a bill next to each other. A bill without charges has one row with null charge columns.
+     * All the bills must be on the same shard.
+     */
+    public List<Object[]> getChargeRowsOfBills(Collection<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return Collections.emptyList();
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        return factory.getCurrentSession()
+                .createQuery(CHARGE_ROWS_SELECT + "WHERE b.id IN (:billIds) " + CHARGE_ROWS_ORDER_BY, Object[].class)
+                .setParameterList("billIds", billIds)
+                .getResultList();
+    }
+
+    /**
+     * The charges of all the bills of an account as stored in the database, as in getChargeRowsOfBills.
+     */
+    public List<Object[]> getChargeRowsOfAccount(int accountId){
+
+        bindShardOf(Account.class, accountId);
+
+        return factory.getCurrentSession()
+                .createQuery(CHARGE_ROWS_SELECT + "WHERE b.account.id = :accountId " + CHARGE_ROWS_ORDER_BY,
+                        Object[].class)
+                .setParameter("accountId", accountId)
+                .getResultList();
+    }
+
+    /**
+     * Cursor over the charges of the current shard with the columns of their bill: bill id, account id, issue
+     * date, due date, charge type, amount and tax. The rows of a bill are next to each other.
+     */
+    public ScrollableResults scrollChargeRows(int fetchSize){
+
+        StringBuilder query = new StringBuilder("SELECT b.id, b.account.id, b.issueDate, b.dueDate, " +
+                "bc.chargeType, bc.amount, bc.tax " +
                 "FROM BillCharge bc " +
                 "JOIN bc.bill b " +
-                "GROUP BY MONTH(b.issueDate)");
+                "ORDER BY b.id, bc.id");
 
-        List<MonthlyAmountDTO> result = factory.createEntityManager()
-                .createQuery(query.toString(),MonthlyAmountDTO.class)
+        return factory.getCurrentSession()
+                .createQuery(query.toString())
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Cursor over the bills of the current shard: bill id, account id, due date and the total of the charges
+     * (amount + tax), null for a bill without charges.
+     */
+    public ScrollableResults scrollBillDueDates(int fetchSize){
+
+        StringBuilder query = new StringBuilder("SELECT b.id, b.account.id, b.dueDate, SUM(bc.amount + bc.tax) " +
+                "FROM Bill b " +
+                "LEFT JOIN b.billCharges bc " +
+                "GROUP BY b.id, b.account.id, b.dueDate");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString())
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Due dates of the bills, by bill id, as stored in the database. All the bills must be on the same shard.
+     */
+    public Map<Integer, Date> getDueDates(Collection<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return Collections.emptyMap();
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        Map<Integer, Date> dueDates = new HashMap<>();
+
+        for (Object[] row : factory.getCurrentSession()
+                .createQuery("SELECT b.id, b.dueDate FROM Bill b WHERE b.id IN (:billIds)", Object[].class)
+                .setParameterList("billIds", billIds)
+                .getResultList()){
+            dueDates.put((Integer) row[0], (Date) row[1]);
+        }
+
+        return dueDates;
+    }
+
+    /**
+     * Ids of the bills of the current shard issued before the date, the first limit of them by id.
+     */
+    public List<Integer> getBillIdsIssuedBefore(Date before, int limit){
+
+        return factory.getCurrentSession()
+                .createQuery("SELECT b.id FROM Bill b WHERE b.issueDate < :before ORDER BY b.id", Integer.class)
+                .setParameter("before", before)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * Ids of the bills of the account with an id greater than afterId, the first limit of them by id.
+     */
+    public List<Integer> getBillIdsOfAccount(int accountId, int afterId, int limit){
+
+        bindShardOf(Account.class, accountId);
+
+        return factory.getCurrentSession()
+                .createQuery("SELECT b.id FROM Bill b " +
+                        "WHERE b.account.id = :accountId AND b.id > :afterId " +
+                        "ORDER BY b.id", Integer.class)
+                .setParameter("accountId", accountId)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
                 .getResultList();
-        return result;
+    }
+
+    /**
+     * Deletes the bills with their charges in two set-based statements, without loading them. All the bills
+     * must be on the same shard. Returns the number of bills deleted.
+     */
+    public int deleteByIds(Collection<Integer> billIds){
+
+        if(billIds.isEmpty()){
+            return 0;
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        factory.getCurrentSession()
+                .createQuery("DELETE FROM BillCharge bc WHERE bc.bill.id IN (:billIds)")
+                .setParameterList("billIds", billIds)
+                .executeUpdate();
+
+        return factory.getCurrentSession()
+                .createQuery("DELETE FROM Bill b WHERE b.id IN (:billIds)")
+                .setParameterList("billIds", billIds)
+                .executeUpdate();
+    }
+
+    /**
+     * Moves the due date of the bills by the given number of days, in one statement, and increments their
+     * version so an update carrying a version read before the shift is rejected. All the bills must be on the
+     * same shard. Returns the number of bills updated.
+     */
+    public int shiftDueDates(Collection<Integer> billIds, int days){
+
+        if(billIds.isEmpty()){
+            return 0;
+        }
+
+        for (int billId : billIds){
+            bindShardOf(Bill.class, billId);
+        }
+
+        return factory.getCurrentSession()
+                .createNativeQuery("UPDATE bill SET due_date = TIMESTAMPADD(DAY, :days, due_date), " +
+                        "version = version + 1 WHERE id IN (:billIds)")
+                .addSynchronizedEntityClass(Bill.class)
+                .setParameter("days", days)
+                .setParameterList("billIds", billIds)
+                .executeUpdate();
     }
 }
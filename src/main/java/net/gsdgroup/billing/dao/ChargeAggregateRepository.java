@@ -0,0 +1,418 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.webservice.analysisDTO.GroupByRowDTO;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates over the bill charges compiled from a GroupByQuery into one JPQL statement: the dimensions are
+ * selected and grouped by, the filters become range and IN conditions on the bill columns, so the indexes on
+ * issue_date, due_date and account_id can be used, and every value is bound as a parameter. The compiled text
+ * is kept per shape of query, which also lets Hibernate reuse its parsed plan.
+ */
+@Repository
+public class ChargeAggregateRepository extends AbstractCommonRepository<BillCharge> {
+
+    /**
+     * Totals of the charges per aging band, then the number of overdue bills.
+     */
+    private static final String AGING_MEASURES =
+            "SUM(CASE WHEN b.dueDate >= :day30 THEN bc.amount + bc.tax ELSE 0 END), " +
+            "SUM(CASE WHEN b.dueDate < :day30 AND b.dueDate >= :day60 THEN bc.amount + bc.tax ELSE 0 END), " +
+            "SUM(CASE WHEN b.dueDate < :day60 AND b.dueDate >= :day90 THEN bc.amount + bc.tax ELSE 0 END), " +
+            "SUM(CASE WHEN b.dueDate < :day90 THEN bc.amount + bc.tax ELSE 0 END), " +
+            "COUNT(DISTINCT b.id)";
+
+    private static final String AGING_FROM = " FROM BillCharge bc " +
+            "JOIN bc.bill b " +
+            "WHERE b.dueDate < :today ";
+
+    private final ConcurrentMap<String, String> compiledQueries = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the query on the shards it concerns, only those of the given accounts when it is filtered by
+     * account, and adds up the groups of the shards. The groups are ordered by their dimensions.
+     */
+    public List<GroupByRowDTO> groupBy(GroupByQuery query){
+
+        String compiledQuery = compiledQueries.computeIfAbsent(query.getShape(), shape -> compile(query));
+        List<List<Object[]>> shardRows;
+
+        if(query.getAccountIds() == null){
+            shardRows = shardExecutor.onEachShard(shard -> groupByOnShard(compiledQuery, query, null));
+
+        } else {
+            Map<Integer, List<Integer>> accountIdsByShard = new TreeMap<>();
+
+            for (int accountId : query.getAccountIds()){
+                accountIdsByShard.computeIfAbsent(shardMapping.shardOf(accountId), shard -> new ArrayList<>())
+                        .add(accountId);
+            }
+
+            if(accountIdsByShard.isEmpty()){
+                return Collections.emptyList();
+            }
+
+            shardRows = shardExecutor.onShards(accountIdsByShard.keySet(),
+                    shard -> groupByOnShard(compiledQuery, query, accountIdsByShard.get(shard)));
+        }
+
+        return merge(query, shardRows);
+    }
+
+    /**
+     * Number of query shapes compiled so far.
+     */
+    public int getCompiledQueryCount(){
+
+        return compiledQueries.size();
+    }
+
+    private List<Object[]> groupByOnShard(String compiledQuery, GroupByQuery query, Collection<Integer> accountIds){
+
+        Query<?> shardQuery = factory.getCurrentSession().createQuery(compiledQuery);
+        bindFilters(shardQuery, query, accountIds);
+
+        List<Object[]> rows = new ArrayList<>();
+
+        // a single selected column comes back as a scalar
+        for (Object result : shardQuery.getResultList()){
+            rows.add(result instanceof Object[] ? (Object[]) result : new Object[]{ result });
+        }
+        return rows;
+    }
+
+    /**
+     * Cursor over the accounts of the current shard with the charges passing the filters of the query, each
+     * with the total of its charges (amount + tax) and their number. The dimensions and measures of the
+     * query are not used. The rows come from the database fetchSize at a time.
+     */
+    public ScrollableResults scrollAccountTotals(GroupByQuery query, int fetchSize){
+
+        StringBuilder accountQuery = new StringBuilder("SELECT b.account.id, SUM(bc.amount + bc.tax), COUNT(bc.id) " +
+                "FROM BillCharge bc " +
+                "JOIN bc.bill b");
+
+        appendConditions(accountQuery, query);
+        accountQuery.append(" GROUP BY b.account.id");
+
+        Query<?> shardQuery = factory.getCurrentSession().createQuery(accountQuery.toString());
+        bindFilters(shardQuery, query, query.getAccountIds());
+
+        return shardQuery
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Aging of the overdue charges of every account with overdue bills, the accounts with an id greater than
+     * afterId, at most limit of them in id order. Each row holds the account id, the total (amount + tax) of
+     * the charges of the bills 0-30, 31-60, 61-90 and more than 90 days overdue on the given day, and the
+     * number of overdue bills.
+     */
+    public List<Object[]> getAgingPage(Date today, int afterId, int limit){
+
+        List<Object[]> rows = new ArrayList<>();
+
+        for (List<Object[]> shardRows :
+                shardExecutor.onEachShard(shard -> getAgingPageOnShard(today, afterId, limit))) {
+            rows.addAll(shardRows);
+        }
+
+        rows.sort(Comparator.comparingInt(row -> (Integer) row[0]));
+        return rows.size() > limit ? new ArrayList<>(rows.subList(0, limit)) : rows;
+    }
+
+    private List<Object[]> getAgingPageOnShard(Date today, int afterId, int limit){
+
+        Query<Object[]> shardQuery = factory.getCurrentSession()
+                .createQuery("SELECT b.account.id, " + AGING_MEASURES + AGING_FROM +
+                        "AND b.account.id > :afterId " +
+                        "GROUP BY b.account.id " +
+                        "ORDER BY b.account.id", Object[].class);
+        bindAgingBounds(shardQuery, today);
+
+        return shardQuery
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * The same aging as getAgingPage over all the accounts of every shard: the totals of the four bands, the
+     * number of overdue bills and the number of accounts that have some.
+     */
+    public long[] getAgingTotals(Date today){
+
+        long[] totals = new long[6];
+
+        for (Object[] row : shardExecutor.onEachShard(shard -> getAgingTotalsOnShard(today))) {
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] = Math.addExact(totals[i], row[i] == null ? 0 : ((Number) row[i]).longValue());
+            }
+        }
+        return totals;
+    }
+
+    private Object[] getAgingTotalsOnShard(Date today){
+
+        Query<Object[]> shardQuery = factory.getCurrentSession()
+                .createQuery("SELECT " + AGING_MEASURES + ", COUNT(DISTINCT b.account.id)" + AGING_FROM,
+                        Object[].class);
+        bindAgingBounds(shardQuery, today);
+
+        return shardQuery.getSingleResult();
+    }
+
+    /**
+     * Cursor over the aging of the accounts of the current shard, with the rows of getAgingPage in account id
+     * order. The rows come from the database fetchSize at a time.
+     */
+    public ScrollableResults scrollAging(Date today, int fetchSize){
+
+        Query<?> shardQuery = factory.getCurrentSession()
+                .createQuery("SELECT b.account.id, " + AGING_MEASURES + AGING_FROM +
+                        "GROUP BY b.account.id " +
+                        "ORDER BY b.account.id");
+        bindAgingBounds(shardQuery, today);
+
+        return shardQuery
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY);
+    }
+
+    /**
+     * Binds the start of today and of the days 30, 60 and 90 days before it. A bill due before today is overdue,
+     * by 0-30 days when due on day30 or later.
+     */
+    private static void bindAgingBounds(Query<?> shardQuery, Date today){
+
+        LocalDate day = today.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+
+        shardQuery.setParameter("today", startOf(day))
+                .setParameter("day30", startOf(day.minusDays(30)))
+                .setParameter("day60", startOf(day.minusDays(60)))
+                .setParameter("day90", startOf(day.minusDays(90)));
+    }
+
+    private static Date startOf(LocalDate day){
+
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private String compile(GroupByQuery query){
+
+        List<String> columns = new ArrayList<>();
+
+        for (GroupByDimension dimension : query.getDimensions()){
+            columns.add(dimension.getExpression());
+        }
+
+        String groupBy = String.join(", ", columns);
+
+        if(query.needsAmount()){
+            columns.add("SUM(bc.amount)");
+        }
+        if(query.needsTax()){
+            columns.add("SUM(bc.tax)");
+        }
+        if(query.needsCount()){
+            columns.add("COUNT(bc.id)");
+        }
+
+        StringBuilder compiledQuery = new StringBuilder("SELECT " + String.join(", ", columns) + " " +
+                "FROM BillCharge bc " +
+                "JOIN bc.bill b");
+
+        appendConditions(compiledQuery, query);
+
+        if(!groupBy.isEmpty()){
+            compiledQuery.append(" GROUP BY ").append(groupBy);
+        }
+
+        return compiledQuery.toString();
+    }
+
+    /**
+     * Appends the WHERE clause of the filters that are set, comparing the bill columns with parameters.
+     */
+    private void appendConditions(StringBuilder jpql, GroupByQuery query){
+
+        List<String> conditions = new ArrayList<>();
+
+        if(query.getIssuedFrom() != null){
+            conditions.add("b.issueDate >= :issuedFrom");
+        }
+        if(query.getIssuedBefore() != null){
+            conditions.add("b.issueDate < :issuedBefore");
+        }
+        if(query.getDueFrom() != null){
+            conditions.add("b.dueDate >= :dueFrom");
+        }
+        if(query.getDueBefore() != null){
+            conditions.add("b.dueDate < :dueBefore");
+        }
+        if(query.getAccountIds() != null){
+            conditions.add("b.account.id IN (:accountIds)");
+        }
+
+        if(!conditions.isEmpty()){
+            jpql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+    }
+
+    private void bindFilters(Query<?> shardQuery, GroupByQuery query, Collection<Integer> accountIds){
+
+        if(query.getIssuedFrom() != null){
+            shardQuery.setParameter("issuedFrom", query.getIssuedFrom());
+        }
+        if(query.getIssuedBefore() != null){
+            shardQuery.setParameter("issuedBefore", query.getIssuedBefore());
+        }
+        if(query.getDueFrom() != null){
+            shardQuery.setParameter("dueFrom", query.getDueFrom());
+        }
+        if(query.getDueBefore() != null){
+            shardQuery.setParameter("dueBefore", query.getDueBefore());
+        }
+        if(accountIds != null){
+            shardQuery.setParameterList("accountIds", accountIds);
+        }
+    }
+
+    /**
+     * Adds up the rows of the shards per group, the dimension columns coming first in each row and the
+     * computed columns after them.
+     */
+    private List<GroupByRowDTO> merge(GroupByQuery query, List<List<Object[]>> shardRows){
+
+        int keyColumnCount = 0;
+
+        for (GroupByDimension dimension : query.getDimensions()){
+            keyColumnCount += dimension.getColumnCount();
+        }
+
+        Map<List<Object>, long[]> groups = new HashMap<>();
+
+        for (List<Object[]> rows : shardRows){
+
+            for (Object[] row : rows){
+
+                long[] totals = groups.computeIfAbsent(Arrays.asList(row).subList(0, keyColumnCount),
+                        key -> new long[3]);
+                int column = keyColumnCount;
+
+                if(query.needsAmount()){
+                    totals[0] = Math.addExact(totals[0], sumOf(row[column++]));
+                }
+                if(query.needsTax()){
+                    totals[1] = Math.addExact(totals[1], sumOf(row[column++]));
+                }
+                if(query.needsCount()){
+                    totals[2] += (Long) row[column];
+                }
+            }
+        }
+
+        List<List<Object>> keys = new ArrayList<>(groups.keySet());
+        keys.sort(ChargeAggregateRepository::compareKeys);
+
+        List<GroupByRowDTO> result = new ArrayList<>();
+
+        for (List<Object> key : keys){
+            result.add(buildRow(query, key, groups.get(key)));
+        }
+        return result;
+    }
+
+    /**
+     * A SUM column of a row, null when it adds up no charges, as the single row of a query without dimensions
+     * on a shard without matching charges.
+     */
+    private static long sumOf(Object sum){
+
+        return sum == null ? 0 : (Long) sum;
+    }
+
+    private GroupByRowDTO buildRow(GroupByQuery query, List<Object> key, long[] totals){
+
+        GroupByRowDTO groupByRowDTO = new GroupByRowDTO();
+        int column = 0;
+
+        for (GroupByDimension dimension : query.getDimensions()){
+
+            switch (dimension){
+                case YEAR_MONTH:
+                    groupByRowDTO.setYear((Integer) key.get(column));
+                    groupByRowDTO.setMonth((Integer) key.get(column + 1));
+                    break;
+                case CHARGE_TYPE:
+                    groupByRowDTO.setChargeType((String) key.get(column));
+                    break;
+                case ACCOUNT:
+                    groupByRowDTO.setAccountId((Integer) key.get(column));
+                    break;
+            }
+            column += dimension.getColumnCount();
+        }
+
+        if(query.getMeasures().contains(GroupByMeasure.SUM_AMOUNT)){
+            groupByRowDTO.setAmount(totals[0]);
+        }
+        if(query.getMeasures().contains(GroupByMeasure.SUM_TAX)){
+            groupByRowDTO.setTax(totals[1]);
+        }
+        if(query.getMeasures().contains(GroupByMeasure.COUNT)){
+            groupByRowDTO.setCount(totals[2]);
+        }
+        if(query.getMeasures().contains(GroupByMeasure.AVG_AMOUNT)){
+            groupByRowDTO.setAvgAmount(totals[2] == 0 ? 0 : (double) totals[0] / totals[2]);
+        }
+
+        return groupByRowDTO;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareKeys(List<Object> left, List<Object> right){
+
+        for (int column = 0; column < left.size(); column++){
+
+            Comparable leftValue = (Comparable) left.get(column);
+            Object rightValue = right.get(column);
+
+            if(leftValue == null || rightValue == null){
+                if(leftValue != rightValue){
+                    return leftValue == null ? -1 : 1;
+                }
+                continue;
+            }
+
+            int order = leftValue.compareTo(rightValue);
+
+            if(order != 0){
+                return order;
+            }
+        }
+        return 0;
+    }
+}
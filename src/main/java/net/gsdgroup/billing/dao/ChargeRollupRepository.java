@@ -0,0 +1,112 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.entity.ChargeRollup;
+import net.gsdgroup.billing.entity.RollupLevel;
+import org.hibernate.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@Repository
+public class ChargeRollupRepository extends AbstractCommonRepository<ChargeRollup> {
+
+    /**
+     * Adds the amounts and the charge count to the row of the period and charge type, creating the row if
+     * needed. The update is done in the database so concurrent writers never overwrite each other.
+     *
+     * The row stays locked until the writer's transaction ends, so the writers of the same period and charge
+     * type on a shard take turns on it.
+     */
+    public void addToPeriod(RollupLevel level, int periodStart, String chargeType, long amount, long tax,
+                            long chargeCount){
+
+        StringBuilder query = new StringBuilder("INSERT INTO charge_rollup " +
+                "(period_level, period_start, charge_type, amount, tax, charge_count) " +
+                "VALUES (:level, :periodStart, :chargeType, :amount, :tax, :chargeCount) " +
+                "ON DUPLICATE KEY UPDATE " +
+                "amount = amount + VALUES(amount), " +
+                "tax = tax + VALUES(tax), " +
+                "charge_count = charge_count + VALUES(charge_count)");
+
+        factory.getCurrentSession()
+                .createNativeQuery(query.toString())
+                .addSynchronizedEntityClass(ChargeRollup.class)
+                .setParameter("level", level.name())
+                .setParameter("periodStart", periodStart)
+                .setParameter("chargeType", chargeType)
+                .setParameter("amount", amount)
+                .setParameter("tax", tax)
+                .setParameter("chargeCount", chargeCount)
+                .executeUpdate();
+    }
+
+    /**
+     * The rows of the periods of every shard, given as the start days of the periods of each level, optionally
+     * of one charge type only. A period and charge type has a row per shard that has charges in it.
+     */
+    public List<ChargeRollup> getPeriods(Map<RollupLevel, ? extends Collection<Integer>> periodStarts,
+                                         String chargeType){
+
+        List<ChargeRollup> result = new ArrayList<>();
+
+        if (periodStarts.isEmpty()) {
+            return result;
+        }
+
+        for (List<ChargeRollup> rows :
+                shardExecutor.onEachShard(shard -> getPeriodsOnShard(periodStarts, chargeType))) {
+            result.addAll(rows);
+        }
+        return result;
+    }
+
+    private List<ChargeRollup> getPeriodsOnShard(Map<RollupLevel, ? extends Collection<Integer>> periodStarts,
+                                                 String chargeType){
+
+        StringBuilder query = new StringBuilder("SELECT r FROM ChargeRollup r WHERE (");
+        int index = 0;
+
+        for (RollupLevel level : periodStarts.keySet()) {
+            query.append(index == 0 ? "" : " OR ")
+                    .append("(r.level = :level").append(index)
+                    .append(" AND r.periodStart IN (:periodStarts").append(index).append("))");
+            index++;
+        }
+        query.append(")");
+
+        if (chargeType != null) {
+            query.append(" AND r.chargeType = :chargeType");
+        }
+
+        Query<ChargeRollup> rollupQuery = factory.getCurrentSession()
+                .createQuery(query.toString(), ChargeRollup.class)
+                .setReadOnly(true);
+        index = 0;
+
+        for (Map.Entry<RollupLevel, ? extends Collection<Integer>> levelStarts : periodStarts.entrySet()) {
+            rollupQuery.setParameter("level" + index, levelStarts.getKey());
+            rollupQuery.setParameterList("periodStarts" + index, levelStarts.getValue());
+            index++;
+        }
+
+        if (chargeType != null) {
+            rollupQuery.setParameter("chargeType", chargeType);
+        }
+
+        return rollupQuery.getResultList();
+    }
+
+    /**
+     * Deletes every row of the current shard. Used before the rows are recomputed.
+     */
+    public void deleteAllOnShard(){
+
+        factory.getCurrentSession()
+                .createNativeQuery("DELETE FROM charge_rollup")
+                .addSynchronizedEntityClass(ChargeRollup.class)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,237 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the replica of the embedded H2 database, a database of its own, a copy of the primary. At startup it
+ * is given the schema of the primary; after that every table is copied whole, in one transaction of the
+ * replica, after every committed write, or, with a copy interval, at most once per interval when there are
+ * writes to copy. A paused replicator copies nothing by itself until it is resumed.
+ *
+ * The replica reports its lag in the replica_status table: the time of the first write it has not copied yet,
+ * or null when it is current. Declared in the embedded profile only, after the session factory.
+ */
+public class EmbeddedReplicator implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = Logger.getLogger(EmbeddedReplicator.class.getName());
+
+    private DataSource primary;
+    private DataSource replica;
+    private ReplicaRoutingDataSource routingDataSource;
+    private long copyIntervalMillis;
+
+    private Timestamp behindSince;
+    private boolean paused;
+
+    private ScheduledExecutorService copier;
+
+    @Override
+    public void afterPropertiesSet() throws SQLException, IOException {
+
+        ShardSchemaCreator.copySchema(primary, replica);
+
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement()) {
+
+            connection.setReadOnly(false);
+            // the rows are copied table by table, in no particular order
+            statement.execute("SET REFERENTIAL_INTEGRITY FALSE");
+            statement.execute("CREATE TABLE replica_status (behind_since TIMESTAMP)");
+            statement.execute("INSERT INTO replica_status VALUES (NULL)");
+        }
+
+        catchUp();
+        routingDataSource.addWriteListener(this::written);
+
+        if (copyIntervalMillis > 0) {
+
+            copier = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-copier");
+                thread.setDaemon(true);
+                return thread;
+            });
+            copier.scheduleWithFixedDelay(this::copyIfBehind, copyIntervalMillis, copyIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+        if (copier != null) {
+            copier.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies every table of the primary to the replica now, whatever was written since the last copy.
+     */
+    public synchronized void catchUp() {
+
+        try (Connection source = primary.getConnection();
+             Connection target = replica.getConnection()) {
+
+            source.setAutoCommit(false);
+            source.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            target.setReadOnly(false);
+            target.setAutoCommit(false);
+
+            for (String table : getTables(source)) {
+                copyTable(source, target, table);
+            }
+
+            try (Statement statement = target.createStatement()) {
+                statement.executeUpdate("UPDATE replica_status SET behind_since = NULL");
+            }
+
+            target.commit();
+            source.commit();
+            behindSince = null;
+
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "The replica could not be copied from the primary.", e);
+            markBehind();
+        }
+    }
+
+    /**
+     * Stops copying, so the replica falls behind the writes that follow, as a replica that lags.
+     */
+    public synchronized void pause() {
+
+        paused = true;
+    }
+
+    /**
+     * Copies what the replica missed while it was paused and goes back to copying the writes.
+     */
+    public synchronized void resume() {
+
+        paused = false;
+        copyIfBehind();
+    }
+
+    /**
+     * Run after every committed write, on the thread of the writer.
+     */
+    private synchronized void written() {
+
+        if (copyIntervalMillis == 0 && !paused) {
+            catchUp();
+        } else {
+            markBehind();
+        }
+    }
+
+    /**
+     * Records that the replica misses a write, unless it already misses an earlier one.
+     */
+    private void markBehind() {
+
+        if (behindSince != null) {
+            return;
+        }
+
+        behindSince = new Timestamp(System.currentTimeMillis());
+
+        try (Connection connection = replica.getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                     "UPDATE replica_status SET behind_since = ?")) {
+
+            connection.setReadOnly(false);
+            statement.setTimestamp(1, behindSince);
+            statement.executeUpdate();
+
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "The lag of the replica could not be recorded.", e);
+        }
+    }
+
+    private synchronized void copyIfBehind() {
+
+        if (!paused && behindSince != null) {
+            catchUp();
+        }
+    }
+
+    private static List<String> getTables(Connection connection) throws SQLException {
+
+        List<String> tables = new ArrayList<>();
+
+        try (ResultSet resultSet = connection.getMetaData().getTables(null, connection.getSchema(), "%",
+                new String[]{ "TABLE" })) {
+
+            while (resultSet.next()) {
+                tables.add(resultSet.getString("TABLE_NAME"));
+            }
+        }
+
+        return tables;
+    }
+
+    private static void copyTable(Connection source, Connection target, String table) throws SQLException {
+
+        try (Statement statement = target.createStatement()) {
+            statement.executeUpdate("DELETE FROM " + table);
+        }
+
+        try (Statement select = source.createStatement();
+             ResultSet rows = select.executeQuery("SELECT * FROM " + table)) {
+
+            int columnCount = rows.getMetaData().getColumnCount();
+            String placeholders = String.join(", ", Collections.nCopies(columnCount, "?"));
+
+            try (PreparedStatement insert = target.prepareStatement(
+                    "INSERT INTO " + table + " VALUES (" + placeholders + ")")) {
+
+                while (rows.next()) {
+
+                    for (int column = 1; column <= columnCount; column++) {
+                        insert.setObject(column, rows.getObject(column));
+                    }
+                    insert.addBatch();
+                }
+
+                insert.executeBatch();
+            }
+        }
+    }
+
+    public void setPrimary(DataSource primary) {
+
+        this.primary = primary;
+    }
+
+    public void setReplica(DataSource replica) {
+
+        this.replica = replica;
+    }
+
+    public void setRoutingDataSource(ReplicaRoutingDataSource routingDataSource) {
+
+        this.routingDataSource = routingDataSource;
+    }
+
+    public void setCopyIntervalMillis(long copyIntervalMillis) {
+
+        this.copyIntervalMillis = copyIntervalMillis;
+    }
+}
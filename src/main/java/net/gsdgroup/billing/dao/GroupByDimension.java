@@ -0,0 +1,52 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.exceptions.ServiceException;
+
+/**
+ * What the charges of a group-by query can be grouped by. Each dimension is one or more JPQL expressions over
+ * the charge "bc" and its bill "b", selected and grouped by in the same order.
+ */
+public enum GroupByDimension {
+
+    /**
+     * Year and month the bill was issued in, two columns.
+     */
+    YEAR_MONTH("YEAR(b.issueDate), MONTH(b.issueDate)", 2),
+
+    CHARGE_TYPE("bc.chargeType", 1),
+
+    /**
+     * Account id, read from the foreign key of the bill without joining the account.
+     */
+    ACCOUNT("b.account.id", 1);
+
+    private final String expression;
+    private final int columnCount;
+
+    GroupByDimension(String expression, int columnCount){
+        this.expression = expression;
+        this.columnCount = columnCount;
+    }
+
+    public String getExpression(){
+        return expression;
+    }
+
+    public int getColumnCount(){
+        return columnCount;
+    }
+
+    /**
+     * Parses a dimension of a request, e.g. year_month.
+     */
+    public static GroupByDimension parse(String value){
+
+        for (GroupByDimension dimension : values()){
+            if(dimension.name().equalsIgnoreCase(value.trim())){
+                return dimension;
+            }
+        }
+
+        throw new ServiceException("Invalid dimension.");
+    }
+}
@@ -0,0 +1,26 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.exceptions.ServiceException;
+
+/**
+ * What a group-by query computes for each group. The average is derived from the sum and the count, which add
+ * up over the shards where an average would not.
+ */
+public enum GroupByMeasure {
+
+    SUM_AMOUNT, SUM_TAX, COUNT, AVG_AMOUNT;
+
+    /**
+     * Parses a measure of a request, e.g. sum_amount.
+     */
+    public static GroupByMeasure parse(String value) {
+
+        for (GroupByMeasure measure : values()) {
+            if (measure.name().equalsIgnoreCase(value.trim())) {
+                return measure;
+            }
+        }
+
+        throw new ServiceException("Invalid measure.");
+    }
+}
@@ -0,0 +1,131 @@
+package net.gsdgroup.billing.dao;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An aggregate over the bill charges: the dimensions to group by, in order, the measures to compute and the
+ * filters. Date bounds are inclusive and compared by day; unset filters let every charge through. Queries of
+ * the same shape, whatever their filter values, share one compiled query.
+ */
+public class GroupByQuery {
+
+    private final List<GroupByDimension> dimensions = new ArrayList<>();
+    private final Set<GroupByMeasure> measures = EnumSet.noneOf(GroupByMeasure.class);
+    private Date issuedFrom;
+    private Date issuedBefore;
+    private Date dueFrom;
+    private Date dueBefore;
+    private Set<Integer> accountIds;
+
+    public List<GroupByDimension> getDimensions(){
+        return dimensions;
+    }
+
+    public void addDimension(GroupByDimension dimension){
+
+        if(!dimensions.contains(dimension)){
+            dimensions.add(dimension);
+        }
+    }
+
+    public Set<GroupByMeasure> getMeasures(){
+        return measures;
+    }
+
+    public void addMeasure(GroupByMeasure measure){
+        measures.add(measure);
+    }
+
+    public Date getIssuedFrom(){
+        return issuedFrom;
+    }
+
+    public void setIssuedFrom(Date issuedFrom){
+        this.issuedFrom = startOfDay(issuedFrom, 0);
+    }
+
+    /**
+     * Start of the day after the last issue date, the exclusive bound compared with the column.
+     */
+    public Date getIssuedBefore(){
+        return issuedBefore;
+    }
+
+    public void setIssuedTo(Date issuedTo){
+        this.issuedBefore = startOfDay(issuedTo, 1);
+    }
+
+    public Date getDueFrom(){
+        return dueFrom;
+    }
+
+    public void setDueFrom(Date dueFrom){
+        this.dueFrom = startOfDay(dueFrom, 0);
+    }
+
+    /**
+     * Start of the day after the last due date, the exclusive bound compared with the column.
+     */
+    public Date getDueBefore(){
+        return dueBefore;
+    }
+
+    public void setDueTo(Date dueTo){
+        this.dueBefore = startOfDay(dueTo, 1);
+    }
+
+    /**
+     * The account ids in ascending order, or null for all the accounts.
+     */
+    public Set<Integer> getAccountIds(){
+        return accountIds;
+    }
+
+    public void setAccountIds(List<Integer> accountIds){
+        this.accountIds = accountIds == null ? null : new TreeSet<>(accountIds);
+    }
+
+    boolean needsAmount(){
+        return measures.contains(GroupByMeasure.SUM_AMOUNT) || measures.contains(GroupByMeasure.AVG_AMOUNT);
+    }
+
+    boolean needsTax(){
+        return measures.contains(GroupByMeasure.SUM_TAX);
+    }
+
+    boolean needsCount(){
+        return measures.contains(GroupByMeasure.COUNT) || measures.contains(GroupByMeasure.AVG_AMOUNT);
+    }
+
+    /**
+     * What the compiled query depends on: the dimensions, the columns computed and which filters are set.
+     */
+    String getShape(){
+
+        return dimensions + "|" + needsAmount() + needsTax() + needsCount() + "|"
+                + (issuedFrom != null) + (issuedBefore != null) + (dueFrom != null) + (dueBefore != null)
+                + (accountIds != null);
+    }
+
+    private static Date startOfDay(Date date, int daysLater){
+
+        if(date == null){
+            return null;
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        calendar.add(Calendar.DAY_OF_YEAR, daysLater);
+        return calendar.getTime();
+    }
+}
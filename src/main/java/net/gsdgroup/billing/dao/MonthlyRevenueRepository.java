@@ -0,0 +1,118 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.entity.CacheRegions;
+import net.gsdgroup.billing.entity.MonthlyRevenue;
+import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Repository
+public class MonthlyRevenueRepository extends AbstractCommonRepository<MonthlyRevenue> {
+
+    /**
+     * Adds the amount and the charge count to the row of the month, creating the row if needed.
+     * The update is done in the database so concurrent writers never overwrite each other.
+     *
+     * The row stays locked until the writer's transaction ends, so all the writers of bills of the same month
+     * on a shard take turns on it, and the rate of such writes is bounded by the length of their transactions.
+     */
+    public void addToMonth(int year, int month, long amount, long chargeCount){
+
+        StringBuilder query = new StringBuilder("INSERT INTO monthly_revenue " +
+                "(month_key, revenue_year, revenue_month, amount, charge_count) " +
+                "VALUES (:monthKey, :year, :month, :amount, :chargeCount) " +
+                "ON DUPLICATE KEY UPDATE " +
+                "amount = amount + VALUES(amount), " +
+                "charge_count = charge_count + VALUES(charge_count)");
+
+        factory.getCurrentSession()
+                .createNativeQuery(query.toString())
+                .addSynchronizedEntityClass(MonthlyRevenue.class)
+                .setParameter("monthKey", year * 100 + month)
+                .setParameter("year", year)
+                .setParameter("month", month)
+                .setParameter("amount", amount)
+                .setParameter("chargeCount", chargeCount)
+                .executeUpdate();
+    }
+
+    /**
+     * Totals of each month of the year, all years added together, read from the aggregate rows only.
+     * Each shard totals its own rows and the totals of the shards are added up per month.
+     */
+    public List<MonthlyAmountDTO> getTotalChargedEachMonth(){
+
+        Map<Integer, Long> monthlyTotals = new TreeMap<>();
+
+        for (List<Object[]> rows : shardExecutor.onEachShard(this::getTotalChargedEachMonthOnShard)) {
+
+            for (Object[] row : rows) {
+                monthlyTotals.merge((Integer) row[0], (Long) row[1], Math::addExact);
+            }
+        }
+
+        List<MonthlyAmountDTO> result = new ArrayList<>();
+
+        for (Map.Entry<Integer, Long> monthlyTotal : monthlyTotals.entrySet()) {
+            String monthName = Month.of(monthlyTotal.getKey()).getDisplayName(TextStyle.FULL, Locale.ENGLISH);
+            result.add(new MonthlyAmountDTO(monthlyTotal.getValue(), monthName));
+        }
+        return result;
+    }
+
+    private List<Object[]> getTotalChargedEachMonthOnShard(int shard){
+
+        StringBuilder query = new StringBuilder("SELECT m.month, SUM(m.amount) " +
+                "FROM MonthlyRevenue m " +
+                "GROUP BY m.month " +
+                "HAVING SUM(m.chargeCount) > 0 " +
+                "ORDER BY m.month");
+
+        return factory.getCurrentSession()
+                .createQuery(query.toString(), Object[].class)
+                .setHint(QueryHints.HINT_CACHEABLE, true)
+                .setHint(QueryHints.HINT_CACHE_REGION, CacheRegions.shardQueryResults(shard))
+                .getResultList();
+    }
+
+    /**
+     * Recomputes every row from the bill charges, on every shard. Used for the backfill and to repair drift.
+     * With several shards each shard commits on its own, so a failed rebuild is repaired by running it again.
+     */
+    public void rebuild(){
+
+        shardExecutor.onEachShard(shard -> {
+            rebuildOnShard();
+            return null;
+        });
+    }
+
+    private void rebuildOnShard(){
+
+        factory.getCurrentSession()
+                .createNativeQuery("DELETE FROM monthly_revenue")
+                .addSynchronizedEntityClass(MonthlyRevenue.class)
+                .executeUpdate();
+
+        StringBuilder query = new StringBuilder("INSERT INTO monthly_revenue " +
+                "(month_key, revenue_year, revenue_month, amount, charge_count) " +
+                "SELECT YEAR(b.issue_date) * 100 + MONTH(b.issue_date), YEAR(b.issue_date), MONTH(b.issue_date), " +
+                "SUM(bc.amount + bc.tax), COUNT(bc.id) " +
+                "FROM bill_charges bc " +
+                "JOIN bill b ON bc.bill_id = b.id " +
+                "GROUP BY YEAR(b.issue_date), MONTH(b.issue_date)");
+
+        factory.getCurrentSession()
+                .createNativeQuery(query.toString())
+                .addSynchronizedEntityClass(MonthlyRevenue.class)
+                .executeUpdate();
+    }
+}
@@ -0,0 +1,100 @@
+package net.gsdgroup.billing.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics of one connection pool. The pool state is read live from the pool, while the connection
+ * acquire times are recorded into a fixed bucket histogram.
+ */
+public class PoolMetrics implements IMetricsTracker {
+
+    /**
+     * Upper bounds, in milliseconds, of the acquire time histogram buckets. The last bucket has no upper bound.
+     */
+    public static final long[] ACQUIRE_BUCKET_BOUNDS_MILLIS = {1, 5, 10, 50, 100, 500, 1000};
+
+    private final String poolName;
+    private final PoolStats poolStats;
+    private final AtomicLongArray acquireBuckets = new AtomicLongArray(ACQUIRE_BUCKET_BOUNDS_MILLIS.length + 1);
+    private final AtomicLong acquireCount = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    public PoolMetrics(String poolName, PoolStats poolStats) {
+        this.poolName = poolName;
+        this.poolStats = poolStats;
+    }
+
+    @Override
+    public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedAcquiredNanos);
+        int bucket = 0;
+
+        while (bucket < ACQUIRE_BUCKET_BOUNDS_MILLIS.length && elapsedMillis >= ACQUIRE_BUCKET_BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+
+        acquireBuckets.incrementAndGet(bucket);
+        acquireCount.incrementAndGet();
+        acquireNanos.addAndGet(elapsedAcquiredNanos);
+    }
+
+    @Override
+    public void recordConnectionTimeout() {
+
+        timeoutCount.incrementAndGet();
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public int getActiveConnections() {
+        return poolStats.getActiveConnections();
+    }
+
+    public int getIdleConnections() {
+        return poolStats.getIdleConnections();
+    }
+
+    public int getTotalConnections() {
+        return poolStats.getTotalConnections();
+    }
+
+    public int getPendingThreads() {
+        return poolStats.getPendingThreads();
+    }
+
+    public long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    public double getAverageAcquireMillis() {
+
+        long count = acquireCount.get();
+        return count == 0 ? 0 : acquireNanos.get() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Number of acquisitions in each bucket, in the order of ACQUIRE_BUCKET_BOUNDS_MILLIS.
+     */
+    public long[] getAcquireBuckets() {
+
+        long[] buckets = new long[acquireBuckets.length()];
+
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = acquireBuckets.get(i);
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,33 @@
+package net.gsdgroup.billing.dao;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands each connection pool its own PoolMetrics and keeps them, so the metrics of all pools can be read.
+ */
+@Component
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final Map<String, PoolMetrics> poolMetrics = new ConcurrentHashMap<>();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+
+        PoolMetrics metrics = new PoolMetrics(poolName, poolStats);
+        poolMetrics.put(poolName, metrics);
+        return metrics;
+    }
+
+    public List<PoolMetrics> getPoolMetrics() {
+
+        return new ArrayList<>(poolMetrics.values());
+    }
+}
@@ -0,0 +1,37 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.orm.hibernate5.HibernateTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/**
+ * Hibernate transaction manager that tells the routing data source about every committed transaction that
+ * sent a write statement, so the reads of the same writer that follow it stay on the primary until the
+ * replicas have caught up. A transaction that wrote nothing leaves the routing alone.
+ */
+public class ReplicaAwareTransactionManager extends HibernateTransactionManager {
+
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+
+        super.doCommit(status);
+
+        // the commit flushes the session, so the writes are only all known after it
+        if (!status.isReadOnly() && WriteStatementInspector.hasWritten()) {
+            routingDataSource.recordWrite();
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+
+        WriteStatementInspector.reset();
+        super.doCleanupAfterCompletion(transaction);
+    }
+
+    public void setRoutingDataSource(ReplicaRoutingDataSource routingDataSource) {
+
+        this.routingDataSource = routingDataSource;
+    }
+}
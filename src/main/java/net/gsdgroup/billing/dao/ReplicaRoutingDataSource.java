@@ -0,0 +1,253 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the connections of read-only transactions to the replicas, round robin, and everything else to the
+ * primary. It must be wrapped in a LazyConnectionDataSourceProxy, so the connection is only looked up once
+ * the transaction has been marked read-only.
+ *
+ * The reads of a writer, as told by WriterContext, stay on the primary for stickinessMillis after it committed
+ * a write, so a client reads its own writes even while the replicas catch up; the reads of the other clients
+ * keep going to the replicas. The lag of the replicas is read every lagCheckIntervalMillis by a timer thread.
+ * A replica whose lag is above maxLagSeconds, or whose lag cannot be read, is left out until a later check
+ * finds it current again. With no usable replica, reads go to the primary.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+    private static final long UNKNOWN_LAG = Long.MAX_VALUE;
+
+    private DataSource primary;
+    private List<DataSource> replicas = new ArrayList<>();
+    private long stickinessMillis = 5000;
+    private long maxLagSeconds = 5;
+    private long lagCheckIntervalMillis = 1000;
+    private String lagQuery = "SHOW SLAVE STATUS";
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final AtomicLong primaryReadCount = new AtomicLong();
+    private final AtomicLong replicaReadCount = new AtomicLong();
+    private volatile long[] replicaLagSeconds = new long[0];
+
+    /**
+     * Time of the last committed write of each writer, dropped by the lag check once it is out of the window.
+     */
+    private final Map<String, Long> lastWriteMillis = new ConcurrentHashMap<>();
+
+    private final List<Runnable> writeListeners = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService lagChecker;
+
+    @Override
+    public void afterPropertiesSet() {
+
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(PRIMARY, primary);
+
+        for (int i = 0; i < replicas.size(); i++) {
+            targetDataSources.put(REPLICA + i, replicas.get(i));
+        }
+
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(primary);
+        replicaLagSeconds = new long[replicas.size()];
+
+        super.afterPropertiesSet();
+
+        lagChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        lagChecker.scheduleWithFixedDelay(this::checkLag, 0, lagCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() {
+
+        lagChecker.shutdownNow();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            return PRIMARY;
+        }
+
+        if (replicas.isEmpty() || isWithinStickinessWindow()) {
+            primaryReadCount.incrementAndGet();
+            return PRIMARY;
+        }
+
+        long[] lags = replicaLagSeconds;
+        int start = Math.floorMod(nextReplica.getAndIncrement(), lags.length);
+
+        for (int i = 0; i < lags.length; i++) {
+
+            int replica = (start + i) % lags.length;
+
+            if (lags[replica] <= maxLagSeconds) {
+                replicaReadCount.incrementAndGet();
+                return REPLICA + replica;
+            }
+        }
+
+        primaryReadCount.incrementAndGet();
+        return PRIMARY;
+    }
+
+    /**
+     * Marks that the current writer committed a write. Its reads go to the primary until the stickiness
+     * window is over.
+     */
+    public void recordWrite() {
+
+        lastWriteMillis.put(WriterContext.current(), System.currentTimeMillis());
+
+        for (Runnable listener : writeListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Runs the listener after every committed write, on the thread of the writer.
+     */
+    public void addWriteListener(Runnable listener) {
+
+        writeListeners.add(listener);
+    }
+
+    /**
+     * Whether the reads of the current writer are held on the primary after a write of its own.
+     */
+    public boolean isWithinStickinessWindow() {
+
+        Long lastWrite = lastWriteMillis.get(WriterContext.current());
+        return lastWrite != null && System.currentTimeMillis() - lastWrite < stickinessMillis;
+    }
+
+    /**
+     * Number of writers whose reads are currently held on the primary.
+     */
+    public int getStickyWriterCount() {
+
+        long now = System.currentTimeMillis();
+        return (int) lastWriteMillis.values().stream().filter(lastWrite -> now - lastWrite < stickinessMillis).count();
+    }
+
+    /**
+     * Run by the timer: reads the lag of every replica and forgets the writers whose window is over.
+     */
+    private void checkLag() {
+
+        long[] lags = new long[replicas.size()];
+
+        for (int i = 0; i < lags.length; i++) {
+            lags[i] = readLagSeconds(replicas.get(i));
+        }
+
+        replicaLagSeconds = lags;
+
+        long now = System.currentTimeMillis();
+        lastWriteMillis.values().removeIf(lastWrite -> now - lastWrite >= stickinessMillis);
+    }
+
+    /**
+     * Runs the lag query on a replica. A server that reports no replication status is not replicating and
+     * counts as current; a null lag means the replication is stopped.
+     */
+    private long readLagSeconds(DataSource replica) {
+
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(lagQuery)) {
+
+            if (!resultSet.next()) {
+                return 0;
+            }
+
+            long lag = resultSet.getLong(findLagColumn(resultSet));
+            return resultSet.wasNull() ? UNKNOWN_LAG : lag;
+
+        } catch (SQLException e) {
+            return UNKNOWN_LAG;
+        }
+    }
+
+    private int findLagColumn(ResultSet resultSet) throws SQLException {
+
+        try {
+            return resultSet.findColumn("Seconds_Behind_Master");
+
+        } catch (SQLException e) {
+            return 1;
+        }
+    }
+
+    public long getPrimaryReadCount() {
+
+        return primaryReadCount.get();
+    }
+
+    public long getReplicaReadCount() {
+
+        return replicaReadCount.get();
+    }
+
+    public long[] getReplicaLagSeconds() {
+
+        return replicaLagSeconds.clone();
+    }
+
+    public void setPrimary(DataSource primary) {
+
+        this.primary = primary;
+    }
+
+    public void setReplicas(List<DataSource> replicas) {
+
+        this.replicas = replicas;
+    }
+
+    public void setStickinessMillis(long stickinessMillis) {
+
+        this.stickinessMillis = stickinessMillis;
+    }
+
+    public void setMaxLagSeconds(long maxLagSeconds) {
+
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+    public void setLagCheckIntervalMillis(long lagCheckIntervalMillis) {
+
+        this.lagCheckIntervalMillis = lagCheckIntervalMillis;
+    }
+
+    public void setLagQuery(String lagQuery) {
+
+        this.lagQuery = lagQuery;
+    }
+}
@@ -0,0 +1,43 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks, at the end of a unit of work, that the current thread closed every session it opened. Repository
+ * queries run in the session bound to the surrounding transaction, so nothing should ever be left open.
+ */
+@Component
+public class SessionLeakDetector {
+
+    private final AtomicLong leakedCount = new AtomicLong();
+    private final AtomicLong leakingRequestCount = new AtomicLong();
+
+    /**
+     * Returns the number of sessions the current thread left open and counts them as leaked. The thread's
+     * count is reset afterwards, so a pooled thread starts its next unit of work clean.
+     */
+    public int checkCurrentThread() {
+
+        int leaked = SessionTracker.getOpenOnCurrentThread();
+        SessionTracker.resetCurrentThread();
+
+        if (leaked > 0) {
+            leakedCount.addAndGet(leaked);
+            leakingRequestCount.incrementAndGet();
+        }
+
+        return leaked;
+    }
+
+    public long getLeakedCount() {
+
+        return leakedCount.get();
+    }
+
+    public long getLeakingRequestCount() {
+
+        return leakingRequestCount.get();
+    }
+}
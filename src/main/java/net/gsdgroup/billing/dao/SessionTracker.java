@@ -0,0 +1,70 @@
+package net.gsdgroup.billing.dao;
+
+import org.hibernate.BaseSessionEventListener;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the Hibernate sessions, and with them the EntityManagers, that are opened and closed. Hibernate
+ * creates one tracker for every session it opens, as set by hibernate.session.events.auto, and ends it
+ * when the session is closed. The counts are kept per thread too, so a request can check that it closed
+ * every session it opened.
+ */
+public class SessionTracker extends BaseSessionEventListener {
+
+    private static final AtomicLong openedCount = new AtomicLong();
+    private static final AtomicLong closedCount = new AtomicLong();
+    private static final ThreadLocal<AtomicInteger> openOnThread = ThreadLocal.withInitial(AtomicInteger::new);
+
+    private final AtomicInteger openerCount;
+    private boolean ended;
+
+    public SessionTracker() {
+
+        openedCount.incrementAndGet();
+        openerCount = openOnThread.get();
+        openerCount.incrementAndGet();
+    }
+
+    @Override
+    public void end() {
+
+        if (!ended) {
+            ended = true;
+            closedCount.incrementAndGet();
+            openerCount.decrementAndGet();
+        }
+    }
+
+    public static long getOpenedCount() {
+
+        return openedCount.get();
+    }
+
+    public static long getClosedCount() {
+
+        return closedCount.get();
+    }
+
+    public static long getOpenCount() {
+
+        return openedCount.get() - closedCount.get();
+    }
+
+    /**
+     * Number of sessions opened by the current thread that are still open.
+     */
+    public static int getOpenOnCurrentThread() {
+
+        return openOnThread.get().get();
+    }
+
+    /**
+     * Forgets the sessions the current thread left open, so they are only reported once.
+     */
+    public static void resetCurrentThread() {
+
+        openOnThread.remove();
+    }
+}
@@ -0,0 +1,114 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread works on. A transaction is bound to the shard of the first id it touches and
+ * can only touch that shard; the binding is dropped when the transaction completes. Until a shard is bound,
+ * connections go to shard 0.
+ */
+public final class ShardContext {
+
+    private static final int SEQUENCE_SHARD = 0;
+
+    private static final ThreadLocal<Integer> shard = new ThreadLocal<>();
+    private static final ThreadLocal<Integer> newAccountBucket = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> onSequenceShard = new ThreadLocal<>();
+
+    private ShardContext() {}
+
+    /**
+     * Binds the current thread to the shard. Binding it again to the same shard does nothing, binding it to
+     * another one while it is bound fails, as a transaction cannot span shards.
+     */
+    public static void bind(int shardIndex) {
+
+        Integer current = shard.get();
+
+        if (current != null) {
+
+            if (current != shardIndex) {
+                throw new IllegalStateException("A transaction bound to shard " + current
+                        + " cannot work on shard " + shardIndex + ".");
+            }
+            return;
+        }
+
+        shard.set(shardIndex);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    clear();
+                }
+            });
+        }
+    }
+
+    public static Integer getBoundShard() {
+
+        return shard.get();
+    }
+
+    /**
+     * The shard connections are taken from: shard 0 while ids are being allocated, as all the id sequences
+     * live there, otherwise the bound shard, or shard 0 when none is bound.
+     */
+    public static int currentShard() {
+
+        if (Boolean.TRUE.equals(onSequenceShard.get())) {
+            return SEQUENCE_SHARD;
+        }
+
+        Integer current = shard.get();
+        return current == null ? 0 : current;
+    }
+
+    public static void clear() {
+
+        shard.remove();
+    }
+
+    /**
+     * Runs the id allocation on the shard that holds the id sequences.
+     */
+    public static <T> T allocateOnSequenceShard(Supplier<T> allocation) {
+
+        Boolean previous = onSequenceShard.get();
+        onSequenceShard.set(Boolean.TRUE);
+
+        try {
+            return allocation.get();
+
+        } finally {
+            onSequenceShard.set(previous);
+        }
+    }
+
+    /**
+     * Sets the bucket the account about to be saved is placed in, or clears it when null.
+     */
+    public static void setNewAccountBucket(Integer bucket) {
+
+        if (bucket == null) {
+            newAccountBucket.remove();
+        } else {
+            newAccountBucket.set(bucket);
+        }
+    }
+
+    public static int getNewAccountBucket() {
+
+        Integer bucket = newAccountBucket.get();
+
+        if (bucket == null) {
+            throw new IllegalStateException("No bucket was chosen for the new account.");
+        }
+
+        return bucket;
+    }
+}
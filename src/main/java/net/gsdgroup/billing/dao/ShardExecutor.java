@@ -0,0 +1,268 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Runs work on the shards, each shard in its own transaction bound to it. Read-only callers get read-only
+ * transactions. With several shards the work runs in parallel on worker threads, so the transactions on the
+ * shards are independent of each other and of the caller's. With a single shard it runs on the calling
+ * thread and joins the caller's transaction.
+ *
+ * A write over several shards is therefore not atomic: each shard commits on its own as soon as its work is
+ * done, and a failure on one shard, or a rollback of the caller, leaves the shards that already committed as
+ * they are. Writers must either touch one shard only or be safe to run again, as the rebuilds are.
+ *
+ * The work must not run shard work itself. A worker waiting for other workers could take the whole pool and
+ * never finish, so such a call fails at once.
+ */
+@Component
+public class ShardExecutor {
+
+    private static final ThreadLocal<Boolean> onWorker = ThreadLocal.withInitial(() -> false);
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ShardMapping shardMapping;
+
+    @Value("${db.shard.workerThreads}")
+    private int workerThreads;
+
+    private ExecutorService workers;
+
+    /**
+     * Work done on one shard, which may write to a stream.
+     */
+    public interface ShardTask {
+
+        void run(int shard) throws IOException;
+    }
+
+    @PostConstruct
+    public void start() {
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "shard-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        workers.shutdown();
+    }
+
+    public int getShardCount() {
+
+        return shardMapping.getShardCount();
+    }
+
+    /**
+     * Runs the work on every shard and returns the results, in shard order.
+     */
+    public <T> List<T> onEachShard(IntFunction<T> work) {
+
+        return onShards(IntStream.range(0, getShardCount()).boxed().collect(Collectors.toList()), work);
+    }
+
+    /**
+     * Runs the work on the given shards in parallel and returns the results, in the order of the shards.
+     */
+    public <T> List<T> onShards(Collection<Integer> shards, IntFunction<T> work) {
+
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+
+        return run(shards, shard -> inTransaction(shard, readOnly, work));
+    }
+
+    /**
+     * Runs the work on the given shards in parallel like onShards, but opens no transaction for it: the work
+     * opens its own and binds its shard, for instance through TransactionRetrier so that a shard whose
+     * transaction deadlocks is run again on its own. With a single shard it runs on the calling thread, so the
+     * caller must not be in a transaction the work would join.
+     */
+    public <T> List<T> onShardsInOwnTransactions(Collection<Integer> shards, IntFunction<T> work) {
+
+        return run(shards, work);
+    }
+
+    private <T> List<T> run(Collection<Integer> shards, IntFunction<T> work) {
+
+        List<T> results = new ArrayList<>();
+
+        if (getShardCount() == 1) {
+
+            for (int shard : shards) {
+                results.add(work.apply(shard));
+            }
+            return results;
+        }
+
+        checkNotOnWorker();
+
+        List<Future<T>> futures = new ArrayList<>();
+        String writer = WriterContext.current();
+
+        for (int shard : shards) {
+            futures.add(workers.submit(() -> onWorker(writer, () -> work.apply(shard))));
+        }
+
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs the work on every shard and merges the results. Each shard's results are expected in the given
+     * order, so the merge keeps that order over all the shards.
+     */
+    public <T> List<T> gather(IntFunction<List<T>> work, Comparator<? super T> order) {
+
+        List<T> results = new ArrayList<>();
+
+        for (List<T> shardResults : onEachShard(work)) {
+            results.addAll(shardResults);
+        }
+
+        results.sort(order);
+        return results;
+    }
+
+    /**
+     * Runs the task on every shard, one shard after the other, for work whose output must not interleave.
+     */
+    public void forEachShardInOrder(ShardTask task) throws IOException {
+
+        boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+
+        for (int shard = 0; shard < getShardCount(); shard++) {
+
+            int currentShard = shard;
+            IntFunction<Void> work = index -> {
+                try {
+                    task.run(index);
+                    return null;
+
+                } catch (IOException e) {
+                    throw new ShardIOException(e);
+                }
+            };
+
+            try {
+                if (getShardCount() == 1) {
+                    inTransaction(currentShard, readOnly, work);
+                } else {
+                    checkNotOnWorker();
+                    String writer = WriterContext.current();
+                    await(workers.submit(() -> onWorker(writer, () -> inTransaction(currentShard, readOnly, work))));
+                }
+
+            } catch (ShardIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Runs the work on a worker thread for the writer of the caller, so the writes count as the caller's.
+     */
+    private <T> T onWorker(String writer, Supplier<T> work) {
+
+        onWorker.set(true);
+        WriterContext.bind(writer);
+
+        try {
+            return work.get();
+
+        } finally {
+            ShardContext.clear();
+            WriterContext.clear();
+            onWorker.remove();
+        }
+    }
+
+    /**
+     * Fails when shard work is started from a worker, which would wait for a worker it may be holding up.
+     */
+    private void checkNotOnWorker() {
+
+        if (onWorker.get()) {
+            throw new IllegalStateException("Shard work cannot be started from a shard worker.");
+        }
+    }
+
+    private <T> T inTransaction(int shard, boolean readOnly, IntFunction<T> work) {
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(readOnly);
+
+        return transactionTemplate.execute(status -> {
+            ShardContext.bind(shard);
+            return work.apply(shard);
+        });
+    }
+
+    private <T> T await(Future<T> future) {
+
+        try {
+            return future.get();
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a shard.", e);
+
+        } catch (ExecutionException e) {
+
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Carries the IOException of a ShardTask through the transaction template.
+     */
+    private static class ShardIOException extends RuntimeException {
+
+        ShardIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package net.gsdgroup.billing.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps ids to shards. Every id carries a bucket, its remainder modulo the bucket count, and every bucket
+ * belongs to one shard. A new account is placed in the next bucket, round robin, and its bills and charges
+ * are given ids in the same bucket, so any of their ids leads to the shard of the account.
+ *
+ * The bucket count is part of the ids and must never change once data is stored. The mapping of buckets to
+ * shards is either explicit, as "from-to:shard" or "bucket:shard" entries separated by commas, or, when
+ * empty, bucket modulo shard count.
+ */
+public class ShardMapping {
+
+    private final int bucketCount;
+    private final int shardCount;
+    private final int[] shardOfBucket;
+    private final int[][] bucketsOfShard;
+    private final AtomicInteger nextBucket = new AtomicInteger();
+
+    public ShardMapping(int bucketCount, int shardCount, String mapping) {
+
+        if (bucketCount < 1 || shardCount < 1 || shardCount > bucketCount) {
+            throw new IllegalArgumentException("Invalid shard configuration: " + shardCount + " shards over "
+                    + bucketCount + " buckets.");
+        }
+
+        this.bucketCount = bucketCount;
+        this.shardCount = shardCount;
+        this.shardOfBucket = parseMapping(mapping);
+        this.bucketsOfShard = groupBucketsByShard();
+    }
+
+    public int getBucketCount() {
+
+        return bucketCount;
+    }
+
+    public int getShardCount() {
+
+        return shardCount;
+    }
+
+    public int bucketOf(int id) {
+
+        return Math.floorMod(id, bucketCount);
+    }
+
+    public int shardOfBucket(int bucket) {
+
+        return shardOfBucket[bucket];
+    }
+
+    public int shardOf(int id) {
+
+        return shardOfBucket[bucketOf(id)];
+    }
+
+    /**
+     * The bucket of a new account, taken round robin over all the buckets.
+     */
+    public int nextBucket() {
+
+        return Math.floorMod(nextBucket.getAndIncrement(), bucketCount);
+    }
+
+    /**
+     * The bucket of a new account that must be stored on the given shard, round robin over its buckets.
+     */
+    public int nextBucket(int shard) {
+
+        int[] buckets = bucketsOfShard[shard];
+
+        if (buckets.length == 0) {
+            throw new IllegalStateException("Shard " + shard + " has no buckets.");
+        }
+
+        return buckets[Math.floorMod(nextBucket.getAndIncrement(), buckets.length)];
+    }
+
+    private int[] parseMapping(String mapping) {
+
+        int[] shards = new int[bucketCount];
+
+        if (mapping == null || mapping.trim().isEmpty()) {
+
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                shards[bucket] = bucket % shardCount;
+            }
+            return shards;
+        }
+
+        boolean[] mapped = new boolean[bucketCount];
+
+        for (String entry : mapping.split(",")) {
+
+            String[] parts = entry.trim().split(":");
+
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid shard mapping entry: " + entry);
+            }
+
+            String[] range = parts[0].trim().split("-");
+
+            try {
+                int from = Integer.parseInt(range[0].trim());
+                int to = range.length > 1 ? Integer.parseInt(range[1].trim()) : from;
+                int shard = Integer.parseInt(parts[1].trim());
+
+                if (from < 0 || to >= bucketCount || from > to || shard < 0 || shard >= shardCount) {
+                    throw new IllegalArgumentException("Invalid shard mapping entry: " + entry);
+                }
+
+                for (int bucket = from; bucket <= to; bucket++) {
+                    shards[bucket] = shard;
+                    mapped[bucket] = true;
+                }
+
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid shard mapping entry: " + entry, e);
+            }
+        }
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            if (!mapped[bucket]) {
+                throw new IllegalArgumentException("Bucket " + bucket + " is not mapped to a shard.");
+            }
+        }
+
+        return shards;
+    }
+
+    private int[][] groupBucketsByShard() {
+
+        List<List<Integer>> buckets = new ArrayList<>();
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            buckets.add(new ArrayList<>());
+        }
+
+        for (int bucket = 0; bucket < bucketCount; bucket++) {
+            buckets.get(shardOfBucket[bucket]).add(bucket);
+        }
+
+        int[][] result = new int[shardCount][];
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            result[shard] = buckets.get(shard).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        return result;
+    }
+}
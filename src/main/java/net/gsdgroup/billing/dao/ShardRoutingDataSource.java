@@ -0,0 +1,94 @@
+package net.gsdgroup.billing.dao;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends each connection to the shard bound to the current thread, see ShardContext. Shard 0 is the given data
+ * source; a connection pool is opened for every other shard url, configured like the pool template. It must be
+ * wrapped in a LazyConnectionDataSourceProxy, so the connection is only looked up once the shard is bound.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource implements DisposableBean {
+
+    private DataSource firstShard;
+    private String shardUrls = "";
+    private HikariConfig poolTemplate;
+    private ShardMapping shardMapping;
+
+    private final List<HikariDataSource> shardPools = new ArrayList<>();
+
+    @Override
+    public void afterPropertiesSet() {
+
+        Map<Object, Object> targetDataSources = new HashMap<>();
+        targetDataSources.put(0, firstShard);
+
+        for (String url : shardUrls.split(",")) {
+
+            if (url.trim().isEmpty()) {
+                continue;
+            }
+
+            HikariConfig config = new HikariConfig();
+            poolTemplate.copyStateTo(config);
+            config.setJdbcUrl(url.trim());
+            config.setPoolName(poolTemplate.getPoolName() + "-shard" + (shardPools.size() + 1));
+
+            HikariDataSource shardPool = new HikariDataSource(config);
+            shardPools.add(shardPool);
+            targetDataSources.put(shardPools.size(), shardPool);
+        }
+
+        if (targetDataSources.size() != shardMapping.getShardCount()) {
+            throw new IllegalArgumentException(shardMapping.getShardCount() + " shards are mapped but "
+                    + targetDataSources.size() + " are configured.");
+        }
+
+        setTargetDataSources(targetDataSources);
+        setDefaultTargetDataSource(firstShard);
+
+        super.afterPropertiesSet();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+
+        return ShardContext.currentShard();
+    }
+
+    @Override
+    public void destroy() {
+
+        for (HikariDataSource shardPool : shardPools) {
+            shardPool.close();
+        }
+    }
+
+    public void setFirstShard(DataSource firstShard) {
+
+        this.firstShard = firstShard;
+    }
+
+    public void setShardUrls(String shardUrls) {
+
+        this.shardUrls = shardUrls;
+    }
+
+    public void setPoolTemplate(HikariConfig poolTemplate) {
+
+        this.poolTemplate = poolTemplate;
+    }
+
+    public void setShardMapping(ShardMapping shardMapping) {
+
+        this.shardMapping = shardMapping;
+    }
+}
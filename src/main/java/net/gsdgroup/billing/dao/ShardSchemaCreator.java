@@ -0,0 +1,66 @@
+package net.gsdgroup.billing.dao;
+
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+
+/**
+ * Creates the schema of shard 0 on every other shard of the embedded H2 database. Hibernate creates the schema
+ * at startup through the data source of the session factory, which only reaches shard 0; the schema is then
+ * written out with H2's SCRIPT command and run on each other shard, after everything on it is dropped.
+ * Declared in the embedded profile only, after the session factory.
+ */
+public class ShardSchemaCreator implements InitializingBean {
+
+    private ShardRoutingDataSource shardRoutingDataSource;
+
+    @Override
+    public void afterPropertiesSet() throws SQLException, IOException {
+
+        Map<Object, DataSource> shards = shardRoutingDataSource.getResolvedDataSources();
+
+        for (Map.Entry<Object, DataSource> shard : shards.entrySet()) {
+
+            if (!shard.getKey().equals(0)) {
+                copySchema(shards.get(0), shard.getValue());
+            }
+        }
+    }
+
+    /**
+     * Replaces the schema of the target H2 database by the one of the source, without the data.
+     */
+    static void copySchema(DataSource source, DataSource target) throws SQLException, IOException {
+
+        File script = File.createTempFile("billing-schema", ".sql");
+        String path = script.getAbsolutePath().replace('\\', '/').replace("'", "''");
+
+        try {
+            try (Connection connection = source.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("SCRIPT NODATA TO '" + path + "'");
+            }
+
+            try (Connection connection = target.getConnection();
+                 Statement statement = connection.createStatement()) {
+                connection.setReadOnly(false);
+                statement.execute("DROP ALL OBJECTS");
+                statement.execute("RUNSCRIPT FROM '" + path + "'");
+            }
+
+        } finally {
+            script.delete();
+        }
+    }
+
+    public void setShardRoutingDataSource(ShardRoutingDataSource shardRoutingDataSource) {
+
+        this.shardRoutingDataSource = shardRoutingDataSource;
+    }
+}
@@ -0,0 +1,53 @@
+package net.gsdgroup.billing.dao;
+
+import net.gsdgroup.billing.entity.ShardKeyed;
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * Sequence generator whose ids carry the bucket of their account: id = sequence value * bucket count + bucket.
+ * The sequence values are allocated on shard 0 only, so they are unique over all the shards, and the bucket
+ * is the one of the account the entity belongs to, or the one chosen for a new account.
+ *
+ * The values always come from a table, even on a database with sequences: the table is read in work of its
+ * own on a new connection, which goes to shard 0, while a sequence would be read on the connection of the
+ * transaction, which then stays on shard 0 for the rest of the transaction.
+ */
+public class ShardedIdGenerator extends SequenceStyleGenerator {
+
+    /**
+     * Hibernate setting holding the bucket count. It must match the one of the ShardMapping.
+     */
+    public static final String BUCKET_COUNT = "billing.shard.buckets";
+
+    private int bucketCount;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+
+        params.setProperty(FORCE_TBL_PARAM, "true");
+        super.configure(type, params, serviceRegistry);
+        bucketCount = ConfigurationHelper.getInt(BUCKET_COUNT,
+                serviceRegistry.getService(ConfigurationService.class).getSettings(), 1);
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object object) {
+
+        long sequenceValue = ShardContext.allocateOnSequenceShard(
+                () -> ((Number) super.generate(session, object)).longValue());
+
+        int shardKey = ((ShardKeyed) object).getShardKey();
+        int bucket = shardKey != 0 ? Math.floorMod(shardKey, bucketCount) : ShardContext.getNewAccountBucket();
+
+        return Math.toIntExact(sequenceValue * bucketCount + bucket);
+    }
+}
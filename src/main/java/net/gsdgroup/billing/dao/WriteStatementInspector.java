@@ -0,0 +1,50 @@
+package net.gsdgroup.billing.dao;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Sees every statement Hibernate prepares and notes, per thread, when one of them writes: entity inserts,
+ * updates and deletes as well as bulk and native statements. A transaction that only read is then not taken
+ * for a write. Set as hibernate.session_factory.statement_inspector; the transaction manager resets the note
+ * when a transaction completes.
+ */
+public class WriteStatementInspector implements StatementInspector {
+
+    private static final String[] WRITE_KEYWORDS = {"insert", "update", "delete", "merge", "replace"};
+
+    private static final ThreadLocal<Boolean> wrote = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+
+        if (wrote.get() == null && isWrite(sql)) {
+            wrote.set(Boolean.TRUE);
+        }
+        return sql;
+    }
+
+    /**
+     * Whether a write statement was prepared on the current thread since the last reset.
+     */
+    public static boolean hasWritten() {
+
+        return wrote.get() != null;
+    }
+
+    public static void reset() {
+
+        wrote.remove();
+    }
+
+    private static boolean isWrite(String sql) {
+
+        String statement = sql.trim();
+
+        for (String keyword : WRITE_KEYWORDS) {
+            if (statement.regionMatches(true, 0, keyword, 0, keyword.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
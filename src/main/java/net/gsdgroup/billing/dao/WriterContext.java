@@ -0,0 +1,32 @@
+package net.gsdgroup.billing.dao;
+
+/**
+ * The writer the current thread works for, so the reads that follow a write stay on the primary for the
+ * client that made it only. A request binds the token of its client; a thread without one, as a job or a
+ * test, is a writer of its own.
+ */
+public final class WriterContext {
+
+    private static final ThreadLocal<String> writer = new ThreadLocal<>();
+
+    private WriterContext() {}
+
+    public static void bind(String token) {
+
+        writer.set(token);
+    }
+
+    public static void clear() {
+
+        writer.remove();
+    }
+
+    /**
+     * The writer bound to the current thread, or the thread itself when none is bound.
+     */
+    public static String current() {
+
+        String token = writer.get();
+        return token != null ? token : "thread-" + Thread.currentThread().getId();
+    }
+}
@@ -1,5 +1,11 @@
 package net.gsdgroup.billing.entity;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 import javax.transaction.Transactional;
 import java.util.ArrayList;
@@ -7,13 +13,28 @@ import java.util.List;
 
 @Entity
 @Table(name = "account")
-public class Account {
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheRegions.ACCOUNT)
+@BatchSize(size = 100)
+public class Account implements ShardKeyed {
     //TODO  cascade remove only
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "account_id")
+    @GenericGenerator(name = "account_id", strategy = "net.gsdgroup.billing.dao.ShardedIdGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "account_id_seq"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled-lo")})
     @Column(name = "id", unique = true)
     private int id;
 
+    /**
+     * Incremented on every update; an update carrying an older version is rejected.
+     */
+    @Version
+    @Column(name = "version")
+    private int version;
+
     @Column(name = "first_name")
     private String firstName;
 
@@ -24,6 +45,8 @@ public class Account {
                cascade = CascadeType.ALL,
                orphanRemoval = true,
                 fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheRegions.ACCOUNT_BILLS)
     private List<Bill> bills = new ArrayList<>();
 
     public void addBill(Bill bill) {
@@ -38,6 +61,11 @@ public class Account {
         bill.setAccount(null);
     }
 
+    @Override
+    public int getShardKey() {
+        return id;
+    }
+
     public List<Bill> getBills() {
         return bills;
     }
@@ -54,6 +82,14 @@ public class Account {
         this.id = id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public String getFirstName() {
         return firstName;
     }
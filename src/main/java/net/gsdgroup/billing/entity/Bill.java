@@ -1,6 +1,11 @@
 package net.gsdgroup.billing.entity;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import javax.persistence.*;
 import javax.transaction.Transactional;
@@ -12,13 +17,27 @@ import java.util.List;
 
 @Entity
 @Table(name = "bill")
-public class Bill {
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheRegions.BILL)
+public class Bill implements ShardKeyed {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bill_id")
+    @GenericGenerator(name = "bill_id", strategy = "net.gsdgroup.billing.dao.ShardedIdGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "bill_id_seq"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled-lo")})
     @Column(name = "id", unique = true)
     private int id;
 
+    /**
+     * Incremented on every update; an update carrying an older version is rejected.
+     */
+    @Version
+    @Column(name = "version")
+    private int version;
+
     @Column(name = "issue_date")
     private Date issueDate;
 
@@ -32,6 +51,8 @@ public class Bill {
     @OneToMany(mappedBy = "bill",
                cascade = CascadeType.ALL,
                orphanRemoval = true,fetch = FetchType.LAZY)
+    @BatchSize(size = 100)
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheRegions.BILL_BILL_CHARGES)
     private List<BillCharge> billCharges = new ArrayList<>();
 
     public void addBillCharge(BillCharge billCharge) {
@@ -54,6 +75,11 @@ public class Bill {
         this.billCharges = billCharges;
     }
 
+    @Override
+    public int getShardKey() {
+        return account == null ? 0 : account.getId();
+    }
+
     public Account getAccount() {
         return account;
     }
@@ -70,6 +96,14 @@ public class Bill {
         this.id = id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public Date getIssueDate() {
         return issueDate;
     }
@@ -1,13 +1,25 @@
 package net.gsdgroup.billing.entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "bill_charges")
-public class BillCharge {
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = CacheRegions.BILL_CHARGE)
+public class BillCharge implements ShardKeyed {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bill_charges_id")
+    @GenericGenerator(name = "bill_charges_id", strategy = "net.gsdgroup.billing.dao.ShardedIdGenerator",
+            parameters = {
+                    @Parameter(name = "sequence_name", value = "bill_charges_id_seq"),
+                    @Parameter(name = "increment_size", value = "50"),
+                    @Parameter(name = "optimizer", value = "pooled-lo")})
     @Column(name = "id")
     private int id;
 
@@ -18,12 +30,19 @@ public class BillCharge {
     @JoinColumn(name = "bill_id")
     private Bill bill;
 
+    /**
+     * Amount and tax in minor units of the currency (cents), so they add up exactly.
+     */
     @Column(name = "amount")
-    private float amount;
+    private long amount;
 
     @Column(name = "tax")
-    private float tax;
+    private long tax;
 
+    @Override
+    public int getShardKey() {
+        return bill == null ? 0 : bill.getShardKey();
+    }
 
     public Bill getBill() {
         return bill;
@@ -49,19 +68,19 @@ public class BillCharge {
         this.chargeType = chargeType;
     }
 
-    public float getAmount() {
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
-    public float getTax() {
+    public long getTax() {
         return tax;
     }
 
-    public void setTax(float tax) {
+    public void setTax(long tax) {
         this.tax = tax;
     }
 
@@ -0,0 +1,27 @@
+package net.gsdgroup.billing.entity;
+
+/**
+ * Names of the second level cache regions. Each region is configured in ehcache.xml.
+ */
+public final class CacheRegions {
+
+    public static final String ACCOUNT = "account";
+    public static final String BILL = "bill";
+    public static final String BILL_CHARGE = "billCharge";
+    public static final String ACCOUNT_BILLS = "account.bills";
+    public static final String BILL_BILL_CHARGES = "bill.billCharges";
+
+    public static final String[] ALL = {ACCOUNT, BILL, BILL_CHARGE, ACCOUNT_BILLS, BILL_BILL_CHARGES};
+
+    /**
+     * Prefix of the query result regions of the queries that run on every shard. Each shard caches its
+     * results in its own region, as the query and its parameters are the same on all of them.
+     */
+    public static final String SHARD_QUERY_RESULTS = "query.shard";
+
+    public static String shardQueryResults(int shard) {
+        return SHARD_QUERY_RESULTS + shard;
+    }
+
+    private CacheRegions() {}
+}
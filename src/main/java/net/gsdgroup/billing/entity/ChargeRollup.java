@@ -0,0 +1,153 @@
+package net.gsdgroup.billing.entity;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Amount, tax (in minor units of the currency) and number of the charges of one charge type on the bills issued
+ * in one period: a day, a week, a month, a quarter or a year, so every charge is counted once per level. The
+ * charges without a type are kept under the empty type. The rows are kept up to date by the services that
+ * write bills.
+ */
+@Entity
+@Table(name = "charge_rollup")
+@IdClass(ChargeRollup.Key.class)
+public class ChargeRollup {
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "period_level", length = 8)
+    private RollupLevel level;
+
+    /**
+     * First day of the period, as an epoch day.
+     */
+    @Id
+    @Column(name = "period_start")
+    private int periodStart;
+
+    @Id
+    @Column(name = "charge_type")
+    private String chargeType;
+
+    @Column(name = "amount")
+    private long amount;
+
+    @Column(name = "tax")
+    private long tax;
+
+    @Column(name = "charge_count")
+    private long chargeCount;
+
+    public ChargeRollup() {}
+
+    public ChargeRollup(RollupLevel level, int periodStart, String chargeType, long amount, long tax, long chargeCount) {
+        this.level = level;
+        this.periodStart = periodStart;
+        this.chargeType = chargeType;
+        this.amount = amount;
+        this.tax = tax;
+        this.chargeCount = chargeCount;
+    }
+
+    public RollupLevel getLevel() {
+        return level;
+    }
+
+    public void setLevel(RollupLevel level) {
+        this.level = level;
+    }
+
+    public int getPeriodStart() {
+        return periodStart;
+    }
+
+    public void setPeriodStart(int periodStart) {
+        this.periodStart = periodStart;
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public void setChargeType(String chargeType) {
+        this.chargeType = chargeType;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public long getTax() {
+        return tax;
+    }
+
+    public void setTax(long tax) {
+        this.tax = tax;
+    }
+
+    public long getChargeCount() {
+        return chargeCount;
+    }
+
+    public void setChargeCount(long chargeCount) {
+        this.chargeCount = chargeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "ChargeRollup{" +
+                "level=" + level +
+                ", periodStart=" + periodStart +
+                ", chargeType='" + chargeType + '\'' +
+                ", amount=" + amount +
+                ", tax=" + tax +
+                ", chargeCount=" + chargeCount +
+                '}';
+    }
+
+    public static class Key implements Serializable {
+
+        private RollupLevel level;
+        private int periodStart;
+        private String chargeType;
+
+        public Key() {}
+
+        public Key(RollupLevel level, int periodStart, String chargeType) {
+            this.level = level;
+            this.periodStart = periodStart;
+            this.chargeType = chargeType;
+        }
+
+        public RollupLevel getLevel() {
+            return level;
+        }
+
+        public int getPeriodStart() {
+            return periodStart;
+        }
+
+        public String getChargeType() {
+            return chargeType;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return periodStart == key.periodStart && level == key.level && Objects.equals(chargeType, key.chargeType);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(level, periodStart, chargeType);
+        }
+    }
+}
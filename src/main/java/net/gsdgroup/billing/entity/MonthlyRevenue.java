@@ -0,0 +1,90 @@
+package net.gsdgroup.billing.entity;
+
+import javax.persistence.*;
+
+/**
+ * Total charged (amount + tax, in minor units of the currency) and number of charges of the bills issued in one month of one year.
+ * The rows are kept up to date by the services that write bills.
+ */
+@Entity
+@Table(name = "monthly_revenue")
+public class MonthlyRevenue {
+
+    /**
+     * year * 100 + month, e.g. 199812.
+     */
+    @Id
+    @Column(name = "month_key")
+    private int monthKey;
+
+    @Column(name = "revenue_year")
+    private int year;
+
+    @Column(name = "revenue_month")
+    private int month;
+
+    @Column(name = "amount")
+    private long amount;
+
+    @Column(name = "charge_count")
+    private long chargeCount;
+
+    public MonthlyRevenue() {}
+
+    public MonthlyRevenue(int year, int month, long amount, long chargeCount) {
+        this.monthKey = year * 100 + month;
+        this.year = year;
+        this.month = month;
+        this.amount = amount;
+        this.chargeCount = chargeCount;
+    }
+
+    public int getMonthKey() {
+        return monthKey;
+    }
+
+    public void setMonthKey(int monthKey) {
+        this.monthKey = monthKey;
+    }
+
+    public int getYear() {
+        return year;
+    }
+
+    public void setYear(int year) {
+        this.year = year;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public void setMonth(int month) {
+        this.month = month;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public long getChargeCount() {
+        return chargeCount;
+    }
+
+    public void setChargeCount(long chargeCount) {
+        this.chargeCount = chargeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "MonthlyRevenue{" +
+                "monthKey=" + monthKey +
+                ", amount=" + amount +
+                ", chargeCount=" + chargeCount +
+                '}';
+    }
+}
@@ -0,0 +1,76 @@
+package net.gsdgroup.billing.entity;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Length of the periods the charge rollup is kept for, finest first. Weeks are ISO weeks, starting on Monday.
+ */
+public enum RollupLevel {
+
+    DAY,
+    WEEK,
+    MONTH,
+    QUARTER,
+    YEAR;
+
+    /**
+     * First day of the period of this length the day falls in.
+     */
+    public LocalDate startOf(LocalDate day) {
+
+        switch (this) {
+            case WEEK:
+                return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH:
+                return day.withDayOfMonth(1);
+            case QUARTER:
+                return LocalDate.of(day.getYear(), (day.getMonthValue() - 1) / 3 * 3 + 1, 1);
+            case YEAR:
+                return day.withDayOfYear(1);
+            default:
+                return day;
+        }
+    }
+
+    /**
+     * First day of the period after the one starting on the given day.
+     */
+    public LocalDate next(LocalDate start) {
+
+        switch (this) {
+            case WEEK:
+                return start.plusWeeks(1);
+            case MONTH:
+                return start.plusMonths(1);
+            case QUARTER:
+                return start.plusMonths(3);
+            case YEAR:
+                return start.plusYears(1);
+            default:
+                return start.plusDays(1);
+        }
+    }
+
+    /**
+     * Name of the period starting on the given day: 1998-12-31, 1998-W53, 1998-12, 1998-Q4 or 1998.
+     */
+    public String label(LocalDate start) {
+
+        switch (this) {
+            case WEEK:
+                return String.format("%04d-W%02d", start.get(IsoFields.WEEK_BASED_YEAR),
+                        start.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            case MONTH:
+                return String.format("%04d-%02d", start.getYear(), start.getMonthValue());
+            case QUARTER:
+                return String.format("%04d-Q%d", start.getYear(), start.get(IsoFields.QUARTER_OF_YEAR));
+            case YEAR:
+                return String.format("%04d", start.getYear());
+            default:
+                return start.toString();
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package net.gsdgroup.billing.entity;
+
+/**
+ * An entity that is stored on the shard of an account. The shard key is the id of that account,
+ * 0 while the account itself has not been given an id.
+ */
+public interface ShardKeyed {
+
+    int getShardKey();
+}
@@ -0,0 +1,24 @@
+package net.gsdgroup.billing.exceptions;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.restlet.resource.Status;
+
+/**
+ * A write that was based on an older version of the entity than the stored one, whose current version is
+ * given so the client can read the entity again and redo its change.
+ */
+@Status(value = 409, serialize = true)
+@JsonIgnoreProperties({ "stackTrace","suppressed","localizedMessage","cause"})
+public class ConflictException extends ServiceException {
+
+    private final Integer currentVersion;
+
+    public ConflictException(String message, Integer currentVersion){
+        super(message);
+        this.currentVersion = currentVersion;
+    }
+
+    public Integer getCurrentVersion() {
+        return currentVersion;
+    }
+}
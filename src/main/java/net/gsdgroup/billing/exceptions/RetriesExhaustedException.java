@@ -0,0 +1,17 @@
+package net.gsdgroup.billing.exceptions;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.restlet.resource.Status;
+
+/**
+ * A write that kept failing on concurrent updates, deadlocks or lock wait timeouts until its retries ran out.
+ * Nothing of it was stored, so the same request can be sent again later.
+ */
+@Status(value = 503, serialize = true)
+@JsonIgnoreProperties({ "stackTrace","suppressed","localizedMessage","cause"})
+public class RetriesExhaustedException extends ServiceException {
+
+    public RetriesExhaustedException(String message){
+        super(message);
+    }
+}
@@ -4,12 +4,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.gsdgroup.billing.business.AccountService;
+import net.gsdgroup.billing.business.ConflictResponseMessage;
+import net.gsdgroup.billing.business.DataValidator;
 import net.gsdgroup.billing.business.JsonResponseMessage;
 import net.gsdgroup.billing.entity.Account;
+import net.gsdgroup.billing.exceptions.ConflictException;
+import net.gsdgroup.billing.exceptions.RetriesExhaustedException;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.exceptions.WebServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
 import net.gsdgroup.billing.webservice.accountDTO.SimpleAccountDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
 import org.hibernate.StaleObjectStateException;
 import org.restlet.data.Status;
 import org.restlet.ext.jackson.JacksonRepresentation;
@@ -31,8 +36,9 @@ public class AccountController extends ServerResource {
     private ObjectMapper mapper;
 
     /**
-     * Endpoint for requesting accounts. If the account id is missing from the parameter, it returns all accounts.
-     * Otherwise it returns the account identified by that id.
+     * Endpoint for requesting accounts. If the account id is missing from the parameter, it returns all accounts,
+     * or a single page of them when the "after" or "limit" query parameters are present.
+     * With "stream=true" all accounts are streamed as newline delimited json. Otherwise it returns the account identified by that id.
      */
     @Get("json")
     public Representation getAccounts(){
@@ -41,6 +47,14 @@ public class AccountController extends ServerResource {
 
         if(requestAttribute == null){
 
+            if(NdjsonRepresentation.isRequested(getRequest())){
+                return new NdjsonRepresentation(accountService::streamAllAccounts);
+            }
+
+            if(getQueryValue("after") != null || getQueryValue("limit") != null){
+                return getAccountsPage();
+            }
+
             List<AccountDTO> accountDTOList = accountService.getAllAccounts();
             return new JacksonRepresentation<List<AccountDTO>>(accountDTOList);
         }
@@ -66,6 +80,40 @@ public class AccountController extends ServerResource {
         }
     }
 
+    /**
+     * Returns one page of accounts ordered by id. The response holds the cursor and the link for the next page.
+     */
+    private Representation getAccountsPage(){
+
+        try{
+            String afterValue = getQueryValue("after");
+            String limitValue = getQueryValue("limit");
+            int afterId = afterValue == null ? 0 : Integer.parseInt(afterValue);
+            int limit = limitValue == null ? DataValidator.DEFAULT_PAGE_LIMIT : Integer.parseInt(limitValue);
+
+            PageDTO<AccountDTO> accountPage = accountService.getAccountsPage(afterId, limit);
+
+            if(accountPage.getNextCursor() != null){
+                accountPage.setNext("/accounts?after=" + accountPage.getNextCursor() + "&limit=" + limit);
+            }
+            return new JacksonRepresentation<PageDTO<AccountDTO>>(accountPage);
+
+        } catch (NumberFormatException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage("Missing or invalid parameter.",statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
+        } catch (ServiceException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(),statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+        }
+    }
+
     /**
      * Endpoint for deleting an account. The endpoint requires a parameter to look up the account to be deleted.
      */
@@ -78,6 +126,13 @@ public class AccountController extends ServerResource {
             accountService.deleteAccount(id);
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
         } catch (NumberFormatException e){
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -85,6 +140,14 @@ public class AccountController extends ServerResource {
             JsonResponseMessage jsonResponseMessage = new JsonResponseMessage("Missing or invalid parameter.", statusCode);
             return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
 
+        } catch (ConflictException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_CONFLICT);
+            int statusCode = getStatus().getCode();
+            ConflictResponseMessage conflictResponseMessage =
+                    new ConflictResponseMessage(e.getMessage(), statusCode, e.getCurrentVersion());
+            return new JacksonRepresentation<ConflictResponseMessage>(conflictResponseMessage);
+
         } catch (ServiceException e){
 
             getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
@@ -108,6 +171,13 @@ public class AccountController extends ServerResource {
 
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage(String.valueOf(id)));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
         } catch (JsonProcessingException | IllegalArgumentException | ServiceException e) {
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -118,21 +188,40 @@ public class AccountController extends ServerResource {
     }
 
     /**
-     * Takes an account json from the request body and updates its values accordingly. The given account json
-     * must have an id in order to be successfully updated.
+     * Takes an account json from the request body and updates its names accordingly. The account is identified
+     * by the id in the path, or else by the id in the json, and the json must carry the version the account was
+     * read with. When the account has changed since, the response is a 409 holding its current version.
      */
     @Put("json")
     public Representation updateAccount(String accountJson) {
 
         try{
-            //TODO refactor update
-/*            AccountDTO accountDTO = mapper.readValue(accountJson, AccountDTO.class);
-            int accountId = (int) getRequestAttributes().get("accountId");
-            Account accountEntity = accountService.getAccountById(accountId);
-            accountService.updateAccount(accountEntity); //2 params : accountId, BaseAccountDTO*/
-            //404 error
+            AccountDTO accountDTO = mapper.readValue(accountJson, AccountDTO.class);
+            String requestAttribute = (String) getRequestAttributes().get("accountId");
+
+            if (accountDTO != null && requestAttribute != null) {
+                accountDTO.setId(Integer.parseInt(requestAttribute));
+            }
+
+            Account accountEntity = accountService.buildAccountEntity(accountDTO);
+            accountService.updateAccount(accountEntity);
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
+        } catch (ConflictException e) {
+
+            getResponse().setStatus(Status.CLIENT_ERROR_CONFLICT);
+            int statusCode = getStatus().getCode();
+            ConflictResponseMessage conflictResponseMessage =
+                    new ConflictResponseMessage(e.getMessage(), statusCode, e.getCurrentVersion());
+            return new JacksonRepresentation<ConflictResponseMessage>(conflictResponseMessage);
+
         } catch (Exception e) {
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
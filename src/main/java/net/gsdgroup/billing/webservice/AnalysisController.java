@@ -1,18 +1,48 @@
 package net.gsdgroup.billing.webservice;
 
 import net.gsdgroup.billing.business.AccountService;
+import net.gsdgroup.billing.business.AnalysisService;
 import net.gsdgroup.billing.business.BillService;
+import net.gsdgroup.billing.business.ChargeColumnStore;
+import net.gsdgroup.billing.business.ChargeFilter;
+import net.gsdgroup.billing.business.ChargeGrouping;
+import net.gsdgroup.billing.business.ChargeRollupService;
+import net.gsdgroup.billing.business.ChargeSketchStore;
+import net.gsdgroup.billing.business.DataValidator;
+import net.gsdgroup.billing.business.OverdueBillTracker;
 import net.gsdgroup.billing.business.JsonResponseMessage;
+import net.gsdgroup.billing.business.MonthlyRevenueService;
+import net.gsdgroup.billing.dao.GroupByDimension;
+import net.gsdgroup.billing.dao.GroupByMeasure;
+import net.gsdgroup.billing.dao.GroupByQuery;
+import net.gsdgroup.billing.entity.RollupLevel;
+import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AccountTotalDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AgingReportDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxBillTotalsDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxDistinctDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxFrequencyDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ChargeTotalsDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.GroupByRowDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.OverdueBillDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.RollupTotalsDTO;
 import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
 import org.restlet.data.Status;
 import org.restlet.ext.jackson.JacksonRepresentation;
 import org.restlet.representation.Representation;
 import org.restlet.resource.Get;
+import org.restlet.resource.Post;
 import org.restlet.resource.ServerResource;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Controller class that handles custom endpoints for custom queries.
@@ -23,12 +53,30 @@ public class AnalysisController extends ServerResource {
     private AccountService accountService;
     @Autowired
     private BillService billService;
+    @Autowired
+    private MonthlyRevenueService monthlyRevenueService;
+    @Autowired
+    private ChargeColumnStore chargeColumnStore;
+    @Autowired
+    private AnalysisService analysisService;
+    @Autowired
+    private ChargeSketchStore chargeSketchStore;
+    @Autowired
+    private ChargeRollupService chargeRollupService;
+    @Autowired
+    private OverdueBillTracker overdueBillTracker;
 
     /**
      * Looks up the accounts with bills that have due date > current date.
+     * With "stream=true" the accounts are streamed as newline delimited json.
      */
     @Get("json?op=overdue_bills")
     public Representation getAllAccountsWithOverdueBills(){
+
+        if(NdjsonRepresentation.isRequested(getRequest())){
+            return new NdjsonRepresentation(accountService::streamAccountsWithOverdueBills);
+        }
+
         //TODO catch exception
         List<AccountDTO> accountDTOList = accountService.getAccountsWithOverdueBills();
         return new JacksonRepresentation<List<AccountDTO>>(accountDTOList);
@@ -43,4 +91,387 @@ public class AnalysisController extends ServerResource {
         List<MonthlyAmountDTO> monthlyAmountDTOList = billService.getTotalChargedEachMonth();
         return new JacksonRepresentation<List<MonthlyAmountDTO>>(monthlyAmountDTOList);
     }
+
+    /**
+     * Recomputes the monthly amounts from the bill charges. Used to backfill the aggregate and to repair drift.
+     */
+    @Post("json?op=rebuild_monthly_amount")
+    public Representation rebuildMonthlyChargedAmount(){
+
+        monthlyRevenueService.rebuild();
+        return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
+    }
+
+    /**
+     * Totals of the charges from the in-memory column store, without touching the database. The charges can be
+     * filtered by issue date ("from", "to"), due date ("dueFrom", "dueTo"), all dd/MM/yyyy and inclusive, by
+     * "chargeType" and by comma separated "accountIds", and broken down with "groupBy": none, year, month or
+     * charge_type.
+     */
+    @Get("json?op=charge_totals")
+    public Representation getChargeTotals(){
+
+        try{
+            ChargeFilter filter = new ChargeFilter();
+            filter.setIssuedFrom(getDateValue("from"));
+            filter.setIssuedTo(getDateValue("to"));
+            filter.setDueFrom(getDateValue("dueFrom"));
+            filter.setDueTo(getDateValue("dueTo"));
+            filter.setChargeType(getQueryValue("chargeType"));
+            filter.setAccountIds(getIdsValue("accountIds"));
+
+            List<ChargeTotalsDTO> chargeTotalsDTOList =
+                    chargeColumnStore.getTotals(filter, ChargeGrouping.parse(getQueryValue("groupBy")));
+            return new JacksonRepresentation<List<ChargeTotalsDTO>>(chargeTotalsDTOList);
+
+        } catch (ParseException | NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the in-memory column store again from the database.
+     */
+    @Post("json?op=reload_charge_store")
+    public Representation reloadChargeStore(){
+
+        try{
+            chargeColumnStore.reload();
+            return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Aggregates the charges in the database, in one statement per shard. "dimensions" lists what to group by:
+     * year_month, charge_type and account; "measures" what to compute: sum_amount, sum_tax, count and
+     * avg_amount, all three sums and the count when not given. Both are comma separated. The charges can be
+     * filtered by issue date ("from", "to"), due date ("dueFrom", "dueTo"), all dd/MM/yyyy and inclusive, and
+     * by comma separated "accountIds".
+     */
+    @Get("json?op=group_by")
+    public Representation groupBy(){
+
+        try{
+            GroupByQuery query = new GroupByQuery();
+
+            for (String dimension : getListValue("dimensions")){
+                query.addDimension(GroupByDimension.parse(dimension));
+            }
+            for (String measure : getListValue("measures")){
+                query.addMeasure(GroupByMeasure.parse(measure));
+            }
+
+            query.setIssuedFrom(getDateValue("from"));
+            query.setIssuedTo(getDateValue("to"));
+            query.setDueFrom(getDateValue("dueFrom"));
+            query.setDueTo(getDateValue("dueTo"));
+            query.setAccountIds(getIdsValue("accountIds"));
+
+            List<GroupByRowDTO> groupByRowDTOList = analysisService.groupBy(query);
+            return new JacksonRepresentation<List<GroupByRowDTO>>(groupByRowDTOList);
+
+        } catch (ParseException | NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Receivables aging as of today: the totals of the overdue charges whose bills are 0-30, 31-60, 61-90 and
+     * more than 90 days overdue, overall and for one page of accounts in id order ("after", "limit"). The
+     * response holds the cursor and the link for the next page. With "stream=true" the aging of every account
+     * is streamed as newline delimited json instead, without the overall totals.
+     */
+    @Get("json?op=aging")
+    public Representation getAging(){
+
+        if(NdjsonRepresentation.isRequested(getRequest())){
+            return new NdjsonRepresentation(analysisService::streamAging);
+        }
+
+        try{
+            String afterValue = getQueryValue("after");
+            String limitValue = getQueryValue("limit");
+            int afterId = afterValue == null ? 0 : Integer.parseInt(afterValue);
+            int limit = limitValue == null ? DataValidator.DEFAULT_PAGE_LIMIT : Integer.parseInt(limitValue);
+
+            AgingReportDTO agingReport = analysisService.getAgingReport(afterId, limit);
+
+            if(agingReport.getAccounts().getNextCursor() != null){
+                agingReport.getAccounts().setNext("/analysis?op=aging&after="
+                        + agingReport.getAccounts().getNextCursor() + "&limit=" + limit);
+            }
+            return new JacksonRepresentation<AgingReportDTO>(agingReport);
+
+        } catch (NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * The "n" accounts, 100 by default, with the highest total charged on the bills issued between "from" and
+     * "to", dd/MM/yyyy, inclusive and optional. Only the summaries of the accounts are returned, highest first.
+     */
+    @Get("json?op=top_accounts")
+    public Representation getTopAccounts(){
+
+        try{
+            String countValue = getQueryValue("n");
+            int count = countValue == null ? DataValidator.DEFAULT_TOP_ACCOUNTS : Integer.parseInt(countValue);
+
+            List<AccountTotalDTO> accountTotalDTOList =
+                    analysisService.getTopAccounts(count, getDateValue("from"), getDateValue("to"));
+            return new JacksonRepresentation<List<AccountTotalDTO>>(accountTotalDTOList);
+
+        } catch (ParseException | NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Totals per charge type of the charges on the bills issued between "from" and "to", dd/MM/yyyy, both
+     * required and inclusive, read from the rollup. "period" (day, week, month, quarter or year) breaks them
+     * down by period; "chargeType" keeps one charge type only.
+     */
+    @Get("json?op=charge_rollup")
+    public Representation getChargeRollup(){
+
+        try{
+            String periodValue = getQueryValue("period");
+            RollupLevel periodLength = periodValue == null || periodValue.isEmpty()
+                    ? null : RollupLevel.valueOf(periodValue.toUpperCase(Locale.ROOT));
+
+            List<RollupTotalsDTO> rollupTotalsDTOList = chargeRollupService.getTotals(getDateValue("from"),
+                    getDateValue("to"), periodLength, getQueryValue("chargeType"));
+            return new JacksonRepresentation<List<RollupTotalsDTO>>(rollupTotalsDTOList);
+
+        } catch (ParseException | IllegalArgumentException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Recomputes the charge rollup from the bill charges. Used to backfill it and to repair drift.
+     */
+    @Post("json?op=rebuild_charge_rollup")
+    public Representation rebuildChargeRollup(){
+
+        chargeRollupService.rebuild();
+        return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
+    }
+
+    /**
+     * Estimated numbers of distinct accounts and charge types of the bills issued in each month between "from"
+     * and "to", dd/MM/yyyy and optional, then of the whole range, from the sketches in memory.
+     */
+    @Get("json?op=approx_distinct")
+    public Representation getApproxDistinctCounts(){
+
+        try{
+            List<ApproxDistinctDTO> approxDistinctDTOList =
+                    chargeSketchStore.getDistinctCounts(getDateValue("from"), getDateValue("to"));
+            return new JacksonRepresentation<List<ApproxDistinctDTO>>(approxDistinctDTOList);
+
+        } catch (ParseException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Estimated comma separated "quantiles", 0.5,0.9,0.99 by default, of the totals of the bills issued between
+     * "from" and "to", dd/MM/yyyy and optional, from the sketches in memory.
+     */
+    @Get("json?op=approx_bill_totals")
+    public Representation getApproxBillTotals(){
+
+        try{
+            List<Double> quantiles = new ArrayList<>();
+
+            for (String quantile : getListValue("quantiles")){
+                quantiles.add(Double.parseDouble(quantile));
+            }
+            if(quantiles.isEmpty()){
+                quantiles = Arrays.asList(0.5, 0.9, 0.99);
+            }
+
+            ApproxBillTotalsDTO approxBillTotalsDTO =
+                    chargeSketchStore.getBillTotalQuantiles(quantiles, getDateValue("from"), getDateValue("to"));
+            return new JacksonRepresentation<ApproxBillTotalsDTO>(approxBillTotalsDTO);
+
+        } catch (ParseException | NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Estimated number of charges of each of the comma separated "chargeTypes", from the sketches in memory.
+     */
+    @Get("json?op=approx_charge_types")
+    public Representation getApproxChargeTypeFrequencies(){
+
+        try{
+            List<ApproxFrequencyDTO> approxFrequencyDTOList =
+                    chargeSketchStore.getChargeTypeFrequencies(getListValue("chargeTypes"));
+            return new JacksonRepresentation<List<ApproxFrequencyDTO>>(approxFrequencyDTOList);
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Builds the sketches again from the database, which drops the bills removed since the last load.
+     */
+    @Post("json?op=reload_sketches")
+    public Representation reloadSketches(){
+
+        try{
+            chargeSketchStore.reload();
+            return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * The bills due before today, of the account "accountId" only when it is given, answered from memory. Each
+     * bill comes with its due date, the days it is overdue and its total (amount + tax).
+     */
+    @Get("json?op=tracked_overdue_bills")
+    public Representation getTrackedOverdueBills(){
+
+        try{
+            String accountIdValue = getQueryValue("accountId");
+            Integer accountId = accountIdValue == null ? null : Integer.valueOf(accountIdValue);
+
+            List<OverdueBillDTO> overdueBillDTOList = overdueBillTracker.getOverdueBills(accountId);
+            return new JacksonRepresentation<List<OverdueBillDTO>>(overdueBillDTOList);
+
+        } catch (NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Loads the due dates of the bills again from the database.
+     */
+    @Post("json?op=reload_overdue_tracker")
+    public Representation reloadOverdueTracker(){
+
+        try{
+            overdueBillTracker.reload();
+            return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * The dd/MM/yyyy date of the query parameter, null when it is not given.
+     */
+    private Date getDateValue(String name) throws ParseException {
+
+        String value = getQueryValue(name);
+
+        if(value == null || value.isEmpty()){
+            return null;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        dateFormat.setLenient(false);
+        return dateFormat.parse(value);
+    }
+
+    /**
+     * The comma separated ids of the query parameter, null when it is not given.
+     */
+    private List<Integer> getIdsValue(String name) {
+
+        String value = getQueryValue(name);
+
+        if(value == null || value.isEmpty()){
+            return null;
+        }
+
+        List<Integer> ids = new ArrayList<>();
+
+        for (String id : value.split(",")){
+            ids.add(Integer.parseInt(id.trim()));
+        }
+        return ids;
+    }
+
+    /**
+     * The comma separated values of the query parameter, empty when it is not given.
+     */
+    private List<String> getListValue(String name) {
+
+        String value = getQueryValue(name);
+        List<String> values = new ArrayList<>();
+
+        if(value != null){
+            for (String item : value.split(",")){
+                if(!item.trim().isEmpty()){
+                    values.add(item.trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    private Representation badRequest(String message){
+
+        getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+        int statusCode = getStatus().getCode();
+        JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(message, statusCode);
+        return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+    }
 }
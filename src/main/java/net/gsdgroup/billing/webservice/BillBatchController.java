@@ -0,0 +1,58 @@
+package net.gsdgroup.billing.webservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.gsdgroup.billing.business.BillService;
+import net.gsdgroup.billing.business.JsonResponseMessage;
+import net.gsdgroup.billing.exceptions.RetriesExhaustedException;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.billDTO.BillBatchResultDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import org.restlet.data.Status;
+import org.restlet.ext.jackson.JacksonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.Arrays;
+
+/**
+ * Bulk bill endpoints. Unless other json data is requested the endpoint's response is a JsonResponseMessage.
+ */
+public class BillBatchController extends ServerResource {
+
+    @Autowired
+    private BillService billService;
+    @Autowired
+    private ObjectMapper mapper;
+
+    /**
+     * Takes a json array of bills from the request body and stores them in one batch. The response reports
+     * for each bill, by its index in the array, either the id it was stored with or why it was rejected.
+     */
+    @Post("json")
+    public Representation addBills(String billsJson){
+
+        try{
+            BillDTO[] billDTOs = mapper.readValue(billsJson, BillDTO[].class);
+            BillBatchResultDTO billBatchResultDTO = billService.addBills(Arrays.asList(billDTOs));
+
+            return new JacksonRepresentation<BillBatchResultDTO>(billBatchResultDTO);
+
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
+        } catch (JsonProcessingException | IllegalArgumentException | ServiceException e) {
+
+            getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+        }
+    }
+}
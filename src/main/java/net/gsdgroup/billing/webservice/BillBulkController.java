@@ -0,0 +1,107 @@
+package net.gsdgroup.billing.webservice;
+
+import net.gsdgroup.billing.business.BulkBillService;
+import net.gsdgroup.billing.business.JsonResponseMessage;
+import net.gsdgroup.billing.exceptions.ServiceException;
+import net.gsdgroup.billing.webservice.billDTO.BulkJobDTO;
+import org.restlet.data.Status;
+import org.restlet.ext.jackson.JacksonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Set-based bulk operations on bills. An operation is started with a POST, answered with 202 and the job, and
+ * runs in the background; its progress is read with a GET on /bills/bulk/{jobId}.
+ */
+public class BillBulkController extends ServerResource {
+
+    @Autowired
+    private BulkBillService bulkBillService;
+
+    /**
+     * Starts deleting every bill issued before the "before" date, given as dd/MM/yyyy.
+     */
+    @Post("json?op=delete_issued_before")
+    public Representation deleteBillsIssuedBefore(){
+
+        try{
+            SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+            dateFormat.setLenient(false);
+            String beforeValue = getQueryValue("before");
+            Date before = beforeValue == null ? null : dateFormat.parse(beforeValue);
+
+            return accepted(bulkBillService.startDeleteBillsIssuedBefore(before));
+
+        } catch (ParseException | ServiceException e) {
+
+            return badRequest(e instanceof ParseException ? "Missing or invalid date." : e.getMessage());
+        }
+    }
+
+    /**
+     * Starts moving the due dates of the bills of the account "accountId" by "days", which may be negative.
+     */
+    @Post("json?op=shift_due_dates")
+    public Representation shiftDueDates(){
+
+        try{
+            int accountId = Integer.parseInt(getQueryValue("accountId"));
+            int days = Integer.parseInt(getQueryValue("days"));
+
+            return accepted(bulkBillService.startShiftDueDates(accountId, days));
+
+        } catch (NumberFormatException e) {
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e) {
+
+            return badRequest(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the progress of a bulk job.
+     */
+    @Get("json")
+    public Representation getJob(){
+
+        try{
+            int jobId = Integer.parseInt((String) getRequestAttributes().get("jobId"));
+            return new JacksonRepresentation<BulkJobDTO>(bulkBillService.getJob(jobId));
+
+        } catch (NumberFormatException e){
+
+            return badRequest("Missing or invalid parameter.");
+
+        } catch (ServiceException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+        }
+    }
+
+    private Representation accepted(BulkJobDTO job){
+
+        getResponse().setStatus(Status.SUCCESS_ACCEPTED);
+        getResponse().setLocationRef("/bills/bulk/" + job.getId());
+        return new JacksonRepresentation<BulkJobDTO>(job);
+    }
+
+    private Representation badRequest(String message){
+
+        getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+        int statusCode = getStatus().getCode();
+        JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(message, statusCode);
+        return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+    }
+}
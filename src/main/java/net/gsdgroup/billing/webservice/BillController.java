@@ -3,10 +3,15 @@ package net.gsdgroup.billing.webservice;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.gsdgroup.billing.business.BillService;
+import net.gsdgroup.billing.business.ConflictResponseMessage;
+import net.gsdgroup.billing.business.DataValidator;
 import net.gsdgroup.billing.business.JsonResponseMessage;
 import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.exceptions.ConflictException;
+import net.gsdgroup.billing.exceptions.RetriesExhaustedException;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
 import org.restlet.data.Status;
 import org.restlet.ext.jackson.JacksonRepresentation;
 import org.restlet.representation.Representation;
@@ -25,8 +30,9 @@ public class BillController extends ServerResource {
     private ObjectMapper mapper;
 
     /**
-     * Endpoint for requesting bills. If the bill id is missing from the parameter, it returns all bills.
-     * Otherwise it returns the bill identified by that id.
+     * Endpoint for requesting bills. If the bill id is missing from the parameter, it returns all bills,
+     * or a single page of them when the "after" or "limit" query parameters are present.
+     * With "stream=true" all bills are streamed as newline delimited json. Otherwise it returns the bill identified by that id.
      */
     @Get("json")
     public Representation getBills(){
@@ -35,6 +41,14 @@ public class BillController extends ServerResource {
 
         if (requestAttribute == null) {
 
+            if (NdjsonRepresentation.isRequested(getRequest())) {
+                return new NdjsonRepresentation(billService::streamAllBills);
+            }
+
+            if (getQueryValue("after") != null || getQueryValue("limit") != null) {
+                return getBillsPage();
+            }
+
             List<BillDTO> billDTOList = billService.getAllBills();
             return new JacksonRepresentation<List<BillDTO>>(billDTOList);
         }
@@ -60,6 +74,40 @@ public class BillController extends ServerResource {
         }
     }
 
+    /**
+     * Returns one page of bills ordered by id. The response holds the cursor and the link for the next page.
+     */
+    private Representation getBillsPage(){
+
+        try {
+            String afterValue = getQueryValue("after");
+            String limitValue = getQueryValue("limit");
+            int afterId = afterValue == null ? 0 : Integer.parseInt(afterValue);
+            int limit = limitValue == null ? DataValidator.DEFAULT_PAGE_LIMIT : Integer.parseInt(limitValue);
+
+            PageDTO<BillDTO> billPage = billService.getBillsPage(afterId, limit);
+
+            if (billPage.getNextCursor() != null) {
+                billPage.setNext("/bills?after=" + billPage.getNextCursor() + "&limit=" + limit);
+            }
+            return new JacksonRepresentation<PageDTO<BillDTO>>(billPage);
+
+        } catch (NumberFormatException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage("Missing or invalid parameter.",statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
+        } catch (ServiceException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(),statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+        }
+    }
+
     /**
      * Takes the bill json from the request body and converts it into an entity to be added into the database.
      */
@@ -68,11 +116,17 @@ public class BillController extends ServerResource {
 
         try{
             BillDTO billDTO = mapper.readValue(billJson, BillDTO.class);
-            Bill billEntity = billService.buildBillEntity(billDTO);
-            int billId = billService.addBill(billEntity);
+            int billId = billService.createBill(billDTO);
 
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage(String.valueOf(billId)));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
         } catch (JsonProcessingException | IllegalArgumentException | ServiceException e) {
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -94,6 +148,13 @@ public class BillController extends ServerResource {
             billService.deleteBill(billId);
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
         } catch (NumberFormatException e){
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -101,6 +162,14 @@ public class BillController extends ServerResource {
             JsonResponseMessage jsonResponseMessage = new JsonResponseMessage("Missing or invalid parameter.", statusCode);
             return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
 
+        } catch (ConflictException e){
+
+            getResponse().setStatus(Status.CLIENT_ERROR_CONFLICT);
+            int statusCode = getStatus().getCode();
+            ConflictResponseMessage conflictResponseMessage =
+                    new ConflictResponseMessage(e.getMessage(), statusCode, e.getCurrentVersion());
+            return new JacksonRepresentation<ConflictResponseMessage>(conflictResponseMessage);
+
         } catch (ServiceException e){
 
             getResponse().setStatus(Status.CLIENT_ERROR_NOT_FOUND);
@@ -112,7 +181,8 @@ public class BillController extends ServerResource {
 
     /**
      * Takes an bill json from the request body and updates its values accordingly. The given bill json
-     * must have an id in order to be successfully updated.
+     * must have an id in order to be successfully updated, and the version the bill was read with. When the
+     * bill has changed since, the response is a 409 holding its current version.
      */
     @Put("json")
     public Representation updateBill(String billJson){
@@ -124,6 +194,21 @@ public class BillController extends ServerResource {
 
             return new JacksonRepresentation<JsonResponseMessage>(new JsonResponseMessage("Operation successful."));
 
+        } catch (RetriesExhaustedException e){
+
+            getResponse().setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+            int statusCode = getStatus().getCode();
+            JsonResponseMessage jsonResponseMessage = new JsonResponseMessage(e.getMessage(), statusCode);
+            return new JacksonRepresentation<JsonResponseMessage>(jsonResponseMessage);
+
+        } catch (ConflictException e) {
+
+            getResponse().setStatus(Status.CLIENT_ERROR_CONFLICT);
+            int statusCode = getStatus().getCode();
+            ConflictResponseMessage conflictResponseMessage =
+                    new ConflictResponseMessage(e.getMessage(), statusCode, e.getCurrentVersion());
+            return new JacksonRepresentation<ConflictResponseMessage>(conflictResponseMessage);
+
         } catch (Exception e) {
 
             getResponse().setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
@@ -0,0 +1,74 @@
+package net.gsdgroup.billing.webservice;
+
+import net.gsdgroup.billing.business.MetricsService;
+import net.gsdgroup.billing.webservice.metricsDTO.CacheRegionStatisticsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.ConflictMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.PoolMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.RoutingMetricsDTO;
+import net.gsdgroup.billing.webservice.metricsDTO.SessionMetricsDTO;
+import org.restlet.ext.jackson.JacksonRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.List;
+
+/**
+ * Controller class that exposes the runtime metrics of the application.
+ */
+public class MetricsController extends ServerResource {
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /**
+     * Gets the state and the connection acquire times of every connection pool.
+     */
+    @Get("json?op=pool")
+    public Representation getPoolMetrics(){
+
+        List<PoolMetricsDTO> poolMetricsDTOList = metricsService.getPoolMetrics();
+        return new JacksonRepresentation<List<PoolMetricsDTO>>(poolMetricsDTOList);
+    }
+
+    /**
+     * Gets the hit and miss counts of the second level cache regions and of the query cache.
+     */
+    @Get("json?op=cache")
+    public Representation getCacheStatistics(){
+
+        List<CacheRegionStatisticsDTO> cacheStatisticsDTOList = metricsService.getCacheStatistics();
+        return new JacksonRepresentation<List<CacheRegionStatisticsDTO>>(cacheStatisticsDTOList);
+    }
+
+    /**
+     * Gets how the reads were split between the primary and the replicas, and the lag of each replica.
+     */
+    @Get("json?op=routing")
+    public Representation getRoutingMetrics(){
+
+        RoutingMetricsDTO routingMetricsDTO = metricsService.getRoutingMetrics();
+        return new JacksonRepresentation<RoutingMetricsDTO>(routingMetricsDTO);
+    }
+
+    /**
+     * Gets the number of open Hibernate sessions and of the sessions requests have left open.
+     */
+    @Get("json?op=sessions")
+    public Representation getSessionMetrics(){
+
+        SessionMetricsDTO sessionMetricsDTO = metricsService.getSessionMetrics();
+        return new JacksonRepresentation<SessionMetricsDTO>(sessionMetricsDTO);
+    }
+
+    /**
+     * Gets how often writes conflicted with concurrent ones and how often they were retried.
+     */
+    @Get("json?op=conflicts")
+    public Representation getConflictMetrics(){
+
+        ConflictMetricsDTO conflictMetricsDTO = metricsService.getConflictMetrics();
+        return new JacksonRepresentation<ConflictMetricsDTO>(conflictMetricsDTO);
+    }
+}
@@ -0,0 +1,60 @@
+package net.gsdgroup.billing.webservice;
+
+import org.restlet.Request;
+import org.restlet.data.MediaType;
+import org.restlet.data.Preference;
+import org.restlet.representation.OutputRepresentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Representation that streams newline delimited json straight into the response. The content is produced
+ * while the response is written, so nothing is buffered before the first byte is sent.
+ */
+public class NdjsonRepresentation extends OutputRepresentation {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.register("application/x-ndjson",
+            "Newline delimited JSON");
+
+    private final StreamWriter streamWriter;
+
+    public NdjsonRepresentation(StreamWriter streamWriter) {
+        super(APPLICATION_NDJSON);
+        this.streamWriter = streamWriter;
+    }
+
+    @Override
+    public void write(OutputStream outputStream) throws IOException {
+
+        streamWriter.write(outputStream);
+    }
+
+    /**
+     * Streaming is requested either with the "stream=true" query parameter or by accepting application/x-ndjson.
+     */
+    public static boolean isRequested(Request request) {
+
+        String streamValue = request.getResourceRef().getQueryAsForm().getFirstValue("stream");
+
+        if ("true".equalsIgnoreCase(streamValue)) {
+            return true;
+        }
+
+        for (Preference<MediaType> preference : request.getClientInfo().getAcceptedMediaTypes()) {
+            if (APPLICATION_NDJSON.equals(preference.getMetadata())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Writes the whole content of the representation.
+     */
+    public interface StreamWriter {
+
+        void write(OutputStream outputStream) throws IOException;
+    }
+}
@@ -0,0 +1,34 @@
+package net.gsdgroup.billing.webservice;
+
+import net.gsdgroup.billing.dao.SessionLeakDetector;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.routing.Filter;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Sits in front of the router and reports every request that leaves a Hibernate session open.
+ */
+public class SessionLeakFilter extends Filter {
+
+    @Autowired
+    private SessionLeakDetector sessionLeakDetector;
+
+    @Override
+    protected int beforeHandle(Request request, Response response) {
+
+        sessionLeakDetector.checkCurrentThread();
+        return CONTINUE;
+    }
+
+    @Override
+    protected void afterHandle(Request request, Response response) {
+
+        int leaked = sessionLeakDetector.checkCurrentThread();
+
+        if (leaked > 0) {
+            getLogger().warning(leaked + " Hibernate session(s) left open by " + request.getMethod() + " "
+                    + request.getResourceRef().getPath());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package net.gsdgroup.billing.webservice;
+
+import net.gsdgroup.billing.dao.WriterContext;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.data.CookieSetting;
+import org.restlet.routing.Filter;
+
+import java.util.UUID;
+
+/**
+ * Binds the request to the writer token of its client, so the reads of a client stay on the primary after its
+ * own writes and not after the writes of the others. The token travels in a cookie; a request without one
+ * gets a new token, set on the response for the requests that follow.
+ */
+public class WriterTokenFilter extends Filter {
+
+    private static final String COOKIE_NAME = "billing_writer";
+
+    @Override
+    protected int beforeHandle(Request request, Response response) {
+
+        String token = request.getCookies().getFirstValue(COOKIE_NAME);
+
+        if (token == null || token.isEmpty()) {
+            token = UUID.randomUUID().toString();
+            response.getCookieSettings().add(new CookieSetting(0, COOKIE_NAME, token, "/", null));
+        }
+
+        WriterContext.bind(token);
+        return CONTINUE;
+    }
+
+    @Override
+    protected void afterHandle(Request request, Response response) {
+
+        WriterContext.clear();
+    }
+}
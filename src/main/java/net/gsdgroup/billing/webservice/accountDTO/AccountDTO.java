@@ -10,6 +10,7 @@ import java.util.List;
 public class AccountDTO {
 
     private int id;
+    private int version;
     private String firstName;
     private String lastName;
     @JsonManagedReference
@@ -23,6 +24,14 @@ public class AccountDTO {
         this.id = id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -0,0 +1,88 @@
+package net.gsdgroup.billing.webservice.accountDTO;
+
+import java.util.Date;
+
+/**
+ * One flat row of an account, one of its bills and one of that bill's charges, as returned by the
+ * projection queries. The bill and charge columns are null when the outer joins find nothing.
+ */
+public class AccountRowDTO {
+
+    private final int accountId;
+    private final int accountVersion;
+    private final String firstName;
+    private final String lastName;
+    private final Integer billId;
+    private final Integer billVersion;
+    private final Date issueDate;
+    private final Date dueDate;
+    private final Integer chargeId;
+    private final String chargeType;
+    private final Long amount;
+    private final Long tax;
+
+    public AccountRowDTO(Integer accountId, Integer accountVersion, String firstName, String lastName,
+                         Integer billId, Integer billVersion, Date issueDate, Date dueDate,
+                         Integer chargeId, String chargeType, Long amount, Long tax) {
+        this.accountId = accountId;
+        this.accountVersion = accountVersion;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.billId = billId;
+        this.billVersion = billVersion;
+        this.issueDate = issueDate;
+        this.dueDate = dueDate;
+        this.chargeId = chargeId;
+        this.chargeType = chargeType;
+        this.amount = amount;
+        this.tax = tax;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public int getAccountVersion() {
+        return accountVersion;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public Integer getBillId() {
+        return billId;
+    }
+
+    public Integer getBillVersion() {
+        return billVersion;
+    }
+
+    public Date getIssueDate() {
+        return issueDate;
+    }
+
+    public Date getDueDate() {
+        return dueDate;
+    }
+
+    public Integer getChargeId() {
+        return chargeId;
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public Long getAmount() {
+        return amount;
+    }
+
+    public Long getTax() {
+        return tax;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
 public class SimpleAccountDTO {
 
     private int id;
+    private int version;
     private String firstName;
     private String lastName;
 
@@ -19,6 +20,14 @@ public class SimpleAccountDTO {
         this.id = id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public String getFirstName() {
         return firstName;
     }
@@ -0,0 +1,62 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Summary of one account in a ranking: its names and the total charged (amount + tax, in minor units of the
+ * currency) over the charges counted.
+ */
+public class AccountTotalDTO {
+
+    private int accountId;
+    private String firstName;
+    private String lastName;
+    private long total;
+    private long chargeCount;
+
+    public AccountTotalDTO() {}
+
+    public AccountTotalDTO(int accountId, long total, long chargeCount) {
+        this.accountId = accountId;
+        this.total = total;
+        this.chargeCount = chargeCount;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public void setFirstName(String firstName) {
+        this.firstName = firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public void setLastName(String lastName) {
+        this.lastName = lastName;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getChargeCount() {
+        return chargeCount;
+    }
+
+    public void setChargeCount(long chargeCount) {
+        this.chargeCount = chargeCount;
+    }
+}
@@ -0,0 +1,87 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Overdue charges of one account, or of all of them, by how many days their bills are overdue. Amounts are the
+ * totals of amount + tax in minor units of the currency (cents). The account id is only set for one account and
+ * the number of accounts only for all of them; the one that is not set is left out of the json.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class AgingDTO {
+
+    private Integer accountId;
+    private Long accountCount;
+    private long days0To30;
+    private long days31To60;
+    private long days61To90;
+    private long over90Days;
+    private long total;
+    private long billCount;
+
+    public AgingDTO() {}
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Integer accountId) {
+        this.accountId = accountId;
+    }
+
+    public Long getAccountCount() {
+        return accountCount;
+    }
+
+    public void setAccountCount(Long accountCount) {
+        this.accountCount = accountCount;
+    }
+
+    public long getDays0To30() {
+        return days0To30;
+    }
+
+    public void setDays0To30(long days0To30) {
+        this.days0To30 = days0To30;
+    }
+
+    public long getDays31To60() {
+        return days31To60;
+    }
+
+    public void setDays31To60(long days31To60) {
+        this.days31To60 = days31To60;
+    }
+
+    public long getDays61To90() {
+        return days61To90;
+    }
+
+    public void setDays61To90(long days61To90) {
+        this.days61To90 = days61To90;
+    }
+
+    public long getOver90Days() {
+        return over90Days;
+    }
+
+    public void setOver90Days(long over90Days) {
+        this.over90Days = over90Days;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+
+    public long getBillCount() {
+        return billCount;
+    }
+
+    public void setBillCount(long billCount) {
+        this.billCount = billCount;
+    }
+}
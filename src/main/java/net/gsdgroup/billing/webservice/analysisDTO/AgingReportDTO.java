@@ -0,0 +1,39 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
+
+/**
+ * Receivables aging on the day asOf (dd/MM/yyyy): the overall bands and one page of the bands of each account.
+ */
+public class AgingReportDTO {
+
+    private String asOf;
+    private AgingDTO overall;
+    private PageDTO<AgingDTO> accounts;
+
+    public AgingReportDTO() {}
+
+    public String getAsOf() {
+        return asOf;
+    }
+
+    public void setAsOf(String asOf) {
+        this.asOf = asOf;
+    }
+
+    public AgingDTO getOverall() {
+        return overall;
+    }
+
+    public void setOverall(AgingDTO overall) {
+        this.overall = overall;
+    }
+
+    public PageDTO<AgingDTO> getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(PageDTO<AgingDTO> accounts) {
+        this.accounts = accounts;
+    }
+}
@@ -0,0 +1,46 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+import java.util.List;
+
+/**
+ * Estimated quantiles of the bill totals (amount + tax of the charges) of a period. Each value is off the true
+ * one by at most relativeError times it.
+ */
+public class ApproxBillTotalsDTO {
+
+    private long billCount;
+    private double relativeError;
+    private List<ApproxQuantileDTO> quantiles;
+
+    public ApproxBillTotalsDTO() {}
+
+    public ApproxBillTotalsDTO(long billCount, double relativeError, List<ApproxQuantileDTO> quantiles) {
+        this.billCount = billCount;
+        this.relativeError = relativeError;
+        this.quantiles = quantiles;
+    }
+
+    public long getBillCount() {
+        return billCount;
+    }
+
+    public void setBillCount(long billCount) {
+        this.billCount = billCount;
+    }
+
+    public double getRelativeError() {
+        return relativeError;
+    }
+
+    public void setRelativeError(double relativeError) {
+        this.relativeError = relativeError;
+    }
+
+    public List<ApproxQuantileDTO> getQuantiles() {
+        return quantiles;
+    }
+
+    public void setQuantiles(List<ApproxQuantileDTO> quantiles) {
+        this.quantiles = quantiles;
+    }
+}
@@ -0,0 +1,54 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Estimated numbers of distinct accounts and charge types of the bills issued in a period, each off by about
+ * relativeStandardError times the count (one standard error).
+ */
+public class ApproxDistinctDTO {
+
+    private String period;
+    private long accounts;
+    private long chargeTypes;
+    private double relativeStandardError;
+
+    public ApproxDistinctDTO() {}
+
+    public ApproxDistinctDTO(String period, long accounts, long chargeTypes, double relativeStandardError) {
+        this.period = period;
+        this.accounts = accounts;
+        this.chargeTypes = chargeTypes;
+        this.relativeStandardError = relativeStandardError;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(String period) {
+        this.period = period;
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(long accounts) {
+        this.accounts = accounts;
+    }
+
+    public long getChargeTypes() {
+        return chargeTypes;
+    }
+
+    public void setChargeTypes(long chargeTypes) {
+        this.chargeTypes = chargeTypes;
+    }
+
+    public double getRelativeStandardError() {
+        return relativeStandardError;
+    }
+
+    public void setRelativeStandardError(double relativeStandardError) {
+        this.relativeStandardError = relativeStandardError;
+    }
+}
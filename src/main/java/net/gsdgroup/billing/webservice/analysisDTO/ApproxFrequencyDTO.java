@@ -0,0 +1,54 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Estimated number of charges of a charge type. The estimate is never below the true count and, with the
+ * given confidence, at most maxOverestimate above it.
+ */
+public class ApproxFrequencyDTO {
+
+    private String chargeType;
+    private long count;
+    private long maxOverestimate;
+    private double confidence;
+
+    public ApproxFrequencyDTO() {}
+
+    public ApproxFrequencyDTO(String chargeType, long count, long maxOverestimate, double confidence) {
+        this.chargeType = chargeType;
+        this.count = count;
+        this.maxOverestimate = maxOverestimate;
+        this.confidence = confidence;
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public void setChargeType(String chargeType) {
+        this.chargeType = chargeType;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public long getMaxOverestimate() {
+        return maxOverestimate;
+    }
+
+    public void setMaxOverestimate(long maxOverestimate) {
+        this.maxOverestimate = maxOverestimate;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+}
@@ -0,0 +1,33 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Estimated value of a quantile of the bill totals, in minor units of the currency (cents).
+ */
+public class ApproxQuantileDTO {
+
+    private double quantile;
+    private long value;
+
+    public ApproxQuantileDTO() {}
+
+    public ApproxQuantileDTO(double quantile, long value) {
+        this.quantile = quantile;
+        this.value = value;
+    }
+
+    public double getQuantile() {
+        return quantile;
+    }
+
+    public void setQuantile(double quantile) {
+        this.quantile = quantile;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public void setValue(long value) {
+        this.value = value;
+    }
+}
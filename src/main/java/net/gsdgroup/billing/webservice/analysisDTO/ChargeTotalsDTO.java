@@ -0,0 +1,53 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Totals of the charges of one group. Amounts are in minor units of the currency (cents).
+ */
+public class ChargeTotalsDTO {
+
+    private String group;
+    private long amount;
+    private long tax;
+    private long count;
+
+    public ChargeTotalsDTO() {}
+
+    public ChargeTotalsDTO(String group, long amount, long tax, long count) {
+        this.group = group;
+        this.amount = amount;
+        this.tax = tax;
+        this.count = count;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public long getTax() {
+        return tax;
+    }
+
+    public void setTax(long tax) {
+        this.tax = tax;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
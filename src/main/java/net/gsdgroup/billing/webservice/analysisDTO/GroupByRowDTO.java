@@ -0,0 +1,84 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One group of a group-by query. Only the dimensions grouped by and the measures asked for are set; the
+ * others are left out of the json. Amounts are in minor units of the currency (cents).
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class GroupByRowDTO {
+
+    private Integer year;
+    private Integer month;
+    private String chargeType;
+    private Integer accountId;
+    private Long amount;
+    private Long tax;
+    private Long count;
+    private Double avgAmount;
+
+    public Integer getYear() {
+        return year;
+    }
+
+    public void setYear(Integer year) {
+        this.year = year;
+    }
+
+    public Integer getMonth() {
+        return month;
+    }
+
+    public void setMonth(Integer month) {
+        this.month = month;
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public void setChargeType(String chargeType) {
+        this.chargeType = chargeType;
+    }
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Integer accountId) {
+        this.accountId = accountId;
+    }
+
+    public Long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(Long amount) {
+        this.amount = amount;
+    }
+
+    public Long getTax() {
+        return tax;
+    }
+
+    public void setTax(Long tax) {
+        this.tax = tax;
+    }
+
+    public Long getCount() {
+        return count;
+    }
+
+    public void setCount(Long count) {
+        this.count = count;
+    }
+
+    public Double getAvgAmount() {
+        return avgAmount;
+    }
+
+    public void setAvgAmount(Double avgAmount) {
+        this.avgAmount = avgAmount;
+    }
+}
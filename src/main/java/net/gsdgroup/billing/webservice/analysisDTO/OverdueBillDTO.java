@@ -0,0 +1,64 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * A bill past its due date (dd/MM/yyyy), with the number of days it is overdue and the total of its charges
+ * (amount + tax, in minor units of the currency).
+ */
+public class OverdueBillDTO {
+
+    private int billId;
+    private int accountId;
+    private String dueDate;
+    private int daysOverdue;
+    private long total;
+
+    public OverdueBillDTO() {}
+
+    public OverdueBillDTO(int billId, int accountId, String dueDate, int daysOverdue, long total) {
+        this.billId = billId;
+        this.accountId = accountId;
+        this.dueDate = dueDate;
+        this.daysOverdue = daysOverdue;
+        this.total = total;
+    }
+
+    public int getBillId() {
+        return billId;
+    }
+
+    public void setBillId(int billId) {
+        this.billId = billId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getDueDate() {
+        return dueDate;
+    }
+
+    public void setDueDate(String dueDate) {
+        this.dueDate = dueDate;
+    }
+
+    public int getDaysOverdue() {
+        return daysOverdue;
+    }
+
+    public void setDaysOverdue(int daysOverdue) {
+        this.daysOverdue = daysOverdue;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public void setTotal(long total) {
+        this.total = total;
+    }
+}
@@ -0,0 +1,63 @@
+package net.gsdgroup.billing.webservice.analysisDTO;
+
+/**
+ * Totals of the charges of one charge type in one period. Amounts are in minor units of the currency (cents).
+ */
+public class RollupTotalsDTO {
+
+    private String period;
+    private String chargeType;
+    private long amount;
+    private long tax;
+    private long count;
+
+    public RollupTotalsDTO() {}
+
+    public RollupTotalsDTO(String period, String chargeType, long amount, long tax, long count) {
+        this.period = period;
+        this.chargeType = chargeType;
+        this.amount = amount;
+        this.tax = tax;
+        this.count = count;
+    }
+
+    public String getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(String period) {
+        this.period = period;
+    }
+
+    public String getChargeType() {
+        return chargeType;
+    }
+
+    public void setChargeType(String chargeType) {
+        this.chargeType = chargeType;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public long getTax() {
+        return tax;
+    }
+
+    public void setTax(long tax) {
+        this.tax = tax;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+}
@@ -0,0 +1,43 @@
+package net.gsdgroup.billing.webservice.billDTO;
+
+/**
+ * The outcome of one bill in a batch. The id is set when the bill was stored, the message when it was rejected.
+ */
+public class BillBatchItemDTO {
+
+    private int index;
+    private int id;
+    private String message;
+
+    public BillBatchItemDTO() {}
+
+    public BillBatchItemDTO(int index, int id, String message) {
+        this.index = index;
+        this.id = id;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -0,0 +1,35 @@
+package net.gsdgroup.billing.webservice.billDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BillBatchResultDTO {
+
+    private int accepted;
+    private int rejected;
+    private List<BillBatchItemDTO> items = new ArrayList<>();
+
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public void setAccepted(int accepted) {
+        this.accepted = accepted;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(int rejected) {
+        this.rejected = rejected;
+    }
+
+    public List<BillBatchItemDTO> getItems() {
+        return items;
+    }
+
+    public void setItems(List<BillBatchItemDTO> items) {
+        this.items = items;
+    }
+}
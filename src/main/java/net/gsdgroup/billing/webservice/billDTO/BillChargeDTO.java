@@ -8,8 +8,11 @@ public class BillChargeDTO {
     private String chargeType;
     @JsonBackReference
     private BillDTO bill;
-    private float amount;
-    private float tax;
+    /**
+     * Amount and tax in minor units of the currency (cents).
+     */
+    private long amount;
+    private long tax;
 
 
     public int getId() {
@@ -36,19 +39,19 @@ public class BillChargeDTO {
         this.bill = bill;
     }
 
-    public float getAmount() {
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(float amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
-    public float getTax() {
+    public long getTax() {
         return tax;
     }
 
-    public void setTax(float tax) {
+    public void setTax(long tax) {
         this.tax = tax;
     }
 }
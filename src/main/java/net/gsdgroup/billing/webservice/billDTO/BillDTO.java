@@ -12,6 +12,7 @@ import java.util.List;
 public class BillDTO {
 
     private int id;
+    private int version;
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "dd/MM/yyyy'T'HH:mm:ss")
     private Date issueDate;
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "dd/MM/yyyy'T'HH:mm:ss")
@@ -30,6 +31,14 @@ public class BillDTO {
         this.id = id;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     public Date getIssueDate() {
         return issueDate;
     }
@@ -0,0 +1,84 @@
+package net.gsdgroup.billing.webservice.billDTO;
+
+/**
+ * Progress of a bulk operation on bills. The status is RUNNING until every chunk is done, then DONE, or FAILED
+ * with the error in the message. The chunks committed before a failure stay committed.
+ */
+public class BulkJobDTO {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private int id;
+    private String operation;
+    private String status;
+    private int processed;
+    private int chunks;
+    private String message;
+
+    public BulkJobDTO() {}
+
+    public BulkJobDTO(int id, String operation) {
+        this.id = id;
+        this.operation = operation;
+        this.status = RUNNING;
+    }
+
+    public BulkJobDTO(BulkJobDTO other) {
+        this.id = other.id;
+        this.operation = other.operation;
+        this.status = other.status;
+        this.processed = other.processed;
+        this.chunks = other.chunks;
+        this.message = other.message;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public void setProcessed(int processed) {
+        this.processed = processed;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
@@ -8,21 +8,24 @@ import javax.persistence.SqlResultSetMapping;
 
 public class MonthlyAmountDTO {
 
-    private double amount;
+    /**
+     * Total charged in minor units of the currency (cents).
+     */
+    private long amount;
     private String monthName;
 
     public MonthlyAmountDTO() {}
 
-    public MonthlyAmountDTO(double amount, String monthName) {
+    public MonthlyAmountDTO(long amount, String monthName) {
         this.amount = amount;
         this.monthName = monthName;
     }
 
-    public double getAmount() {
+    public long getAmount() {
         return amount;
     }
 
-    public void setAmount(double amount) {
+    public void setAmount(long amount) {
         this.amount = amount;
     }
 
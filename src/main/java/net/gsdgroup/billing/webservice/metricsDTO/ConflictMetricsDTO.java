@@ -0,0 +1,61 @@
+package net.gsdgroup.billing.webservice.metricsDTO;
+
+public class ConflictMetricsDTO {
+
+    private long versionConflictCount;
+    private long optimisticFailureCount;
+    private long deadlockCount;
+    private long retryCount;
+    private long exhaustedCount;
+
+    public ConflictMetricsDTO() {}
+
+    public ConflictMetricsDTO(long versionConflictCount, long optimisticFailureCount, long deadlockCount,
+                              long retryCount, long exhaustedCount) {
+        this.versionConflictCount = versionConflictCount;
+        this.optimisticFailureCount = optimisticFailureCount;
+        this.deadlockCount = deadlockCount;
+        this.retryCount = retryCount;
+        this.exhaustedCount = exhaustedCount;
+    }
+
+    public long getVersionConflictCount() {
+        return versionConflictCount;
+    }
+
+    public void setVersionConflictCount(long versionConflictCount) {
+        this.versionConflictCount = versionConflictCount;
+    }
+
+    public long getOptimisticFailureCount() {
+        return optimisticFailureCount;
+    }
+
+    public void setOptimisticFailureCount(long optimisticFailureCount) {
+        this.optimisticFailureCount = optimisticFailureCount;
+    }
+
+    public long getDeadlockCount() {
+        return deadlockCount;
+    }
+
+    public void setDeadlockCount(long deadlockCount) {
+        this.deadlockCount = deadlockCount;
+    }
+
+    public long getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(long retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    public long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+    public void setExhaustedCount(long exhaustedCount) {
+        this.exhaustedCount = exhaustedCount;
+    }
+}
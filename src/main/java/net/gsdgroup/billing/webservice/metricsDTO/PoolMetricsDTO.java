@@ -0,0 +1,89 @@
+package net.gsdgroup.billing.webservice.metricsDTO;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PoolMetricsDTO {
+
+    private String poolName;
+    private int activeConnections;
+    private int idleConnections;
+    private int totalConnections;
+    private int pendingThreads;
+    private long acquireCount;
+    private long timeoutCount;
+    private double averageAcquireMillis;
+    private Map<String, Long> acquireTimeHistogram = new LinkedHashMap<>();
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    public void setPoolName(String poolName) {
+        this.poolName = poolName;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public void setActiveConnections(int activeConnections) {
+        this.activeConnections = activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public void setIdleConnections(int idleConnections) {
+        this.idleConnections = idleConnections;
+    }
+
+    public int getTotalConnections() {
+        return totalConnections;
+    }
+
+    public void setTotalConnections(int totalConnections) {
+        this.totalConnections = totalConnections;
+    }
+
+    public int getPendingThreads() {
+        return pendingThreads;
+    }
+
+    public void setPendingThreads(int pendingThreads) {
+        this.pendingThreads = pendingThreads;
+    }
+
+    public long getAcquireCount() {
+        return acquireCount;
+    }
+
+    public void setAcquireCount(long acquireCount) {
+        this.acquireCount = acquireCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+
+    public void setTimeoutCount(long timeoutCount) {
+        this.timeoutCount = timeoutCount;
+    }
+
+    public double getAverageAcquireMillis() {
+        return averageAcquireMillis;
+    }
+
+    public void setAverageAcquireMillis(double averageAcquireMillis) {
+        this.averageAcquireMillis = averageAcquireMillis;
+    }
+
+    public Map<String, Long> getAcquireTimeHistogram() {
+        return acquireTimeHistogram;
+    }
+
+    public void setAcquireTimeHistogram(Map<String, Long> acquireTimeHistogram) {
+        this.acquireTimeHistogram = acquireTimeHistogram;
+    }
+}
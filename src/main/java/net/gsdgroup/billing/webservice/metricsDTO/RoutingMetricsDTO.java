@@ -0,0 +1,51 @@
+package net.gsdgroup.billing.webservice.metricsDTO;
+
+public class RoutingMetricsDTO {
+
+    private long primaryReadCount;
+    private long replicaReadCount;
+    private long[] replicaLagSeconds;
+    private int stickyWriterCount;
+
+    public RoutingMetricsDTO() {}
+
+    public RoutingMetricsDTO(long primaryReadCount, long replicaReadCount, long[] replicaLagSeconds,
+                             int stickyWriterCount) {
+        this.primaryReadCount = primaryReadCount;
+        this.replicaReadCount = replicaReadCount;
+        this.replicaLagSeconds = replicaLagSeconds;
+        this.stickyWriterCount = stickyWriterCount;
+    }
+
+    public long getPrimaryReadCount() {
+        return primaryReadCount;
+    }
+
+    public void setPrimaryReadCount(long primaryReadCount) {
+        this.primaryReadCount = primaryReadCount;
+    }
+
+    public long getReplicaReadCount() {
+        return replicaReadCount;
+    }
+
+    public void setReplicaReadCount(long replicaReadCount) {
+        this.replicaReadCount = replicaReadCount;
+    }
+
+    public long[] getReplicaLagSeconds() {
+        return replicaLagSeconds;
+    }
+
+    public void setReplicaLagSeconds(long[] replicaLagSeconds) {
+        this.replicaLagSeconds = replicaLagSeconds;
+    }
+
+    public int getStickyWriterCount() {
+        return stickyWriterCount;
+    }
+
+    public void setStickyWriterCount(int stickyWriterCount) {
+        this.stickyWriterCount = stickyWriterCount;
+    }
+}
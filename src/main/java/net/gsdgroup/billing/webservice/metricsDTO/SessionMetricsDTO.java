@@ -0,0 +1,61 @@
+package net.gsdgroup.billing.webservice.metricsDTO;
+
+public class SessionMetricsDTO {
+
+    private long openedCount;
+    private long closedCount;
+    private long openCount;
+    private long leakedCount;
+    private long leakingRequestCount;
+
+    public SessionMetricsDTO() {}
+
+    public SessionMetricsDTO(long openedCount, long closedCount, long openCount, long leakedCount,
+                             long leakingRequestCount) {
+        this.openedCount = openedCount;
+        this.closedCount = closedCount;
+        this.openCount = openCount;
+        this.leakedCount = leakedCount;
+        this.leakingRequestCount = leakingRequestCount;
+    }
+
+    public long getOpenedCount() {
+        return openedCount;
+    }
+
+    public void setOpenedCount(long openedCount) {
+        this.openedCount = openedCount;
+    }
+
+    public long getClosedCount() {
+        return closedCount;
+    }
+
+    public void setClosedCount(long closedCount) {
+        this.closedCount = closedCount;
+    }
+
+    public long getOpenCount() {
+        return openCount;
+    }
+
+    public void setOpenCount(long openCount) {
+        this.openCount = openCount;
+    }
+
+    public long getLeakedCount() {
+        return leakedCount;
+    }
+
+    public void setLeakedCount(long leakedCount) {
+        this.leakedCount = leakedCount;
+    }
+
+    public long getLeakingRequestCount() {
+        return leakingRequestCount;
+    }
+
+    public void setLeakingRequestCount(long leakingRequestCount) {
+        this.leakingRequestCount = leakingRequestCount;
+    }
+}
@@ -0,0 +1,56 @@
+package net.gsdgroup.billing.webservice.pageDTO;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One page of a keyset paginated collection. When nextCursor is null there are no more pages,
+ * otherwise it is the value the client passes as the "after" parameter to get the next page.
+ */
+public class PageDTO<T> {
+
+    private List<T> items = new ArrayList<>();
+    private int limit;
+    private Integer nextCursor;
+    private String next;
+
+    public PageDTO() {}
+
+    public PageDTO(List<T> items, int limit, Integer nextCursor) {
+        this.items = items;
+        this.limit = limit;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public void setItems(List<T> items) {
+        this.items = items;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public Integer getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(Integer nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+}
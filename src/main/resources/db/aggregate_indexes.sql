@@ -0,0 +1,5 @@
+-- Run on every shard. Indexes for the aggregate reports of /analysis, which filter the bills by issue date, due
+-- date or account before joining their charges. The charges are reached through their bill_id foreign key.
+
+CREATE INDEX bill_issue_date_idx ON bill (issue_date, account_id);
+CREATE INDEX bill_due_date_idx ON bill (due_date, account_id);
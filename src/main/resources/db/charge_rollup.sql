@@ -0,0 +1,15 @@
+-- Run on every shard. Charge rollup read by /analysis?op=charge_rollup: amount, tax and number of the charges per
+-- charge type and per day, ISO week, month, quarter and year of the issue date, each period stored as the epoch
+-- day it starts on. BillService, BulkBillService and AccountService keep it up to date in the transaction that
+-- writes the bills. Once the table exists, POST /analysis?op=rebuild_charge_rollup fills it from the bill
+-- charges, which is also how drift is repaired.
+
+CREATE TABLE IF NOT EXISTS charge_rollup (
+    period_level VARCHAR(8)   NOT NULL,
+    period_start INT          NOT NULL,
+    charge_type  VARCHAR(255) NOT NULL,
+    amount       BIGINT       NOT NULL,
+    tax          BIGINT       NOT NULL,
+    charge_count BIGINT       NOT NULL,
+    PRIMARY KEY (period_level, period_start, charge_type)
+);
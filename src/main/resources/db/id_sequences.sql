@@ -0,0 +1,19 @@
+-- Id allocation tables used by the pooled-lo generators of Account, Bill and BillCharge.
+-- Each table holds one row with the first id of the next block of 50 ids. Application instances
+-- reserve a block by advancing the row in its own transaction, then hand out the ids from memory.
+-- The tables are seeded after the highest existing id, so ids already in use are never handed out again.
+
+CREATE TABLE IF NOT EXISTS account_id_seq (next_val BIGINT NOT NULL);
+INSERT INTO account_id_seq (next_val)
+    SELECT COALESCE(MAX(id), 0) + 1 FROM account
+    WHERE NOT EXISTS (SELECT 1 FROM account_id_seq);
+
+CREATE TABLE IF NOT EXISTS bill_id_seq (next_val BIGINT NOT NULL);
+INSERT INTO bill_id_seq (next_val)
+    SELECT COALESCE(MAX(id), 0) + 1 FROM bill
+    WHERE NOT EXISTS (SELECT 1 FROM bill_id_seq);
+
+CREATE TABLE IF NOT EXISTS bill_charges_id_seq (next_val BIGINT NOT NULL);
+INSERT INTO bill_charges_id_seq (next_val)
+    SELECT COALESCE(MAX(id), 0) + 1 FROM bill_charges
+    WHERE NOT EXISTS (SELECT 1 FROM bill_charges_id_seq);
@@ -0,0 +1,18 @@
+-- Run on every shard, after monthly_revenue.sql. Money is stored as a whole number of minor units of the currency
+-- (cents) so that amounts and their totals are exact. The charges are converted in place, then the monthly revenue
+-- is converted to BIGINT and recomputed from them.
+
+ALTER TABLE bill_charges MODIFY amount DECIMAL(19, 4) NOT NULL, MODIFY tax DECIMAL(19, 4) NOT NULL;
+UPDATE bill_charges SET amount = ROUND(amount * 100), tax = ROUND(tax * 100);
+ALTER TABLE bill_charges MODIFY amount BIGINT NOT NULL, MODIFY tax BIGINT NOT NULL;
+
+ALTER TABLE monthly_revenue MODIFY amount BIGINT NOT NULL;
+
+DELETE FROM monthly_revenue;
+
+INSERT INTO monthly_revenue (month_key, revenue_year, revenue_month, amount, charge_count)
+    SELECT YEAR(b.issue_date) * 100 + MONTH(b.issue_date), YEAR(b.issue_date), MONTH(b.issue_date),
+           SUM(bc.amount + bc.tax), COUNT(bc.id)
+    FROM bill_charges bc
+    JOIN bill b ON bc.bill_id = b.id
+    GROUP BY YEAR(b.issue_date), MONTH(b.issue_date);
@@ -0,0 +1,20 @@
+-- Monthly revenue aggregate read by /analysis?op=monthly_amount. BillService and AccountService keep it
+-- up to date in the transaction that writes the bills. This script creates it and backfills it once;
+-- POST /analysis?op=rebuild_monthly_amount recomputes it from the bill charges at any time.
+
+CREATE TABLE IF NOT EXISTS monthly_revenue (
+    month_key     INT    NOT NULL PRIMARY KEY,
+    revenue_year  INT    NOT NULL,
+    revenue_month INT    NOT NULL,
+    amount        DOUBLE NOT NULL,
+    charge_count  BIGINT NOT NULL
+);
+
+DELETE FROM monthly_revenue;
+
+INSERT INTO monthly_revenue (month_key, revenue_year, revenue_month, amount, charge_count)
+    SELECT YEAR(b.issue_date) * 100 + MONTH(b.issue_date), YEAR(b.issue_date), MONTH(b.issue_date),
+           SUM(bc.amount + bc.tax), COUNT(bc.id)
+    FROM bill_charges bc
+    JOIN bill b ON bc.bill_id = b.id
+    GROUP BY YEAR(b.issue_date), MONTH(b.issue_date);
@@ -0,0 +1,55 @@
+-- Run on shard 0 once, with the application stopped, before the ids carry a bucket (id = sequence value *
+-- bucket count + bucket). @buckets must equal db.shard.buckets.
+--
+-- The ids given before this were plain sequence values, so the bucket of a bill or a charge, its id modulo
+-- the bucket count, is not the one of its account. An account keeps its id, which gives its bucket; its
+-- bills and charges are given new ids in that bucket, after the highest existing id so that the new ids
+-- never meet an old one. The sequences are then moved past the new ids.
+--
+-- All the data is still on shard 0 afterwards, which is enough with db.shard.count=1. To spread it over
+-- several shards, copy the account, bill and bill_charges rows whose MOD(id, @buckets) is one of the
+-- buckets of a shard to that shard, delete them from shard 0, then rebuild the monthly revenue and the
+-- charge rollup.
+
+SET @buckets = 16;
+
+SET FOREIGN_KEY_CHECKS = 0;
+
+CREATE TEMPORARY TABLE bill_rekey (old_id INT NOT NULL PRIMARY KEY, new_id INT NOT NULL);
+
+SET @first = (SELECT COALESCE(MAX(id), 0) FROM bill) DIV @buckets + 1;
+
+INSERT INTO bill_rekey (old_id, new_id)
+    SELECT id, (@first + ROW_NUMBER() OVER (ORDER BY id) - 1) * @buckets + MOD(account_id, @buckets)
+    FROM bill;
+
+UPDATE bill b JOIN bill_rekey r ON b.id = r.old_id SET b.id = r.new_id;
+UPDATE bill_charges bc JOIN bill_rekey r ON bc.bill_id = r.old_id SET bc.bill_id = r.new_id;
+
+CREATE TEMPORARY TABLE bill_charges_rekey (old_id INT NOT NULL PRIMARY KEY, new_id INT NOT NULL);
+
+SET @first = (SELECT COALESCE(MAX(id), 0) FROM bill_charges) DIV @buckets + 1;
+
+INSERT INTO bill_charges_rekey (old_id, new_id)
+    SELECT bc.id, (@first + ROW_NUMBER() OVER (ORDER BY bc.id) - 1) * @buckets + MOD(b.account_id, @buckets)
+    FROM bill_charges bc
+    JOIN bill b ON bc.bill_id = b.id;
+
+UPDATE bill_charges bc JOIN bill_charges_rekey r ON bc.id = r.old_id SET bc.id = r.new_id;
+
+DROP TEMPORARY TABLE bill_rekey;
+DROP TEMPORARY TABLE bill_charges_rekey;
+
+SET FOREIGN_KEY_CHECKS = 1;
+
+UPDATE account_id_seq
+    SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) FROM account) DIV @buckets + 1);
+
+UPDATE bill_id_seq
+    SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) FROM bill) DIV @buckets + 1);
+
+UPDATE bill_charges_id_seq
+    SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) FROM bill_charges) DIV @buckets + 1);
+
+-- Every other shard needs the account, bill, bill_charges, monthly_revenue and charge_rollup tables only;
+-- the id sequences stay on shard 0.
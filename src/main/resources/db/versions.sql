@@ -0,0 +1,5 @@
+-- Run on every shard. Version columns for optimistic locking. Every update of an account or a bill increments its version and
+-- is rejected when the row was changed since it was read. Existing rows start at version 0.
+
+ALTER TABLE account ADD COLUMN version INT NOT NULL DEFAULT 0;
+ALTER TABLE bill ADD COLUMN version INT NOT NULL DEFAULT 0;
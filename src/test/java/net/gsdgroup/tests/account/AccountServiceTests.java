@@ -1,23 +1,35 @@
 package net.gsdgroup.tests.account;
 
 import net.gsdgroup.billing.business.AccountService;
+import net.gsdgroup.billing.business.DataSeedService;
+import net.gsdgroup.billing.dao.EmbeddedReplicator;
+import net.gsdgroup.billing.dao.ReplicaRoutingDataSource;
+import net.gsdgroup.billing.dao.SessionTracker;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.exceptions.ConflictException;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
 import net.gsdgroup.billing.webservice.accountDTO.SimpleAccountDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillChargeDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.persistence.NoResultException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -34,6 +46,10 @@ public class AccountServiceTests {
 
     private static AccountService accountService;
     private static SessionFactory sessionFactory;
+    private static EmbeddedReplicator replicator;
+    private static ReplicaRoutingDataSource routingDataSource;
+    private static PlatformTransactionManager transactionManager;
+    private static DataSeedService dataSeedService;
 
     /**
      * Starts the Spring context. And fetches all the beans necessary.
@@ -45,10 +61,15 @@ public class AccountServiceTests {
 
         accountService = context.getBean(AccountService.class);
         sessionFactory = context.getBean(SessionFactory.class);
+        replicator = context.getBeanProvider(EmbeddedReplicator.class).getIfAvailable();
+        routingDataSource = context.getBean(ReplicaRoutingDataSource.class);
+        transactionManager = context.getBean(PlatformTransactionManager.class);
+        dataSeedService = context.getBean(DataSeedService.class);
     }
 
     /**
-     * Deletes all data from all the tables. This ensures that each test runs on a clean database.
+     * Deletes all data from all the tables. This ensures that each test runs on a clean database, and on a clean
+     * replica in the embedded profile.
      */
     @Before
     public void deleteTableData(){
@@ -59,9 +80,15 @@ public class AccountServiceTests {
             session.createQuery("DELETE FROM BillCharge").executeUpdate();
             session.createQuery("DELETE FROM Bill").executeUpdate();
             session.createQuery("DELETE FROM Account").executeUpdate();
+            session.createQuery("DELETE FROM MonthlyRevenue").executeUpdate();
+            session.createQuery("DELETE FROM ChargeRollup").executeUpdate();
 
             txn.commit();
         }
+
+        if(replicator != null){
+            replicator.catchUp();
+        }
     }
 
     /**
@@ -106,8 +133,8 @@ public class AccountServiceTests {
 
         assertEquals(1,billChargeDTO.getId());
         assertEquals("Test",billChargeDTO.getChargeType());
-        assertEquals(10f,billChargeDTO.getTax(),0.0f);
-        assertEquals(10f,billChargeDTO.getAmount(),0.0f);
+        assertEquals(1000,billChargeDTO.getTax());
+        assertEquals(1000,billChargeDTO.getAmount());
         assertEquals(billDTO, billChargeDTO.getBill());
     }
 
@@ -163,8 +190,8 @@ public class AccountServiceTests {
 
         assertEquals(1,billChargeEntity.getId());
         assertEquals("Test",billChargeEntity.getChargeType());
-        assertEquals(10f,billChargeEntity.getTax(),0.0f);
-        assertEquals(10f,billChargeEntity.getAmount(),0.0f);
+        assertEquals(1000,billChargeEntity.getTax());
+        assertEquals(1000,billChargeEntity.getAmount());
         assertEquals(billEntity, billChargeEntity.getBill());
 
     }
@@ -385,6 +412,152 @@ public class AccountServiceTests {
         assertEquals(true,listMatch);
     }
 
+    /**
+     * Loads 3 accounts with 2 bills each. The accounts come with their bills in one query and the
+     * bill charges are batch fetched, so the statement count does not depend on the number of bills.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetAllAccountsStatementCount() throws ParseException {
+
+        for (int i = 0; i < 3; i++){
+
+            Account account = createAccount();
+            account.addBill(createBills(account).get(0));
+            account.addBill(createBills(account).get(0));
+
+            for (Bill bill : account.getBills()){
+                bill.setId(0);
+                bill.getBillCharges().get(0).setId(0);
+            }
+            accountService.addAccount(account);
+        }
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        List<AccountDTO> accountDTOList = accountService.getAllAccounts();
+
+        assertEquals(3, accountDTOList.size());
+        assertEquals(2, accountDTOList.get(0).getBills().size());
+        assertTrue(statistics.getPrepareStatementCount() <= 2);
+    }
+
+    /**
+     * Reads run in read-only transactions, so the session is never flushed and the loaded accounts
+     * are never dirty checked.
+     */
+    @Test
+    public void testGetAllAccountsWithoutFlush(){
+
+        populateAccountTable();
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        List<AccountDTO> accountDTOList = accountService.getAllAccounts();
+
+        assertEquals(3, accountDTOList.size());
+        assertEquals(0, statistics.getFlushCount());
+    }
+
+    /**
+     * Reads run in the session bound to their transaction, which is closed with it. No session opened
+     * by the calls may be left open on the thread.
+     */
+    @Test
+    public void testReadsLeaveNoSessionOpen(){
+
+        List<Account> accountList = populateAccountTable();
+
+        SessionTracker.resetCurrentThread();
+        long openedCount = SessionTracker.getOpenedCount();
+
+        accountService.getAllAccounts();
+        accountService.getAccountById(accountList.get(0).getId());
+        accountService.getAccountsWithOverdueBills();
+
+        assertTrue(SessionTracker.getOpenedCount() > openedCount);
+        assertEquals(0, SessionTracker.getOpenOnCurrentThread());
+    }
+
+    /**
+     * Pages through 3 accounts two at a time. The first page carries a cursor to the second one,
+     * the second page holds the remaining account and has no cursor.
+     */
+    @Test
+    public void testGetAccountsPage(){
+
+        List<Account> accountList = populateAccountTable();
+
+        PageDTO<AccountDTO> firstPage = accountService.getAccountsPage(0, 2);
+
+        assertEquals(2, firstPage.getItems().size());
+        assertEquals(accountList.get(0).getId(), firstPage.getItems().get(0).getId());
+        assertEquals(Integer.valueOf(accountList.get(1).getId()), firstPage.getNextCursor());
+
+        PageDTO<AccountDTO> secondPage = accountService.getAccountsPage(firstPage.getNextCursor(), 2);
+
+        assertEquals(1, secondPage.getItems().size());
+        assertEquals(accountList.get(2).getId(), secondPage.getItems().get(0).getId());
+        assertNull(secondPage.getNextCursor());
+    }
+
+    /**
+     * Streams 3 accounts as newline delimited json. Each line must hold one account, in id order.
+     * @throws IOException
+     */
+    @Test
+    public void testStreamAllAccounts() throws IOException {
+
+        List<Account> accountList = populateAccountTable();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        accountService.streamAllAccounts(outputStream);
+
+        String[] lines = outputStream.toString("UTF-8").split("\n");
+
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].contains("\"id\":" + accountList.get(0).getId()));
+        assertTrue(lines[2].contains("\"firstName\":\"TestFirstName2\""));
+    }
+
+    /**
+     * Streams an account with 2 bills. The account comes on one line with both its bills and their charges,
+     * read with a single projection query.
+     * @throws IOException
+     * @throws ParseException
+     */
+    @Test
+    public void testStreamAllAccounts_WithBills() throws IOException, ParseException {
+
+        Account account = createAccount();
+        account.addBill(createBills(account).get(0));
+        account.addBill(createBills(account).get(0));
+
+        for (Bill bill : account.getBills()){
+            bill.setId(0);
+            bill.getBillCharges().get(0).setId(0);
+        }
+        int id = accountService.addAccount(account);
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        accountService.streamAllAccounts(outputStream);
+
+        String[] lines = outputStream.toString("UTF-8").split("\n");
+
+        assertEquals(1, lines.length);
+        assertTrue(lines[0].contains("\"id\":" + id));
+        assertEquals(2, lines[0].split("\"issueDate\"").length - 1);
+        assertTrue(statistics.getPrepareStatementCount() <= 1);
+
+        statistics.setStatisticsEnabled(false);
+    }
+
     /**
      * Happy flow for updating an account. For a retrieved account a value is updated.
      *
@@ -488,6 +661,35 @@ public class AccountServiceTests {
         }
     }
 
+    /**
+     * Two updates based on the same read. The first one succeeds, the second one carries an old version and is
+     * rejected with the current version of the account.
+     */
+    @Test
+    public void testUpdateAccount_3(){
+
+        int id = accountService.addAccount(createAccount());
+        AccountDTO accountDTO = accountService.getAccountById(id);
+
+        accountDTO.setLastName("TestLastNameUpdated");
+        accountService.updateAccount(accountService.buildAccountEntity(accountDTO));
+
+        accountDTO.setLastName("TestLastNameStale");
+
+        try{
+            accountService.updateAccount(accountService.buildAccountEntity(accountDTO));
+            fail("Expecting ConflictException.");
+
+        } catch (ConflictException e){
+            assertEquals(Integer.valueOf(accountDTO.getVersion() + 1), e.getCurrentVersion());
+        }
+
+        AccountDTO updatedAccountDTO = accountService.getAccountById(id);
+
+        assertEquals("TestLastNameUpdated", updatedAccountDTO.getLastName());
+        assertEquals(accountDTO.getVersion() + 1, updatedAccountDTO.getVersion());
+    }
+
     /**
      * Attemps to execute the update method on a null object.
      */
@@ -527,6 +729,89 @@ public class AccountServiceTests {
         assertEquals("TestLastName", accountDTO.getLastName());
     }
 
+    /**
+     * Reads the account right after adding it. The write makes the reads stick to the primary for a while,
+     * so the account is found even if the replica has not caught up. In the embedded profile the replica is
+     * paused, so it really has not.
+     */
+    @Test
+    public void testGetAccountByIdAfterWrite(){
+
+        if(replicator != null){
+            replicator.pause();
+        }
+
+        try {
+            Account account = createAccount();
+            int id = accountService.addAccount(account);
+
+            assertTrue(routingDataSource.isWithinStickinessWindow());
+
+            long primaryReadCount = routingDataSource.getPrimaryReadCount();
+            long replicaReadCount = routingDataSource.getReplicaReadCount();
+            AccountDTO accountDTO = accountService.getAccountById(id);
+
+            assertEquals("TestFirstName", accountDTO.getFirstName());
+            assertTrue(routingDataSource.getPrimaryReadCount() > primaryReadCount);
+            assertEquals(replicaReadCount, routingDataSource.getReplicaReadCount());
+
+        } finally {
+            if(replicator != null){
+                replicator.resume();
+            }
+        }
+    }
+
+    /**
+     * A read-only transaction of a writer that has not written goes to the replica of the embedded profile:
+     * while the replica is paused it does not see the new account, once the replica has caught up it does.
+     */
+    @Test
+    public void testReadOnlyTransactionsReadTheReplica() throws InterruptedException {
+
+        Assume.assumeNotNull(replicator);
+        awaitReplicaInUse();
+
+        replicator.pause();
+
+        try {
+            accountService.addAccount(createAccount());
+
+            long replicaReadCount = routingDataSource.getReplicaReadCount();
+
+            assertEquals(0, countAccountsOfOtherWriter());
+            assertTrue(routingDataSource.getReplicaReadCount() > replicaReadCount);
+
+        } finally {
+            replicator.resume();
+        }
+
+        assertEquals(1, countAccountsOfOtherWriter());
+    }
+
+    /**
+     * The write of one writer does not hold the reads of another on the primary, and a read-write transaction
+     * that writes nothing does not hold the reads of its own writer.
+     */
+    @Test
+    public void testStickinessIsPerWriter() throws InterruptedException {
+
+        int id = accountService.addAccount(createAccount());
+        boolean[] sticky = new boolean[2];
+
+        Thread otherWriter = new Thread(() -> {
+            sticky[0] = routingDataSource.isWithinStickinessWindow();
+            new TransactionTemplate(transactionManager).execute(status -> accountService.getAccountById(id));
+            sticky[1] = routingDataSource.isWithinStickinessWindow();
+        });
+        otherWriter.start();
+        otherWriter.join();
+
+        assertTrue(routingDataSource.isWithinStickinessWindow());
+        assertFalse(sticky[0]);
+        assertFalse(sticky[1]);
+    }
+
     /**
      * Get an account by an invalid id. In this case the given id cannot be found.
      */
@@ -552,6 +837,33 @@ public class AccountServiceTests {
         }
     }
 
+    /**
+     * Get an account with a bill and a charge by its id. The account is read with a single projection
+     * query, so the bill and its charge must come with it.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetAccountById_3() throws ParseException {
+
+        Account account = createAccount();
+        Bill bill = createBills(account).get(0);
+        bill.setId(0);
+        bill.getBillCharges().get(0).setId(0);
+        account.addBill(bill);
+        int id = accountService.addAccount(account);
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        AccountDTO accountDTO = accountService.getAccountById(id);
+
+        assertEquals(1, accountDTO.getBills().size());
+        assertEquals(bill.getId(), accountDTO.getBills().get(0).getId());
+        assertEquals(1, accountDTO.getBills().get(0).getBillCharges().size());
+        assertEquals("Test", accountDTO.getBills().get(0).getBillCharges().get(0).getChargeType());
+        assertTrue(statistics.getPrepareStatementCount() <= 1);
+    }
+
     /**
      * Happy flow for getting the accounts with overdue bills service. The account list contains 4 accounts in which 2 have overdue bills.
      * @throws ParseException
@@ -610,6 +922,49 @@ public class AccountServiceTests {
         assertEquals(0,accountDTOList.size());
     }
 
+    /**
+     * Seeds 4 accounts and checks that each one is stored with its 2 bills of 3 charges.
+     */
+    @Test
+    public void testSeedAccounts(){
+
+        assertEquals(4, dataSeedService.seed(4, 2, 3));
+
+        List<AccountDTO> accountDTOList = accountService.getAllAccounts();
+
+        assertEquals(4, accountDTOList.size());
+
+        for (AccountDTO accountDTO : accountDTOList) {
+
+            assertEquals(2, accountDTO.getBills().size());
+            assertEquals(3, accountDTO.getBills().get(0).getBillCharges().size());
+        }
+    }
+
+    /**
+     * Waits for the lag check to find the replica current, at most 5 seconds.
+     */
+    private void awaitReplicaInUse() throws InterruptedException {
+
+        for (int i = 0; i < 100 && routingDataSource.getReplicaLagSeconds()[0] > 0; i++){
+            Thread.sleep(50);
+        }
+    }
+
+    /**
+     * Number of accounts read by a writer of its own, on another thread, which has written nothing.
+     */
+    private int countAccountsOfOtherWriter() throws InterruptedException {
+
+        int[] count = new int[1];
+
+        Thread otherWriter = new Thread(() -> count[0] = accountService.getAllAccounts().size());
+        otherWriter.start();
+        otherWriter.join();
+
+        return count[0];
+    }
+
     private Account createAccount(){
 
         Account account = new Account();
@@ -652,8 +1007,8 @@ public class AccountServiceTests {
         BillCharge billCharge = new BillCharge();
         billCharge.setId(1);
         billCharge.setChargeType("Test");
-        billCharge.setTax(10f);
-        billCharge.setAmount(10f);
+        billCharge.setTax(1000);
+        billCharge.setAmount(1000);
         billCharge.setBill(bill);
 
         List<BillCharge> billCharges = new ArrayList<>();
@@ -684,8 +1039,8 @@ public class AccountServiceTests {
         BillChargeDTO billChargeDTO = new BillChargeDTO();
         billChargeDTO.setId(1);
         billChargeDTO.setChargeType("Test");
-        billChargeDTO.setTax(10f);
-        billChargeDTO.setAmount(10f);
+        billChargeDTO.setTax(1000);
+        billChargeDTO.setAmount(1000);
         billChargeDTO.setBill(billDTO);
 
         List<BillChargeDTO> billChargesDTO = new ArrayList<>();
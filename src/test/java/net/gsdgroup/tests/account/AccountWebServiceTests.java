@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.gsdgroup.billing.business.AccountService;
 import net.gsdgroup.billing.business.JsonResponseMessage;
+import net.gsdgroup.billing.dao.EmbeddedReplicator;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.exceptions.ServiceException;
@@ -43,6 +44,7 @@ public class AccountWebServiceTests {
 
     private static AccountService accountService;
     private static SessionFactory sessionFactory;
+    private static EmbeddedReplicator replicator;
     private static ObjectMapper objectMapper;
 
     /**
@@ -58,6 +60,7 @@ public class AccountWebServiceTests {
 
         accountService = context.getBean(AccountService.class);
         sessionFactory = context.getBean(SessionFactory.class);
+        replicator = context.getBeanProvider(EmbeddedReplicator.class).getIfAvailable();
         objectMapper = new ObjectMapper();
 
     }
@@ -69,7 +72,8 @@ public class AccountWebServiceTests {
         assertNotNull(sessionFactory);
     }
     /**
-     * Deletes all data from all the tables. This ensures that each test runs on a clean database.
+     * Deletes all data from all the tables. This ensures that each test runs on a clean database, and on a clean
+     * replica in the embedded profile.
      */
     @Before
     public void deleteTableData(){
@@ -80,9 +84,15 @@ public class AccountWebServiceTests {
             session.createQuery("DELETE FROM BillCharge").executeUpdate();
             session.createQuery("DELETE FROM Bill").executeUpdate();
             session.createQuery("DELETE FROM Account").executeUpdate();
+            session.createQuery("DELETE FROM MonthlyRevenue").executeUpdate();
+            session.createQuery("DELETE FROM ChargeRollup").executeUpdate();
 
             txn.commit();
         }
+
+        if(replicator != null){
+            replicator.catchUp();
+        }
     }
 
     private List<Account> populateAccountTable(){
@@ -1,25 +1,63 @@
 package net.gsdgroup.tests.account;
 
 import net.gsdgroup.billing.business.AccountService;
+import net.gsdgroup.billing.business.AnalysisService;
 import net.gsdgroup.billing.business.BillService;
+import net.gsdgroup.billing.business.BulkBillService;
+import net.gsdgroup.billing.business.ChargeColumnStore;
+import net.gsdgroup.billing.business.ChargeRollupService;
+import net.gsdgroup.billing.business.ChargeSketchStore;
+import net.gsdgroup.billing.business.ChargeFilter;
+import net.gsdgroup.billing.business.ChargeGrouping;
+import net.gsdgroup.billing.business.MonthlyRevenueService;
+import net.gsdgroup.billing.business.OverdueBillTracker;
+import net.gsdgroup.billing.business.TransactionRetrier;
+import net.gsdgroup.billing.dao.EmbeddedReplicator;
+import net.gsdgroup.billing.dao.GroupByDimension;
+import net.gsdgroup.billing.dao.GroupByMeasure;
+import net.gsdgroup.billing.dao.GroupByQuery;
+import net.gsdgroup.billing.dao.ShardMapping;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.entity.RollupLevel;
+import net.gsdgroup.billing.exceptions.ConflictException;
+import net.gsdgroup.billing.exceptions.RetriesExhaustedException;
 import net.gsdgroup.billing.exceptions.ServiceException;
 import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ChargeTotalsDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AccountTotalDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AgingReportDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxBillTotalsDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxDistinctDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.ApproxFrequencyDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.GroupByRowDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.OverdueBillDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.RollupTotalsDTO;
+import net.gsdgroup.billing.webservice.billDTO.BillBatchResultDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillChargeDTO;
 import net.gsdgroup.billing.webservice.billDTO.BillDTO;
+import net.gsdgroup.billing.webservice.billDTO.BulkJobDTO;
 import net.gsdgroup.billing.webservice.billDTO.MonthlyAmountDTO;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PessimisticLockException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
 import static org.junit.Assert.*;
@@ -31,7 +69,17 @@ public class BillServiceTests {
 
     private static BillService billService;
     private static SessionFactory sessionFactory;
+    private static EmbeddedReplicator replicator;
     private static AccountService accountService;
+    private static MonthlyRevenueService monthlyRevenueService;
+    private static ShardMapping shardMapping;
+    private static BulkBillService bulkBillService;
+    private static ChargeColumnStore chargeColumnStore;
+    private static ChargeSketchStore chargeSketchStore;
+    private static OverdueBillTracker overdueBillTracker;
+    private static TransactionRetrier transactionRetrier;
+    private static ChargeRollupService chargeRollupService;
+    private static AnalysisService analysisService;
 
     /**
      * Starts the Spring context. And fetches all the beans necessary.
@@ -44,11 +92,22 @@ public class BillServiceTests {
 
         billService = context.getBean(BillService.class);
         accountService = context.getBean(AccountService.class);
+        monthlyRevenueService = context.getBean(MonthlyRevenueService.class);
+        shardMapping = context.getBean(ShardMapping.class);
+        bulkBillService = context.getBean(BulkBillService.class);
+        chargeColumnStore = context.getBean(ChargeColumnStore.class);
+        chargeSketchStore = context.getBean(ChargeSketchStore.class);
+        overdueBillTracker = context.getBean(OverdueBillTracker.class);
+        transactionRetrier = context.getBean(TransactionRetrier.class);
+        chargeRollupService = context.getBean(ChargeRollupService.class);
+        analysisService = context.getBean(AnalysisService.class);
         sessionFactory = context.getBean(SessionFactory.class);
+        replicator = context.getBeanProvider(EmbeddedReplicator.class).getIfAvailable();
     }
 
     /**
-     * Deletes all data from all the tables. This ensures that each test runs on a clean database.
+     * Deletes all data from all the tables. This ensures that each test runs on a clean database, and on a clean
+     * replica in the embedded profile.
      */
     @Before
     public void deleteTableData(){
@@ -59,9 +118,15 @@ public class BillServiceTests {
             session.createQuery("DELETE FROM BillCharge").executeUpdate();
             session.createQuery("DELETE FROM Bill").executeUpdate();
             session.createQuery("DELETE FROM Account").executeUpdate();
+            session.createQuery("DELETE FROM MonthlyRevenue").executeUpdate();
+            session.createQuery("DELETE FROM ChargeRollup").executeUpdate();
 
             txn.commit();
         }
+
+        if(replicator != null){
+            replicator.catchUp();
+        }
     }
 
     /**
@@ -109,8 +174,8 @@ public class BillServiceTests {
 
         assertEquals(1,billChargeDTO.getId());
         assertEquals("Test",billChargeDTO.getChargeType());
-        assertEquals(10f,billChargeDTO.getTax(),0.0f);
-        assertEquals(10f,billChargeDTO.getAmount(),0.0f);
+        assertEquals(1000,billChargeDTO.getTax());
+        assertEquals(1000,billChargeDTO.getAmount());
         assertEquals(billDTO, billChargeDTO.getBill());
     }
 
@@ -230,6 +295,102 @@ public class BillServiceTests {
         assertNotEquals(0, billId);
     }
 
+    /**
+     * Adds an account with a bill and a charge. The bill and the charge must be given ids in the bucket of
+     * the account, so they are found on the account's shard.
+     * @throws ParseException
+     */
+    @Test
+    public void testAddBill_3() throws ParseException {
+
+        Account account = createAccount();
+        Bill bill = createBillWithNoId();
+        account.addBill(bill);
+        int accountId = accountService.addAccount(account);
+
+        int bucket = shardMapping.bucketOf(accountId);
+
+        assertEquals(bucket, shardMapping.bucketOf(bill.getId()));
+        assertEquals(bucket, shardMapping.bucketOf(bill.getBillCharges().get(0).getId()));
+        assertEquals(bill.getId(), billService.getBillById(bill.getId()).getId());
+    }
+
+    /**
+     * Creates a bill from a DTO for an account that already has 20 bills. The account is only referenced, so
+     * neither it nor any of its bills or charges is loaded.
+     * @throws ParseException
+     */
+    @Test
+    public void testAddBill_4() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+
+        for (int i = 0; i < 20; i++){
+            account.addBill(createBillWithNoId());
+        }
+
+        int accountId = accountService.addAccount(account);
+
+        BillDTO billDTO = new BillDTO();
+        billDTO.setIssueDate(dateFormat.parse("31/12/1998"));
+        billDTO.setDueDate(dateFormat.parse("31/12/1998"));
+        billDTO.setAccountId(accountId);
+        BillChargeDTO billChargeDTO = new BillChargeDTO();
+        billChargeDTO.setChargeType("Test");
+        billChargeDTO.setAmount(1000);
+        billChargeDTO.setTax(1000);
+        billDTO.getBillCharges().add(billChargeDTO);
+
+        Statistics statistics = sessionFactory.getStatistics();
+        statistics.clear();
+
+        int billId = billService.createBill(billDTO);
+
+        assertEquals(0, statistics.getEntityLoadCount());
+        assertEquals(0, statistics.getCollectionLoadCount());
+        assertEquals(accountId, billService.getBillById(billId).getAccountId());
+        assertEquals(21, accountService.getAccountById(accountId).getBills().size());
+    }
+
+    /**
+     * Adds a batch of 3 bills in which the second one has no account id. The valid bills are stored
+     * and the invalid one is reported by its index.
+     * @throws ParseException
+     */
+    @Test
+    public void testAddBills() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        int accountId = accountService.addAccount(account);
+        List<BillDTO> billDTOList = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++){
+
+            BillDTO billDTO = new BillDTO();
+            billDTO.setIssueDate(dateFormat.parse("31/12/1998"));
+            billDTO.setDueDate(dateFormat.parse("31/12/1998"));
+            billDTO.setAccountId(i == 1 ? 0 : accountId);
+
+            BillChargeDTO billChargeDTO = new BillChargeDTO();
+            billChargeDTO.setChargeType("Test");
+            billChargeDTO.setAmount(1000);
+            billChargeDTO.setTax(1000);
+            billDTO.getBillCharges().add(billChargeDTO);
+
+            billDTOList.add(billDTO);
+        }
+
+        BillBatchResultDTO billBatchResultDTO = billService.addBills(billDTOList);
+
+        assertEquals(2, billBatchResultDTO.getAccepted());
+        assertEquals(1, billBatchResultDTO.getRejected());
+        assertEquals("Missing account id.", billBatchResultDTO.getItems().get(1).getMessage());
+        assertNotEquals(0, billBatchResultDTO.getItems().get(2).getId());
+        assertEquals(2, billService.getAllBills().size());
+    }
+
     /**
      * Attempting to add a null bill entity.
      */
@@ -568,6 +729,121 @@ public class BillServiceTests {
         }
     }
 
+    /**
+     * Updating a bill with the version it had before the last update is rejected with its current version.
+     * @throws ParseException
+     */
+    @Test
+    public void testUpdateBill_3() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        accountService.addAccount(account);
+
+        Bill bill = createBillWithNoId();
+        bill.setAccount(account);
+
+        int billId = billService.addBill(bill);
+        BillDTO billDTO = billService.getBillById(billId);
+        billDTO.setDueDate(dateFormat.parse("11/03/2020"));
+        billService.updateBill(billService.buildBillEntity(billDTO));
+
+        billDTO.setDueDate(dateFormat.parse("12/03/2020"));
+
+        try{
+            billService.updateBill(billService.buildBillEntity(billDTO));
+            fail("Expecting ConflictException.");
+
+        } catch (ConflictException e){
+            assertEquals(Integer.valueOf(billDTO.getVersion() + 1), e.getCurrentVersion());
+        }
+
+        assertEquals(dateFormat.parse("11/03/2020"), billService.getBillById(billId).getDueDate());
+    }
+
+    /**
+     * An update adding a charge, retried after its first attempt fails on an optimistic lock, stores the bill
+     * with both charges instead of ending in a conflict.
+     * @throws ParseException
+     */
+    @Test
+    public void testUpdateBill_Retried() throws ParseException {
+
+        Account account = createAccount();
+        accountService.addAccount(account);
+
+        Bill bill = createBillWithNoId();
+        bill.setAccount(account);
+
+        int billId = billService.addBill(bill);
+        Bill billEntity = billService.buildBillEntity(billService.getBillById(billId));
+        billEntity.addBillCharge(createBillChargeWithNoId());
+        int[] attempts = {0};
+
+        transactionRetrier.inTransaction(() -> {
+            billService.updateBill(billEntity);
+
+            if(++attempts[0] == 1){
+                throw new OptimisticLockException("Forced retry.");
+            }
+        });
+
+        assertEquals(2, attempts[0]);
+        assertEquals(2, billService.getBillById(billId).getBillCharges().size());
+        assertEquals(billEntity.getVersion() + 1, billService.getBillById(billId).getVersion());
+    }
+
+    /**
+     * An add retried after its first attempt fails on a deadlock stores the bill once, with new ids, and counts
+     * its charge once in the monthly amounts.
+     * @throws ParseException
+     */
+    @Test
+    public void testAddBill_Retried() throws ParseException {
+
+        Account account = createAccount();
+        accountService.addAccount(account);
+
+        Bill bill = createBillWithNoId();
+        bill.setAccount(account);
+        int[] attempts = {0};
+
+        int billId = transactionRetrier.inTransaction(() -> {
+            int storedId = billService.addBill(bill);
+
+            if(++attempts[0] == 1){
+                throw new PessimisticLockException("Forced retry.");
+            }
+            return storedId;
+        });
+
+        assertEquals(2, attempts[0]);
+        assertEquals(billId, bill.getId());
+        assertEquals(1, billService.getBillById(billId).getBillCharges().size());
+        assertEquals(1, billService.getAllBills().size());
+        assertEquals(2000, billService.getTotalChargedEachMonth().get(0).getAmount());
+    }
+
+    /**
+     * A write that keeps failing on deadlocks ends with a RetriesExhaustedException, not a version conflict.
+     */
+    @Test
+    public void testRetriesExhausted() {
+
+        int[] attempts = {0};
+
+        try{
+            transactionRetrier.inTransaction(() -> {
+                attempts[0]++;
+                throw new PessimisticLockException("Forced retry.");
+            });
+            fail("Expecting RetriesExhaustedException.");
+
+        } catch (RetriesExhaustedException e){
+            assertTrue(attempts[0] > 1);
+        }
+    }
+
     /**
      * Attempting to update a null bill.
      * @throws ParseException
@@ -611,19 +887,614 @@ public class BillServiceTests {
 
         List<MonthlyAmountDTO> monthlyAmountDTOList = billService.getTotalChargedEachMonth();
 
-        assertEquals(20,monthlyAmountDTOList.get(0).getAmount(),0);
+        assertEquals(2000, monthlyAmountDTOList.get(0).getAmount());
         assertEquals("October",monthlyAmountDTOList.get(0).getMonthName());
-        assertEquals(40,monthlyAmountDTOList.get(1).getAmount(),0);
+        assertEquals(4000, monthlyAmountDTOList.get(1).getAmount());
         assertEquals("December",monthlyAmountDTOList.get(1).getMonthName());
     }
 
+    /**
+     * Deleting a bill takes its charges out of the monthly amounts. A rebuild from the bill charges
+     * must then give the same amounts as the incremental updates.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetChargedAmountEachMonth_2() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+
+        Bill bill1 = createBillWithNoId();
+        bill1.setIssueDate(dateFormat.parse("31/10/1998"));
+        Bill bill2 = createBillWithNoId();
+
+        account.addBill(bill1);
+        account.addBill(bill2);
+        accountService.addAccount(account);
+
+        billService.deleteBill(bill1.getId());
+
+        List<MonthlyAmountDTO> monthlyAmountDTOList = billService.getTotalChargedEachMonth();
+
+        assertEquals(1, monthlyAmountDTOList.size());
+        assertEquals(2000, monthlyAmountDTOList.get(0).getAmount());
+        assertEquals("December", monthlyAmountDTOList.get(0).getMonthName());
+
+        monthlyRevenueService.rebuild();
+        monthlyAmountDTOList = billService.getTotalChargedEachMonth();
+
+        assertEquals(1, monthlyAmountDTOList.size());
+        assertEquals(2000, monthlyAmountDTOList.get(0).getAmount());
+    }
+
+    /**
+     * Amounts in cents add up exactly, where 0.10 + 0.20 in floating point does not give 0.30.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetChargedAmountEachMonth_3() throws ParseException {
+
+        Account account = createAccount();
+        Bill bill = createBillWithNoId();
+        bill.getBillCharges().get(0).setAmount(10);
+        bill.getBillCharges().get(0).setTax(0);
+
+        BillCharge billCharge = createBillChargeWithNoId();
+        billCharge.setAmount(20);
+        billCharge.setTax(0);
+        bill.addBillCharge(billCharge);
+
+        account.addBill(bill);
+        accountService.addAccount(account);
+
+        List<MonthlyAmountDTO> monthlyAmountDTOList = billService.getTotalChargedEachMonth();
+
+        assertEquals(1, monthlyAmountDTOList.size());
+        assertEquals(30, monthlyAmountDTOList.get(0).getAmount());
+
+        monthlyRevenueService.rebuild();
+        monthlyAmountDTOList = billService.getTotalChargedEachMonth();
+
+        assertEquals(30, monthlyAmountDTOList.get(0).getAmount());
+    }
+
+    /**
+     * The column store follows the committed writes: the totals per month, per charge type and filtered by
+     * issue date come from memory, and a deleted bill is taken out of them.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetChargeTotals() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        chargeColumnStore.reload();
+
+        Account account = createAccount();
+        Bill bill1 = createBillWithNoId();
+        bill1.setIssueDate(dateFormat.parse("31/10/1998"));
+        Bill bill2 = createBillWithNoId();
+        BillCharge billCharge = createBillChargeWithNoId();
+        billCharge.setChargeType("Other");
+        billCharge.setAmount(500);
+        billCharge.setTax(100);
+        bill2.addBillCharge(billCharge);
+
+        account.addBill(bill1);
+        account.addBill(bill2);
+        accountService.addAccount(account);
+
+        List<ChargeTotalsDTO> chargeTotalsDTOList = chargeColumnStore.getTotals(new ChargeFilter(), ChargeGrouping.MONTH);
+
+        assertEquals(2, chargeTotalsDTOList.size());
+        assertEquals("1998-10", chargeTotalsDTOList.get(0).getGroup());
+        assertEquals(1000, chargeTotalsDTOList.get(0).getAmount());
+        assertEquals(1, chargeTotalsDTOList.get(0).getCount());
+        assertEquals("1998-12", chargeTotalsDTOList.get(1).getGroup());
+        assertEquals(1500, chargeTotalsDTOList.get(1).getAmount());
+        assertEquals(1100, chargeTotalsDTOList.get(1).getTax());
+        assertEquals(2, chargeTotalsDTOList.get(1).getCount());
+
+        ChargeFilter filter = new ChargeFilter();
+        filter.setIssuedFrom(dateFormat.parse("01/12/1998"));
+        chargeTotalsDTOList = chargeColumnStore.getTotals(filter, ChargeGrouping.CHARGE_TYPE);
+
+        assertEquals(2, chargeTotalsDTOList.size());
+        assertEquals("Other", chargeTotalsDTOList.get(0).getGroup());
+        assertEquals(500, chargeTotalsDTOList.get(0).getAmount());
+        assertEquals("Test", chargeTotalsDTOList.get(1).getGroup());
+        assertEquals(1000, chargeTotalsDTOList.get(1).getAmount());
+
+        billService.deleteBill(bill2.getId());
+        chargeTotalsDTOList = chargeColumnStore.getTotals(new ChargeFilter(), ChargeGrouping.NONE);
+
+        assertEquals(1, chargeTotalsDTOList.size());
+        assertEquals(1000, chargeTotalsDTOList.get(0).getAmount());
+        assertEquals(1, chargeTotalsDTOList.get(0).getCount());
+        assertEquals(1, chargeColumnStore.getChargeCount());
+    }
+
+    /**
+     * Groups the charges by month and charge type in the database, then filters them by issue date and account.
+     * @throws ParseException
+     */
+    @Test
+    public void testGroupBy() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        Bill bill1 = createBillWithNoId();
+        bill1.setIssueDate(dateFormat.parse("31/10/1998"));
+        Bill bill2 = createBillWithNoId();
+        BillCharge billCharge = createBillChargeWithNoId();
+        billCharge.setChargeType("Other");
+        billCharge.setAmount(500);
+        bill2.addBillCharge(billCharge);
+
+        account.addBill(bill1);
+        account.addBill(bill2);
+        accountService.addAccount(account);
+
+        GroupByQuery query = new GroupByQuery();
+        query.addDimension(GroupByDimension.YEAR_MONTH);
+        query.addDimension(GroupByDimension.CHARGE_TYPE);
+        List<GroupByRowDTO> groupByRowDTOList = analysisService.groupBy(query);
+
+        assertEquals(3, groupByRowDTOList.size());
+        assertEquals(Integer.valueOf(10), groupByRowDTOList.get(0).getMonth());
+        assertEquals("Test", groupByRowDTOList.get(0).getChargeType());
+        assertEquals(Integer.valueOf(12), groupByRowDTOList.get(1).getMonth());
+        assertEquals("Other", groupByRowDTOList.get(1).getChargeType());
+        assertEquals(Long.valueOf(500), groupByRowDTOList.get(1).getAmount());
+        assertEquals(Long.valueOf(1000), groupByRowDTOList.get(1).getTax());
+        assertEquals(Long.valueOf(1), groupByRowDTOList.get(1).getCount());
+        assertEquals(Integer.valueOf(1998), groupByRowDTOList.get(2).getYear());
+        assertEquals("Test", groupByRowDTOList.get(2).getChargeType());
+
+        query = new GroupByQuery();
+        query.addDimension(GroupByDimension.ACCOUNT);
+        query.addMeasure(GroupByMeasure.SUM_AMOUNT);
+        query.addMeasure(GroupByMeasure.AVG_AMOUNT);
+        query.setIssuedFrom(dateFormat.parse("01/12/1998"));
+        query.setIssuedTo(dateFormat.parse("31/12/1998"));
+        query.setAccountIds(Collections.singletonList(account.getId()));
+        groupByRowDTOList = analysisService.groupBy(query);
+
+        assertEquals(1, groupByRowDTOList.size());
+        assertEquals(Integer.valueOf(account.getId()), groupByRowDTOList.get(0).getAccountId());
+        assertEquals(Long.valueOf(1500), groupByRowDTOList.get(0).getAmount());
+        assertEquals(750, groupByRowDTOList.get(0).getAvgAmount(), 0);
+        assertNull(groupByRowDTOList.get(0).getCount());
+    }
+
+    /**
+     * Without dimensions and without charges in the date range the totals are 0.
+     * @throws ParseException
+     */
+    @Test
+    public void testGroupBy_NoCharges() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        account.addBill(createBillWithNoId());
+        accountService.addAccount(account);
+
+        GroupByQuery query = new GroupByQuery();
+        query.setIssuedFrom(dateFormat.parse("01/01/1900"));
+        query.setIssuedTo(dateFormat.parse("02/01/1900"));
+        List<GroupByRowDTO> groupByRowDTOList = analysisService.groupBy(query);
+
+        assertEquals(1, groupByRowDTOList.size());
+        assertEquals(Long.valueOf(0), groupByRowDTOList.get(0).getAmount());
+        assertEquals(Long.valueOf(0), groupByRowDTOList.get(0).getTax());
+        assertEquals(Long.valueOf(0), groupByRowDTOList.get(0).getCount());
+    }
+
+    /**
+     * Ranks three accounts by the total charged. The bill of 1998 of the third account is left out by the
+     * date window, so it ranks last and is not in the top two.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetTopAccounts() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account1 = createAccount();
+        account1.addBill(createBillWithNoId());
+        Account account2 = createAccount();
+        account2.setFirstName("Second");
+        Bill bill = createBillWithNoId();
+        bill.addBillCharge(createBillChargeWithNoId());
+        account2.addBill(bill);
+        Account account3 = createAccount();
+        bill = createBillWithNoId();
+        bill.setIssueDate(dateFormat.parse("01/01/1998"));
+        bill.addBillCharge(createBillChargeWithNoId());
+        bill.addBillCharge(createBillChargeWithNoId());
+        account3.addBill(bill);
+
+        accountService.addAccount(account1);
+        accountService.addAccount(account2);
+        accountService.addAccount(account3);
+
+        List<AccountTotalDTO> accountTotalDTOList =
+                analysisService.getTopAccounts(2, dateFormat.parse("01/12/1998"), dateFormat.parse("31/12/1998"));
+
+        assertEquals(2, accountTotalDTOList.size());
+        assertEquals(account2.getId(), accountTotalDTOList.get(0).getAccountId());
+        assertEquals("Second", accountTotalDTOList.get(0).getFirstName());
+        assertEquals(4000, accountTotalDTOList.get(0).getTotal());
+        assertEquals(2, accountTotalDTOList.get(0).getChargeCount());
+        assertEquals(account1.getId(), accountTotalDTOList.get(1).getAccountId());
+        assertEquals(2000, accountTotalDTOList.get(1).getTotal());
+
+        accountTotalDTOList = analysisService.getTopAccounts(3, null, null);
+
+        assertEquals(account3.getId(), accountTotalDTOList.get(0).getAccountId());
+        assertEquals(6000, accountTotalDTOList.get(0).getTotal());
+    }
+
+    @Test(expected = ServiceException.class)
+    public void testGetTopAccounts_InvalidCount() {
+
+        analysisService.getTopAccounts(0, null, null);
+    }
+
+    /**
+     * Rolls the charges up per month and per year, 1998 and 1999 kept apart, with a range that starts in the
+     * middle of a month, and takes a deleted bill out of the rollup.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetChargeRollup() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        Bill bill1 = createBillWithNoId();
+        bill1.setIssueDate(dateFormat.parse("31/10/1998"));
+        Bill bill2 = createBillWithNoId();
+        BillCharge billCharge = createBillChargeWithNoId();
+        billCharge.setChargeType("Other");
+        billCharge.setAmount(500);
+        billCharge.setTax(100);
+        bill2.addBillCharge(billCharge);
+        Bill bill3 = createBillWithNoId();
+        bill3.setIssueDate(dateFormat.parse("31/12/1999"));
+
+        account.addBill(bill1);
+        account.addBill(bill2);
+        account.addBill(bill3);
+        accountService.addAccount(account);
+
+        List<RollupTotalsDTO> rollupTotalsDTOList = chargeRollupService.getTotals(dateFormat.parse("01/10/1998"),
+                dateFormat.parse("31/12/1998"), RollupLevel.MONTH, null);
+
+        assertEquals(3, rollupTotalsDTOList.size());
+        assertEquals("1998-10", rollupTotalsDTOList.get(0).getPeriod());
+        assertEquals(1000, rollupTotalsDTOList.get(0).getAmount());
+        assertEquals("1998-12", rollupTotalsDTOList.get(1).getPeriod());
+        assertEquals("Other", rollupTotalsDTOList.get(1).getChargeType());
+        assertEquals(500, rollupTotalsDTOList.get(1).getAmount());
+        assertEquals(100, rollupTotalsDTOList.get(1).getTax());
+        assertEquals("Test", rollupTotalsDTOList.get(2).getChargeType());
+        assertEquals(1, rollupTotalsDTOList.get(2).getCount());
+
+        rollupTotalsDTOList = chargeRollupService.getTotals(dateFormat.parse("15/12/1998"),
+                dateFormat.parse("31/12/1999"), null, "Test");
+
+        assertEquals(1, rollupTotalsDTOList.size());
+        assertEquals("all", rollupTotalsDTOList.get(0).getPeriod());
+        assertEquals(2000, rollupTotalsDTOList.get(0).getAmount());
+        assertEquals(2, rollupTotalsDTOList.get(0).getCount());
+
+        billService.deleteBill(bill2.getId());
+        rollupTotalsDTOList = chargeRollupService.getTotals(dateFormat.parse("01/01/1998"),
+                dateFormat.parse("31/12/1999"), RollupLevel.YEAR, null);
+
+        assertEquals(2, rollupTotalsDTOList.size());
+        assertEquals("1998", rollupTotalsDTOList.get(0).getPeriod());
+        assertEquals(1000, rollupTotalsDTOList.get(0).getAmount());
+        assertEquals(1, rollupTotalsDTOList.get(0).getCount());
+        assertEquals("1999", rollupTotalsDTOList.get(1).getPeriod());
+        assertEquals(1, rollupTotalsDTOList.get(1).getCount());
+    }
+
+    /**
+     * Ages the overdue charges of two accounts, one page of one account at a time. The bill of the third
+     * account is not due yet and is left out.
+     */
+    @Test
+    public void testGetAgingReport() throws ParseException {
+
+        LocalDate today = LocalDate.now();
+        Account account1 = createAccount();
+        Bill bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.minusDays(10)));
+        account1.addBill(bill);
+        bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.minusDays(45)));
+        account1.addBill(bill);
+        Account account2 = createAccount();
+        bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.minusDays(100)));
+        bill.addBillCharge(createBillChargeWithNoId());
+        account2.addBill(bill);
+        Account account3 = createAccount();
+        bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.plusDays(10)));
+        account3.addBill(bill);
+
+        accountService.addAccount(account1);
+        accountService.addAccount(account2);
+        accountService.addAccount(account3);
+
+        AgingReportDTO agingReportDTO = analysisService.getAgingReport(0, 1);
+
+        assertEquals(Long.valueOf(2), agingReportDTO.getOverall().getAccountCount());
+        assertEquals(2000, agingReportDTO.getOverall().getDays0To30());
+        assertEquals(2000, agingReportDTO.getOverall().getDays31To60());
+        assertEquals(0, agingReportDTO.getOverall().getDays61To90());
+        assertEquals(4000, agingReportDTO.getOverall().getOver90Days());
+        assertEquals(8000, agingReportDTO.getOverall().getTotal());
+        assertEquals(3, agingReportDTO.getOverall().getBillCount());
+
+        assertEquals(1, agingReportDTO.getAccounts().getItems().size());
+        assertEquals(Integer.valueOf(account1.getId()), agingReportDTO.getAccounts().getItems().get(0).getAccountId());
+        assertEquals(4000, agingReportDTO.getAccounts().getItems().get(0).getTotal());
+        assertEquals(2, agingReportDTO.getAccounts().getItems().get(0).getBillCount());
+        assertEquals(Integer.valueOf(account1.getId()), agingReportDTO.getAccounts().getNextCursor());
+
+        agingReportDTO = analysisService.getAgingReport(agingReportDTO.getAccounts().getNextCursor(), 1);
+
+        assertEquals(1, agingReportDTO.getAccounts().getItems().size());
+        assertEquals(Integer.valueOf(account2.getId()), agingReportDTO.getAccounts().getItems().get(0).getAccountId());
+        assertEquals(4000, agingReportDTO.getAccounts().getItems().get(0).getOver90Days());
+        assertNull(agingReportDTO.getAccounts().getNextCursor());
+    }
+
+    /**
+     * The sketches follow the committed writes: two accounts billed in October 1998, one of them with two
+     * charge types, and the quantiles of the bill totals within the relative error.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetApproximateAnswers() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        chargeSketchStore.reload();
+
+        Account account1 = createAccount();
+        Bill bill = createBillWithNoId();
+        bill.setIssueDate(dateFormat.parse("31/10/1998"));
+        BillCharge billCharge = createBillChargeWithNoId();
+        billCharge.setChargeType("Other");
+        bill.addBillCharge(billCharge);
+        account1.addBill(bill);
+        Account account2 = createAccount();
+        bill = createBillWithNoId();
+        bill.setIssueDate(dateFormat.parse("01/10/1998"));
+        account2.addBill(bill);
+        account2.addBill(createBillWithNoId());
+
+        accountService.addAccount(account1);
+        accountService.addAccount(account2);
+
+        List<ApproxDistinctDTO> approxDistinctDTOList =
+                chargeSketchStore.getDistinctCounts(dateFormat.parse("01/10/1998"), dateFormat.parse("31/10/1998"));
+
+        assertEquals(2, approxDistinctDTOList.size());
+        assertEquals("1998-10", approxDistinctDTOList.get(0).getPeriod());
+        assertEquals(2, approxDistinctDTOList.get(0).getAccounts());
+        assertEquals(2, approxDistinctDTOList.get(0).getChargeTypes());
+        assertEquals("all", approxDistinctDTOList.get(1).getPeriod());
+
+        ApproxBillTotalsDTO approxBillTotalsDTO = chargeSketchStore.getBillTotalQuantiles(Arrays.asList(0.0, 1.0),
+                dateFormat.parse("01/10/1998"), dateFormat.parse("31/10/1998"));
+
+        double relativeError = approxBillTotalsDTO.getRelativeError();
+
+        assertEquals(2, approxBillTotalsDTO.getBillCount());
+        assertEquals(2000, approxBillTotalsDTO.getQuantiles().get(0).getValue(), 2000 * relativeError);
+        assertEquals(4000, approxBillTotalsDTO.getQuantiles().get(1).getValue(), 4000 * relativeError);
+
+        List<ApproxFrequencyDTO> approxFrequencyDTOList =
+                chargeSketchStore.getChargeTypeFrequencies(Arrays.asList("Test", "Other", "None"));
+
+        assertEquals(3, approxFrequencyDTOList.get(0).getCount(), approxFrequencyDTOList.get(0).getMaxOverestimate());
+        assertEquals(1, approxFrequencyDTOList.get(1).getCount(), approxFrequencyDTOList.get(1).getMaxOverestimate());
+        assertEquals(0, approxFrequencyDTOList.get(2).getCount(), approxFrequencyDTOList.get(2).getMaxOverestimate());
+    }
+
+    /**
+     * The tracker follows the committed writes: the bills due before today are overdue, the one due in 10 days
+     * is not, until the due dates of its account are moved and one bill is deleted.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetTrackedOverdueBills() throws ParseException, InterruptedException {
+
+        overdueBillTracker.reload();
+
+        LocalDate today = LocalDate.now();
+        Account account1 = createAccount();
+        Bill bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.minusDays(10)));
+        account1.addBill(bill);
+        bill = createBillWithNoId();
+        bill.setDueDate(toDate(today.plusDays(10)));
+        account1.addBill(bill);
+        Account account2 = createAccount();
+        Bill overdueBill = createBillWithNoId();
+        overdueBill.setDueDate(toDate(today.minusDays(5)));
+        account2.addBill(overdueBill);
+
+        accountService.addAccount(account1);
+        accountService.addAccount(account2);
+
+        assertEquals(2, overdueBillTracker.getOverdueBills(null).size());
+
+        List<OverdueBillDTO> overdueBillDTOList = overdueBillTracker.getOverdueBills(account2.getId());
+
+        assertEquals(1, overdueBillDTOList.size());
+        assertEquals(overdueBill.getId(), overdueBillDTOList.get(0).getBillId());
+        assertEquals(5, overdueBillDTOList.get(0).getDaysOverdue());
+        assertEquals(2000, overdueBillDTOList.get(0).getTotal());
+
+        awaitJob(bulkBillService.startShiftDueDates(account1.getId(), -20));
+        billService.deleteBill(overdueBill.getId());
+
+        overdueBillDTOList = overdueBillTracker.getOverdueBills(null);
+
+        assertEquals(2, overdueBillDTOList.size());
+        assertEquals(account1.getId(), overdueBillDTOList.get(0).getAccountId());
+        assertEquals(account1.getId(), overdueBillDTOList.get(1).getAccountId());
+        assertTrue(overdueBillTracker.getOverdueBills(account2.getId()).isEmpty());
+    }
+
+    /**
+     * Deleted and updated bills are taken out of the frequencies and the quantiles of the bill totals: of
+     * three bills one is deleted and one gets a second charge.
+     * @throws ParseException
+     */
+    @Test
+    public void testGetApproximateAnswers_AfterRemovals() throws ParseException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        chargeSketchStore.reload();
+
+        Account account = createAccount();
+        account.addBill(createBillWithNoId());
+        account.addBill(createBillWithNoId());
+        account.addBill(createBillWithNoId());
+        accountService.addAccount(account);
+
+        List<Bill> bills = account.getBills();
+        billService.deleteBill(bills.get(0).getId());
+
+        BillDTO billDTO = billService.getBillById(bills.get(1).getId());
+        Bill billEntity = billService.buildBillEntity(billDTO);
+        billEntity.addBillCharge(createBillChargeWithNoId());
+        billService.updateBill(billEntity);
+
+        ApproxBillTotalsDTO approxBillTotalsDTO = chargeSketchStore.getBillTotalQuantiles(Arrays.asList(0.0, 1.0),
+                dateFormat.parse("01/12/1998"), dateFormat.parse("31/12/1998"));
+
+        double relativeError = approxBillTotalsDTO.getRelativeError();
+
+        assertEquals(2, approxBillTotalsDTO.getBillCount());
+        assertEquals(2000, approxBillTotalsDTO.getQuantiles().get(0).getValue(), 2000 * relativeError);
+        assertEquals(4000, approxBillTotalsDTO.getQuantiles().get(1).getValue(), 4000 * relativeError);
+
+        List<ApproxFrequencyDTO> approxFrequencyDTOList =
+                chargeSketchStore.getChargeTypeFrequencies(Collections.singletonList("Test"));
+
+        assertEquals(3, approxFrequencyDTOList.get(0).getCount(), approxFrequencyDTOList.get(0).getMaxOverestimate());
+    }
+
+    /**
+     * Deletes the bills issued before 1999. The bill of 1998 goes with its charges and its monthly amount,
+     * the bill of 2000 stays.
+     * @throws ParseException
+     */
+    @Test
+    public void testDeleteBillsIssuedBefore() throws ParseException, InterruptedException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+
+        Bill oldBill = createBillWithNoId();
+        Bill newBill = createBillWithNoId();
+        newBill.setIssueDate(dateFormat.parse("31/12/2000"));
+
+        account.addBill(oldBill);
+        account.addBill(newBill);
+        accountService.addAccount(account);
+
+        BulkJobDTO job = awaitJob(bulkBillService.startDeleteBillsIssuedBefore(dateFormat.parse("01/01/1999")));
+
+        assertEquals(BulkJobDTO.DONE, job.getStatus());
+        assertEquals(1, job.getProcessed());
+
+        List<BillDTO> billDTOList = billService.getAllBills();
+
+        assertEquals(1, billDTOList.size());
+        assertEquals(newBill.getId(), billDTOList.get(0).getId());
+        assertEquals(1, billDTOList.get(0).getBillCharges().size());
+        assertEquals(1, billService.getTotalChargedEachMonth().size());
+    }
+
+    /**
+     * Moves the due dates of the bills of an account 10 days later.
+     * @throws ParseException
+     */
+    @Test
+    public void testShiftDueDates() throws ParseException, InterruptedException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        account.addBill(createBillWithNoId());
+        account.addBill(createBillWithNoId());
+        int accountId = accountService.addAccount(account);
+
+        BulkJobDTO job = awaitJob(bulkBillService.startShiftDueDates(accountId, 10));
+
+        assertEquals(BulkJobDTO.DONE, job.getStatus());
+        assertEquals(2, job.getProcessed());
+
+        for (BillDTO billDTO : accountService.getAccountById(accountId).getBills()) {
+            assertEquals(dateFormat.parse("10/01/1999"), billDTO.getDueDate());
+        }
+    }
+
+    /**
+     * Updating a bill with the version it had before its due date was shifted is rejected, the shifted due
+     * date stays.
+     * @throws ParseException
+     */
+    @Test
+    public void testShiftDueDates_Conflict() throws ParseException, InterruptedException {
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        Account account = createAccount();
+        accountService.addAccount(account);
+
+        Bill bill = createBillWithNoId();
+        bill.setAccount(account);
+
+        int billId = billService.addBill(bill);
+        BillDTO billDTO = billService.getBillById(billId);
+
+        awaitJob(bulkBillService.startShiftDueDates(account.getId(), 10));
+
+        billDTO.setDueDate(dateFormat.parse("12/03/2020"));
+
+        try{
+            billService.updateBill(billService.buildBillEntity(billDTO));
+            fail("Expecting ConflictException.");
+
+        } catch (ConflictException e){
+            assertEquals(Integer.valueOf(billDTO.getVersion() + 1), e.getCurrentVersion());
+        }
+
+        assertEquals(dateFormat.parse("10/01/1999"), billService.getBillById(billId).getDueDate());
+    }
+
+    private BulkJobDTO awaitJob(BulkJobDTO job) throws InterruptedException {
+
+        for (int i = 0; i < 100 && BulkJobDTO.RUNNING.equals(job.getStatus()); i++) {
+            Thread.sleep(50);
+            job = bulkBillService.getJob(job.getId());
+        }
+
+        return job;
+    }
+
     private BillCharge createBillCharge(){
 
         BillCharge billCharge = new BillCharge();
         billCharge.setId(1);
         billCharge.setChargeType("Test");
-        billCharge.setTax(10f);
-        billCharge.setAmount(10f);
+        billCharge.setTax(1000);
+        billCharge.setAmount(1000);
 
         return billCharge;
     }
@@ -632,8 +1503,8 @@ public class BillServiceTests {
 
         BillCharge billCharge = new BillCharge();
         billCharge.setChargeType("Test");
-        billCharge.setTax(10f);
-        billCharge.setAmount(10f);
+        billCharge.setTax(1000);
+        billCharge.setAmount(1000);
 
         return billCharge;
     }
@@ -662,6 +1533,11 @@ public class BillServiceTests {
         return bill;
     }
 
+    private Date toDate(LocalDate day){
+
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
     private Account createAccount(){
 
         Account account = new Account();
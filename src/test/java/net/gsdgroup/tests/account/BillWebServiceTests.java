@@ -6,6 +6,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import net.gsdgroup.billing.business.AccountService;
 import net.gsdgroup.billing.business.BillService;
 import net.gsdgroup.billing.business.JsonResponseMessage;
+import net.gsdgroup.billing.dao.EmbeddedReplicator;
 import net.gsdgroup.billing.entity.Account;
 import net.gsdgroup.billing.entity.Bill;
 import net.gsdgroup.billing.entity.BillCharge;
@@ -41,6 +42,7 @@ public class BillWebServiceTests {
     private static AccountService accountService;
     private static BillService billService;
     private static SessionFactory sessionFactory;
+    private static EmbeddedReplicator replicator;
     private static ObjectMapper objectMapper;
 
     /**
@@ -57,12 +59,14 @@ public class BillWebServiceTests {
         accountService = context.getBean(AccountService.class);
         billService = context.getBean(BillService.class);
         sessionFactory = context.getBean(SessionFactory.class);
+        replicator = context.getBeanProvider(EmbeddedReplicator.class).getIfAvailable();
         objectMapper = new ObjectMapper();
 
     }
 
     /**
-     * Deletes all data from all the tables. This ensures that each test runs on a clean database.
+     * Deletes all data from all the tables. This ensures that each test runs on a clean database, and on a clean
+     * replica in the embedded profile.
      */
     @Before
     public void deleteTableData(){
@@ -73,9 +77,15 @@ public class BillWebServiceTests {
             session.createQuery("DELETE FROM BillCharge").executeUpdate();
             session.createQuery("DELETE FROM Bill").executeUpdate();
             session.createQuery("DELETE FROM Account").executeUpdate();
+            session.createQuery("DELETE FROM MonthlyRevenue").executeUpdate();
+            session.createQuery("DELETE FROM ChargeRollup").executeUpdate();
 
             txn.commit();
         }
+
+        if(replicator != null){
+            replicator.catchUp();
+        }
     }
 
     /**
@@ -653,9 +663,9 @@ public class BillWebServiceTests {
             e.printStackTrace();
         }
 
-        assertEquals(20,monthlyAmountDTOList.get(0).getAmount(),0);
+        assertEquals(2000, monthlyAmountDTOList.get(0).getAmount());
         assertEquals("October",monthlyAmountDTOList.get(0).getMonthName());
-        assertEquals(40,monthlyAmountDTOList.get(1).getAmount(),0);
+        assertEquals(4000, monthlyAmountDTOList.get(1).getAmount());
         assertEquals("December",monthlyAmountDTOList.get(1).getMonthName());
 
     }
@@ -705,8 +715,8 @@ public class BillWebServiceTests {
 
         BillCharge billCharge = new BillCharge();
         billCharge.setChargeType("Test");
-        billCharge.setTax(10f);
-        billCharge.setAmount(10f);
+        billCharge.setTax(1000);
+        billCharge.setAmount(1000);
 
         return billCharge;
     }
@@ -0,0 +1,266 @@
+package net.gsdgroup.tests.account;
+
+import net.gsdgroup.billing.business.AccountService;
+import net.gsdgroup.billing.business.AnalysisService;
+import net.gsdgroup.billing.dao.EmbeddedReplicator;
+import net.gsdgroup.billing.dao.GroupByDimension;
+import net.gsdgroup.billing.dao.GroupByQuery;
+import net.gsdgroup.billing.dao.ShardContext;
+import net.gsdgroup.billing.dao.ShardMapping;
+import net.gsdgroup.billing.entity.Account;
+import net.gsdgroup.billing.entity.Bill;
+import net.gsdgroup.billing.entity.BillCharge;
+import net.gsdgroup.billing.webservice.accountDTO.AccountDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AccountTotalDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.AgingReportDTO;
+import net.gsdgroup.billing.webservice.analysisDTO.GroupByRowDTO;
+import net.gsdgroup.billing.webservice.pageDTO.PageDTO;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Service tests on two shards of the embedded database. The accounts are placed round robin over the buckets,
+ * so consecutive accounts land on different shards, and every read that spans accounts has to merge the shards.
+ */
+public class ShardedServiceTests {
+
+    private static final String SECOND_SHARD_URL =
+            "jdbc:h2:mem:billing_app_shard1;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static AccountService accountService;
+    private static AnalysisService analysisService;
+    private static ShardMapping shardMapping;
+    private static SessionFactory sessionFactory;
+    private static EmbeddedReplicator replicator;
+
+    /**
+     * Starts the Spring context with two shards. The shard settings are only read while the context starts,
+     * so they are cleared right after, for the contexts of the other test classes.
+     */
+    @BeforeClass
+    public static void testInit() {
+
+        Assume.assumeTrue("embedded".equals(System.getProperty("spring.profiles.active")));
+
+        System.setProperty("db.shard.count", "2");
+        System.setProperty("db.shard.urls", SECOND_SHARD_URL);
+
+        try {
+            ClassPathXmlApplicationContext context = new ClassPathXmlApplicationContext("applicationContext.xml");
+
+            accountService = context.getBean(AccountService.class);
+            analysisService = context.getBean(AnalysisService.class);
+            shardMapping = context.getBean(ShardMapping.class);
+            sessionFactory = context.getBean(SessionFactory.class);
+            replicator = context.getBean(EmbeddedReplicator.class);
+
+        } finally {
+            System.clearProperty("db.shard.count");
+            System.clearProperty("db.shard.urls");
+        }
+    }
+
+    /**
+     * Deletes all data from all the tables of both shards and of the replica of shard 0.
+     */
+    @Before
+    public void deleteTableData(){
+
+        for (int shard = 0; shard < shardMapping.getShardCount(); shard++){
+
+            ShardContext.bind(shard);
+
+            try(Session session = sessionFactory.openSession()){
+                Transaction txn = session.beginTransaction();
+
+                session.createQuery("DELETE FROM BillCharge").executeUpdate();
+                session.createQuery("DELETE FROM Bill").executeUpdate();
+                session.createQuery("DELETE FROM Account").executeUpdate();
+                session.createQuery("DELETE FROM MonthlyRevenue").executeUpdate();
+                session.createQuery("DELETE FROM ChargeRollup").executeUpdate();
+
+                txn.commit();
+
+            } finally {
+                ShardContext.clear();
+            }
+        }
+
+        replicator.catchUp();
+    }
+
+    /**
+     * The accounts are stored on both shards, each on the shard of its id, and each is read back from there.
+     */
+    @Test
+    public void testGetAccountById(){
+
+        List<Account> accounts = populateAccountTable();
+        Set<Integer> shards = new HashSet<>();
+
+        for (Account account : accounts){
+
+            shards.add(shardMapping.shardOf(account.getId()));
+
+            AccountDTO accountDTO = accountService.getAccountById(account.getId());
+
+            assertEquals(account.getId(), accountDTO.getId());
+            assertEquals(account.getFirstName(), accountDTO.getFirstName());
+            assertEquals(1, accountDTO.getBills().size());
+        }
+
+        assertEquals(2, shards.size());
+        assertEquals(2, countAccountsOnShard(0));
+        assertEquals(2, countAccountsOnShard(1));
+    }
+
+    /**
+     * All the accounts and the pages of accounts come from both shards, in id order.
+     */
+    @Test
+    public void testGetAllAccountsAndPages(){
+
+        List<Account> accounts = populateAccountTable();
+        List<Integer> ids = new ArrayList<>();
+
+        for (Account account : accounts){
+            ids.add(account.getId());
+        }
+        ids.sort(null);
+
+        List<AccountDTO> accountDTOList = accountService.getAllAccounts();
+
+        assertEquals(4, accountDTOList.size());
+
+        for (int i = 0; i < ids.size(); i++){
+            assertEquals((int) ids.get(i), accountDTOList.get(i).getId());
+            assertEquals(1, accountDTOList.get(i).getBills().size());
+        }
+
+        PageDTO<AccountDTO> page = accountService.getAccountsPage(0, 3);
+
+        assertEquals(3, page.getItems().size());
+        assertEquals((int) ids.get(0), page.getItems().get(0).getId());
+        assertEquals((int) ids.get(2), page.getItems().get(2).getId());
+        assertEquals(ids.get(2), page.getNextCursor());
+
+        page = accountService.getAccountsPage(page.getNextCursor(), 3);
+
+        assertEquals(1, page.getItems().size());
+        assertEquals((int) ids.get(3), page.getItems().get(0).getId());
+        assertNull(page.getNextCursor());
+    }
+
+    /**
+     * The group-by totals, the top accounts and the aging report add up the charges of both shards.
+     */
+    @Test
+    public void testAnalysisMerges(){
+
+        List<Account> accounts = populateAccountTable();
+
+        List<GroupByRowDTO> groupByRowDTOList = analysisService.groupBy(new GroupByQuery());
+
+        assertEquals(1, groupByRowDTOList.size());
+        assertEquals(Long.valueOf(7000), groupByRowDTOList.get(0).getAmount());
+        assertEquals(Long.valueOf(7000), groupByRowDTOList.get(0).getTax());
+        assertEquals(Long.valueOf(7), groupByRowDTOList.get(0).getCount());
+
+        GroupByQuery query = new GroupByQuery();
+        query.addDimension(GroupByDimension.ACCOUNT);
+        groupByRowDTOList = analysisService.groupBy(query);
+
+        assertEquals(4, groupByRowDTOList.size());
+
+        List<AccountTotalDTO> accountTotalDTOList = analysisService.getTopAccounts(2, null, null);
+
+        assertEquals(2, accountTotalDTOList.size());
+        assertEquals(accounts.get(2).getId(), accountTotalDTOList.get(0).getAccountId());
+        assertEquals(6000, accountTotalDTOList.get(0).getTotal());
+        assertEquals("TestFirstName2", accountTotalDTOList.get(0).getFirstName());
+        assertEquals(accounts.get(1).getId(), accountTotalDTOList.get(1).getAccountId());
+        assertEquals(4000, accountTotalDTOList.get(1).getTotal());
+        assertEquals("TestFirstName1", accountTotalDTOList.get(1).getFirstName());
+
+        AgingReportDTO agingReportDTO = analysisService.getAgingReport(0, 10);
+
+        assertEquals(Long.valueOf(3), agingReportDTO.getOverall().getAccountCount());
+        assertEquals(2000, agingReportDTO.getOverall().getDays0To30());
+        assertEquals(2000, agingReportDTO.getOverall().getDays31To60());
+        assertEquals(4000, agingReportDTO.getOverall().getOver90Days());
+        assertEquals(8000, agingReportDTO.getOverall().getTotal());
+        assertEquals(3, agingReportDTO.getOverall().getBillCount());
+        assertEquals(3, agingReportDTO.getAccounts().getItems().size());
+        assertNull(agingReportDTO.getAccounts().getNextCursor());
+    }
+
+    /**
+     * Four accounts with one bill each, of 1, 2, 3 and 1 charges, due 10 days ago, 100 days ago, in 10 days
+     * and 45 days ago.
+     */
+    private List<Account> populateAccountTable(){
+
+        LocalDate today = LocalDate.now();
+        int[] chargeCounts = {1, 2, 3, 1};
+        LocalDate[] dueDates = {today.minusDays(10), today.minusDays(100), today.plusDays(10), today.minusDays(45)};
+        List<Account> accounts = new ArrayList<>();
+
+        for (int i = 0; i < chargeCounts.length; i++){
+
+            Account account = new Account();
+            account.setFirstName("TestFirstName" + i);
+            account.setLastName("TestLastName" + i);
+
+            Bill bill = new Bill();
+            bill.setIssueDate(toDate(today.minusDays(120)));
+            bill.setDueDate(toDate(dueDates[i]));
+
+            for (int j = 0; j < chargeCounts[i]; j++){
+
+                BillCharge billCharge = new BillCharge();
+                billCharge.setChargeType("Test");
+                billCharge.setAmount(1000);
+                billCharge.setTax(1000);
+                bill.addBillCharge(billCharge);
+            }
+
+            account.addBill(bill);
+            accountService.addAccount(account);
+            accounts.add(account);
+        }
+        return accounts;
+    }
+
+    private long countAccountsOnShard(int shard){
+
+        ShardContext.bind(shard);
+
+        try(Session session = sessionFactory.openSession()){
+            return session.createQuery("SELECT COUNT(ac) FROM Account ac", Long.class).getSingleResult();
+
+        } finally {
+            ShardContext.clear();
+        }
+    }
+
+    private Date toDate(LocalDate day){
+
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}